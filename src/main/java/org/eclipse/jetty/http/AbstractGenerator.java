@@ -75,7 +75,7 @@ public abstract class AbstractGenerator implements Generator
     protected Buffer _buffer; // Buffer for copy of passed _content
     protected Buffer _content; // Buffer passed to addContent
 
-    protected Buffer _date;
+    protected Buffer _date; // Immutable per second Date value from HttpFields.__dateCache, read without locking
 
     private boolean _sendServerVersion;
 
@@ -0,0 +1,519 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2016 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http;
+
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+
+/* ------------------------------------------------------------ */
+/** HTTP dates, without Calendars or SimpleDateFormat.
+ * <p>
+ * Parses the three formats that RFC 7231 requires a recipient to accept:
+ * <pre>
+ * Sun, 06 Nov 1994 08:49:37 GMT    ; IMF-fixdate
+ * Sunday, 06-Nov-94 08:49:37 GMT   ; RFC 850
+ * Sun Nov  6 08:49:37 1994         ; asctime
+ * </pre>
+ * straight from the bytes of a header, and formats IMF-fixdates and cookie
+ * dates with integer arithmetic on the proleptic Gregorian calendar, in GMT.
+ * The last few dates parsed and formatted are kept, as conditional requests
+ * for the same resources send the same If-Modified-Since values over and over.
+ * </p>
+ */
+public final class HttpDate
+{
+    private static final String[] DAYS = { "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat" };
+    private static final String[] MONTHS = { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+
+    private static final int MAX_LENGTH=64;
+    private static final int CACHE_SIZE=8; // a power of 2
+
+    // Racy caches of immutable entries, a lost entry is only a miss
+    private static final Parsed[] __parsed=new Parsed[CACHE_SIZE];
+    private static final Formatted[] __formatted=new Formatted[CACHE_SIZE];
+    private static int __parsedNext;
+    private static int __formattedNext;
+
+    // A two digit year more than 50 years ahead is in the past century (RFC 7231 section 7.1.1.1)
+    private static final int __thisYear=year(System.currentTimeMillis());
+
+    /* ------------------------------------------------------------ */
+    private HttpDate()
+    {
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param value A header value
+     * @return The date in ms since the epoch, or -1 if the value is not in one of the three HTTP date formats
+     */
+    public static long parseDate(Buffer value)
+    {
+        int length=value.length();
+        if (length>MAX_LENGTH)
+            return -1;
+        byte[] array=value.array();
+        int start=value.getIndex();
+        if (array==null)
+        {
+            array=new byte[length];
+            value.peek(start,array,0,length);
+            start=0;
+        }
+        return parseDate(array,start,start+length);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param value A header value
+     * @return The date in ms since the epoch, or -1 if the value is not in one of the three HTTP date formats
+     */
+    public static long parseDate(String value)
+    {
+        int length=value.length();
+        if (length>MAX_LENGTH)
+            return -1;
+        byte[] bytes=new byte[length];
+        for (int i=0;i<length;i++)
+        {
+            char c=value.charAt(i);
+            if (c>0x7f)
+                return -1;
+            bytes[i]=(byte)c;
+        }
+        return parseDate(bytes,0,length);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The date in ms since the epoch, or -1 if the bytes are not in one of the three HTTP date formats
+     */
+    public static long parseDate(byte[] b, int start, int end)
+    {
+        for (Parsed parsed : __parsed)
+        {
+            if (parsed!=null && parsed.matches(b,start,end))
+                return parsed._date;
+        }
+
+        long date=parse(b,start,end);
+        if (date!=-1)
+        {
+            byte[] text=new byte[end-start];
+            System.arraycopy(b,start,text,0,text.length);
+            __parsed[__parsedNext++&(CACHE_SIZE-1)]=new Parsed(text,date);
+        }
+        return date;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static long parse(byte[] b, int i, int end)
+    {
+        while (i<end && b[i]==' ')
+            i++;
+        // A trailing parameter, as in the "; length=" IE sends with If-Modified-Since, is ignored
+        for (int j=i;j<end;j++)
+        {
+            if (b[j]==';')
+            {
+                end=j;
+                break;
+            }
+        }
+        while (end>i && b[end-1]==' ')
+            end--;
+
+        // The day name is not checked, as the date says what day it is
+        int name=i;
+        while (i<end && isLetter(b[i]))
+            i++;
+        if (i-name<3 || i==end)
+            return -1;
+
+        int day, month, year, time;
+        if (b[i]==',')
+        {
+            // IMF-fixdate or RFC 850, the day of the month comes first
+            if (++i==end || b[i++]!=' ')
+                return -1;
+            day=digits(b,i,end,2);
+            if (day<0)
+                return -1;
+            i+=2;
+            if (i==end)
+                return -1;
+            byte sep=b[i++];
+            if (sep!=' ' && sep!='-')
+                return -1;
+            month=month(b,i,end);
+            if (month<0)
+                return -1;
+            i+=3;
+            if (i==end || b[i++]!=sep)
+                return -1;
+            year=digits(b,i,end,4);
+            if (year>=0)
+                i+=4;
+            else
+            {
+                year=digits(b,i,end,2);
+                if (year<0)
+                    return -1;
+                i+=2;
+                year+=__thisYear/100*100;
+                if (year>__thisYear+50)
+                    year-=100;
+            }
+            if (i==end || b[i++]!=' ')
+                return -1;
+            time=time(b,i,end);
+            if (time<0)
+                return -1;
+            i+=8;
+            if (!isGMT(b,i,end))
+                return -1;
+        }
+        else if (b[i]==' ')
+        {
+            // asctime, the day of the month is padded with a space
+            i++;
+            month=month(b,i,end);
+            if (month<0)
+                return -1;
+            i+=3;
+            if (i==end || b[i++]!=' ')
+                return -1;
+            if (i<end && b[i]==' ')
+                i++;
+            day=digits(b,i,end,2);
+            if (day>=0)
+                i+=2;
+            else
+            {
+                day=digits(b,i,end,1);
+                if (day<0)
+                    return -1;
+                i++;
+            }
+            if (i==end || b[i++]!=' ')
+                return -1;
+            time=time(b,i,end);
+            if (time<0)
+                return -1;
+            i+=8;
+            if (i==end || b[i++]!=' ')
+                return -1;
+            year=digits(b,i,end,4);
+            if (year<0 || i+4!=end)
+                return -1;
+        }
+        else
+            return -1;
+
+        if (day<1 || day>31)
+            return -1;
+        return (daysFromCivil(year,month+1,day)*86400L+time)*1000L;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static boolean isLetter(byte b)
+    {
+        return b>='a' && b<='z' || b>='A' && b<='Z';
+    }
+
+    /* ------------------------------------------------------------ */
+    /* @return The value of n digits at i, or -1 */
+    private static int digits(byte[] b, int i, int end, int n)
+    {
+        if (i+n>end)
+            return -1;
+        int value=0;
+        for (int j=i+n;i<j;i++)
+        {
+            int d=b[i]-'0';
+            if (d<0 || d>9)
+                return -1;
+            value=value*10+d;
+        }
+        // a longer number is not this field
+        if (i<end && b[i]>='0' && b[i]<='9')
+            return -1;
+        return value;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* @return The month 0-11 named by the 3 letters at i, ignoring case, or -1 */
+    private static int month(byte[] b, int i, int end)
+    {
+        if (i+3>end)
+            return -1;
+        int c0=b[i]|0x20, c1=b[i+1]|0x20, c2=b[i+2]|0x20;
+        for (int m=0;m<12;m++)
+        {
+            String name=MONTHS[m];
+            if (c0==(name.charAt(0)|0x20) && c1==name.charAt(1) && c2==name.charAt(2))
+                return m;
+        }
+        return -1;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* @return The seconds of the day of HH:mm:ss at i, or -1 */
+    private static int time(byte[] b, int i, int end)
+    {
+        if (i+8>end || b[i+2]!=':' || b[i+5]!=':')
+            return -1;
+        int h=digits(b,i,i+2,2);
+        int m=digits(b,i+3,i+5,2);
+        int s=digits(b,i+6,i+8,2);
+        if (h<0 || h>23 || m<0 || m>59 || s<0 || s>60)
+            return -1;
+        if (i+8<end && b[i+8]!=' ')
+            return -1;
+        return h*3600+m*60+s;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static boolean isGMT(byte[] b, int i, int end)
+    {
+        return i+4==end && b[i]==' ' &&
+            (b[i+1]|0x20)=='g' && (b[i+2]|0x20)=='m' && (b[i+3]|0x20)=='t';
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Format HTTP date "EEE, dd MMM yyyy HH:mm:ss 'GMT'"
+     */
+    public static String formatDate(long date)
+    {
+        return formatDateBuffer(date).toString();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Format HTTP date "EEE, dd MMM yyyy HH:mm:ss 'GMT'"
+     * @return An immutable buffer of the date
+     */
+    public static Buffer formatDateBuffer(long date)
+    {
+        long seconds=Math.floorDiv(date,1000L);
+        for (Formatted formatted : __formatted)
+        {
+            if (formatted!=null && formatted._seconds==seconds)
+                return formatted._buffer;
+        }
+
+        StringBuilder buf=new StringBuilder(29);
+        long days=Math.floorDiv(seconds,86400L);
+        int time=(int)Math.floorMod(seconds,86400L);
+        long civil=civilFromDays(days);
+        int year=(int)(civil>>9);
+        int month=(int)(civil>>5)&0xf;
+        int day=(int)civil&0x1f;
+
+        buf.append(DAYS[(int)Math.floorMod(days+4,7L)]);
+        buf.append(", ");
+        append2digits(buf,day);
+        buf.append(' ');
+        buf.append(MONTHS[month-1]);
+        buf.append(' ');
+        append2digits(buf,(year/100)%100);
+        append2digits(buf,year%100);
+        buf.append(' ');
+        appendTime(buf,time);
+        buf.append(" GMT");
+
+        Buffer buffer=new ByteArrayBuffer(buf.toString());
+        __formatted[__formattedNext++&(CACHE_SIZE-1)]=new Formatted(seconds,buffer);
+        return buffer;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Format "EEE, dd-MMM-yyyy HH:mm:ss 'GMT'" for cookies
+     */
+    public static void formatCookieDate(StringBuilder buf, long date)
+    {
+        long seconds=Math.floorDiv(date,1000L);
+        long days=Math.floorDiv(seconds,86400L);
+        int time=(int)Math.floorMod(seconds,86400L);
+        long civil=civilFromDays(days);
+        int year=(int)(civil>>9)%10000;
+        int month=(int)(civil>>5)&0xf;
+        int day=(int)civil&0x1f;
+
+        buf.append(DAYS[(int)Math.floorMod(days+4,7L)]);
+        buf.append(", ");
+        append2digits(buf,day);
+        buf.append('-');
+        buf.append(MONTHS[month-1]);
+        buf.append('-');
+        append2digits(buf,year/100);
+        append2digits(buf,year%100);
+        buf.append(' ');
+        appendTime(buf,time);
+        buf.append(" GMT");
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Format "EEE, dd-MMM-yyyy HH:mm:ss 'GMT'" for cookies, as ISO-8859-1 bytes
+     * @return The index after the 29 bytes written
+     */
+    public static int formatCookieDate(byte[] buf, int offset, long date)
+    {
+        long seconds=Math.floorDiv(date,1000L);
+        long days=Math.floorDiv(seconds,86400L);
+        int time=(int)Math.floorMod(seconds,86400L);
+        long civil=civilFromDays(days);
+        int year=(int)(civil>>9)%10000;
+        int month=(int)(civil>>5)&0xf;
+        int day=(int)civil&0x1f;
+
+        int i=offset;
+        i=put3(buf,i,DAYS[(int)Math.floorMod(days+4,7L)]);
+        buf[i++]=',';
+        buf[i++]=' ';
+        i=put2digits(buf,i,day);
+        buf[i++]='-';
+        i=put3(buf,i,MONTHS[month-1]);
+        buf[i++]='-';
+        i=put2digits(buf,i,year/100);
+        i=put2digits(buf,i,year%100);
+        buf[i++]=' ';
+        i=put2digits(buf,i,time/3600);
+        buf[i++]=':';
+        i=put2digits(buf,i,time/60%60);
+        buf[i++]=':';
+        i=put2digits(buf,i,time%60);
+        buf[i++]=' ';
+        buf[i++]='G';
+        buf[i++]='M';
+        buf[i++]='T';
+        return i;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static int put3(byte[] buf, int i, String s)
+    {
+        buf[i]=(byte)s.charAt(0);
+        buf[i+1]=(byte)s.charAt(1);
+        buf[i+2]=(byte)s.charAt(2);
+        return i+3;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static int put2digits(byte[] buf, int i, int n)
+    {
+        buf[i]=(byte)('0'+n/10);
+        buf[i+1]=(byte)('0'+n%10);
+        return i+2;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static void appendTime(StringBuilder buf, int time)
+    {
+        append2digits(buf,time/3600);
+        buf.append(':');
+        append2digits(buf,time/60%60);
+        buf.append(':');
+        append2digits(buf,time%60);
+    }
+
+    /* ------------------------------------------------------------ */
+    private static void append2digits(StringBuilder buf, int i)
+    {
+        buf.append((char)('0'+i/10));
+        buf.append((char)('0'+i%10));
+    }
+
+    /* ------------------------------------------------------------ */
+    private static int year(long date)
+    {
+        return (int)(civilFromDays(Math.floorDiv(date,86400000L))>>9);
+    }
+
+    /* ------------------------------------------------------------ */
+    /* Days since 1970-01-01 of a date, month 1-12 (H. Hinnant, chrono-compatible low-level date algorithms) */
+    private static long daysFromCivil(int year, int month, int day)
+    {
+        year-=month<=2?1:0;
+        long era=Math.floorDiv(year,400);
+        int yoe=(int)(year-era*400);
+        int doy=(153*(month>2?month-3:month+9)+2)/5+day-1;
+        int doe=yoe*365+yoe/4-yoe/100+doy;
+        return era*146097+doe-719468;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* @return year<<9 | month<<5 | day, with month 1-12 */
+    private static long civilFromDays(long days)
+    {
+        days+=719468;
+        long era=Math.floorDiv(days,146097);
+        int doe=(int)(days-era*146097);
+        int yoe=(doe-doe/1460+doe/36524-doe/146096)/365;
+        int doy=doe-(365*yoe+yoe/4-yoe/100);
+        int mp=(5*doy+2)/153;
+        int day=doy-(153*mp+2)/5+1;
+        int month=mp<10?mp+3:mp-9;
+        long year=yoe+era*400+(month<=2?1:0);
+        return year<<9|month<<5|day;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static final class Parsed
+    {
+        final byte[] _text;
+        final long _date;
+
+        Parsed(byte[] text, long date)
+        {
+            _text=text;
+            _date=date;
+        }
+
+        boolean matches(byte[] b, int start, int end)
+        {
+            if (end-start!=_text.length)
+                return false;
+            for (int i=_text.length;i-->0;)
+            {
+                if (_text[i]!=b[start+i])
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static final class Formatted
+    {
+        final long _seconds;
+        final Buffer _buffer;
+
+        Formatted(long seconds, Buffer buffer)
+        {
+            _seconds=seconds;
+            _buffer=buffer;
+        }
+    }
+}
@@ -19,15 +19,13 @@
 package org.eclipse.jetty.http;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -36,8 +34,6 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.jetty.io.Buffer;
 import org.eclipse.jetty.io.BufferCache;
@@ -45,6 +41,7 @@ import org.eclipse.jetty.io.BufferCache.CachedBuffer;
 import org.eclipse.jetty.io.BufferDateCache;
 import org.eclipse.jetty.io.BufferUtil;
 import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.eclipse.jetty.io.View;
 import org.eclipse.jetty.util.LazyList;
 import org.eclipse.jetty.util.QuotedStringTokenizer;
 import org.eclipse.jetty.util.StringMap;
@@ -80,117 +77,13 @@ public class HttpFields
     /* ------------------------------------------------------------ */
     public final static String __separators = ", \t";
 
-    /* ------------------------------------------------------------ */
-    private static final String[] DAYS =
-    { "Sat", "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"};
-    private static final String[] MONTHS =
-    { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec", "Jan"};
-
-    
-    /* ------------------------------------------------------------ */
-    private static class DateGenerator
-    {
-        private final StringBuilder buf = new StringBuilder(32);
-        private final GregorianCalendar gc = new GregorianCalendar(__GMT);
-        
-        /**
-         * Format HTTP date "EEE, dd MMM yyyy HH:mm:ss 'GMT'" 
-         */
-        public String formatDate(long date)
-        {
-            buf.setLength(0);
-            gc.setTimeInMillis(date);
-            
-            int day_of_week = gc.get(Calendar.DAY_OF_WEEK);
-            int day_of_month = gc.get(Calendar.DAY_OF_MONTH);
-            int month = gc.get(Calendar.MONTH);
-            int year = gc.get(Calendar.YEAR);
-            int century = year / 100;
-            year = year % 100;
-            
-            int hours = gc.get(Calendar.HOUR_OF_DAY);
-            int minutes = gc.get(Calendar.MINUTE);
-            int seconds = gc.get(Calendar.SECOND);
-
-            buf.append(DAYS[day_of_week]);
-            buf.append(',');
-            buf.append(' ');
-            StringUtil.append2digits(buf, day_of_month);
-
-            buf.append(' ');
-            buf.append(MONTHS[month]);
-            buf.append(' ');
-            StringUtil.append2digits(buf, century);
-            StringUtil.append2digits(buf, year);
-            
-            buf.append(' ');
-            StringUtil.append2digits(buf, hours);
-            buf.append(':');
-            StringUtil.append2digits(buf, minutes);
-            buf.append(':');
-            StringUtil.append2digits(buf, seconds);
-            buf.append(" GMT");
-            return buf.toString();
-        }
-
-        /* ------------------------------------------------------------ */
-        /**
-         * Format "EEE, dd-MMM-yy HH:mm:ss 'GMT'" for cookies
-         */
-        public void formatCookieDate(StringBuilder buf, long date)
-        {
-            gc.setTimeInMillis(date);
-            
-            int day_of_week = gc.get(Calendar.DAY_OF_WEEK);
-            int day_of_month = gc.get(Calendar.DAY_OF_MONTH);
-            int month = gc.get(Calendar.MONTH);
-            int year = gc.get(Calendar.YEAR);
-            year = year % 10000;
-
-            int epoch = (int) ((date / 1000) % (60 * 60 * 24));
-            int seconds = epoch % 60;
-            epoch = epoch / 60;
-            int minutes = epoch % 60;
-            int hours = epoch / 60;
-
-            buf.append(DAYS[day_of_week]);
-            buf.append(',');
-            buf.append(' ');
-            StringUtil.append2digits(buf, day_of_month);
-
-            buf.append('-');
-            buf.append(MONTHS[month]);
-            buf.append('-');
-            StringUtil.append2digits(buf, year/100);
-            StringUtil.append2digits(buf, year%100);
-            
-            buf.append(' ');
-            StringUtil.append2digits(buf, hours);
-            buf.append(':');
-            StringUtil.append2digits(buf, minutes);
-            buf.append(':');
-            StringUtil.append2digits(buf, seconds);
-            buf.append(" GMT");
-        }
-    }
-
-    /* ------------------------------------------------------------ */
-    private static final ThreadLocal<DateGenerator> __dateGenerator =new ThreadLocal<DateGenerator>()
-    {
-        @Override
-        protected DateGenerator initialValue()
-        {
-            return new DateGenerator();
-        }
-    };
-    
     /* ------------------------------------------------------------ */
     /**
      * Format HTTP date "EEE, dd MMM yyyy HH:mm:ss 'GMT'" 
      */
     public static String formatDate(long date)
     {
-        return __dateGenerator.get().formatDate(date);
+        return HttpDate.formatDate(date);
     }
 
     /* ------------------------------------------------------------ */
@@ -199,7 +92,7 @@ public class HttpFields
      */
     public static void formatCookieDate(StringBuilder buf, long date)
     {
-        __dateGenerator.get().formatCookieDate(buf,date);
+        HttpDate.formatCookieDate(buf,date);
     }
     
     /* ------------------------------------------------------------ */
@@ -230,6 +123,7 @@ public class HttpFields
     };
 
     /* ------------------------------------------------------------ */
+    /* Parses the formats other than the three of HttpDate, slowly */
     private static class DateParser
     {
         final SimpleDateFormat _dateReceive[]= new SimpleDateFormat[__dateReceiveFmt.length];
@@ -279,7 +173,8 @@ public class HttpFields
     /* ------------------------------------------------------------ */
     public static long parseDate(String date)
     {
-        return __dateParser.get().parse(date);
+        long d=HttpDate.parseDate(date);
+        return d!=-1?d:__dateParser.get().parse(date);
     }
 
     /* ------------------------------------------------------------ */
@@ -299,7 +194,32 @@ public class HttpFields
 
     /* -------------------------------------------------------------- */
     private final ArrayList<Field> _fields = new ArrayList<Field>(20);
-    private final HashMap<Buffer,Field> _names = new HashMap<Buffer,Field>(32);
+
+    // The first field of each name. Names known to HttpHeaders.CACHE are indexed by ordinal,
+    // other names are in a small open addressing table, hashed ignoring case.
+    private static final int KNOWN_SIZE=64;
+    private final Field[] _known = new Field[KNOWN_SIZE];
+    private Field[] _unknown = new Field[8];
+    private int _unknownSize;
+
+    // Fields released by clear(), reused for the next request on the connection
+    private Field _recycled;
+
+    // Encodes Set-Cookie values, created by the first addSetCookie()
+    private SetCookieEncoder _setCookie;
+
+    // Fields added by addParsed() that have not been looked up yet. Only the name and the
+    // offsets of the value in the parse buffer are recorded, the Field is created on first use.
+    private static final int PARSED_CONSUMED=-2;
+    private Buffer _parsedBuffer;
+    private ByteArrayBuffer _parsedCopy; // the bytes of the parse buffer kept by retainParsed(), reused
+    private final View.CaseInsensitive _parsedName=new View.CaseInsensitive();
+    private Buffer[] _parsedNames=new Buffer[16]; // known names, null if the name is in the parse buffer
+    private Buffer[] _parsedValues=new Buffer[16]; // values not in the parse buffer, eg interned
+    private int[] _parsedOrdinals=new int[16];
+    private int[] _parsedOffsets=new int[16*4]; // name start, name end, value start, value end
+    private int _parsedSize;
+    private int _parsedPending;
     
     /* ------------------------------------------------------------ */
     /**
@@ -309,36 +229,21 @@ public class HttpFields
     {
     }
 
-    // TODO externalize this cache so it can be configurable
-    private static ConcurrentMap<String, Buffer> __cache = new ConcurrentHashMap<String, Buffer>();
-    private static int __cacheSize = Integer.getInteger("org.eclipse.jetty.http.HttpFields.CACHE",2000);
-    
+    private static final HttpValueCache __cache = new HttpValueCache(Integer.getInteger("org.eclipse.jetty.http.HttpFields.CACHE",2000));
+
+    /* -------------------------------------------------------------- */
+    /**
+     * @return The cache of values converted from Strings, shared by all fields, with its statistics
+     */
+    public static HttpValueCache getValueCache()
+    {
+        return __cache;
+    }
+
     /* -------------------------------------------------------------- */
     private Buffer convertValue(String value)
     {
-        Buffer buffer = __cache.get(value);
-        if (buffer!=null)
-            return buffer;
-        
-        try
-        {   
-            buffer = new ByteArrayBuffer(value,StringUtil.__ISO_8859_1);
-            
-            if (__cacheSize>0)
-            {
-                if (__cache.size()>__cacheSize)
-                    __cache.clear();
-                Buffer b=__cache.putIfAbsent(value,buffer);
-                if (b!=null)
-                    buffer=b;
-            }
-            
-            return buffer;
-        }
-        catch (UnsupportedEncodingException e)
-        {
-            throw new RuntimeException(e);
-        }
+        return __cache.lookup(value);
     }
     
     /* -------------------------------------------------------------- */
@@ -347,6 +252,7 @@ public class HttpFields
      */
     public Collection<String> getFieldNamesCollection()
     {
+        materializeParsed();
         final List<String> list = new ArrayList<String>(_fields.size());
 
 	for (Field f : _fields)
@@ -364,24 +270,20 @@ public class HttpFields
      */
     public Enumeration<String> getFieldNames()
     {
-        final Enumeration<?> buffers = Collections.enumeration(_names.keySet());
-        return new Enumeration<String>()
+        materializeParsed();
+        final List<String> names = new ArrayList<String>(_fields.size());
+        for (Field f : _fields)
         {
-            public String nextElement()
-            {
-                return buffers.nextElement().toString();
-            }
-            
-            public boolean hasMoreElements()
-            {
-                return buffers.hasMoreElements();
-            }
-        }; 
+            if (getHead(f._name)==f)
+                names.add(f._name.toString());
+        }
+        return Collections.enumeration(names);
     }
     
     /* ------------------------------------------------------------ */
     public int size()
     {
+        materializeParsed();
         return _fields.size();
     }
     
@@ -393,31 +295,164 @@ public class HttpFields
      */
     public Field getField(int i)
     {
+        materializeParsed();
         return _fields.get(i);
     }
 
     /* ------------------------------------------------------------ */
     private Field getField(String name)
     {
-        return _names.get(HttpHeaders.CACHE.lookup(name));
+        return getField(HttpHeaders.CACHE.lookup(name));
     }
 
     /* ------------------------------------------------------------ */
     private Field getField(Buffer name)
     {
-        return _names.get(HttpHeaders.CACHE.lookup(name));
+        name=HttpHeaders.CACHE.lookup(name);
+        materializeParsed(name);
+        return getHead(name);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param name A name looked up in {@link HttpHeaders#CACHE}
+     * @return The first field of the name, or null
+     */
+    private Field getHead(Buffer name)
+    {
+        int ordinal=HttpHeaders.CACHE.getOrdinal(name);
+        if (ordinal>=0 && ordinal<KNOWN_SIZE)
+            return _known[ordinal];
+        if (_unknownSize==0)
+            return null;
+        int slot=findUnknown(name,hashIgnoreCase(name));
+        return slot<0?null:_unknown[slot];
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set, replace or remove the first field of a name.
+     * @param name A name looked up in {@link HttpHeaders#CACHE}
+     * @param head The first field, or null to remove the name
+     */
+    private void setHead(Buffer name, Field head)
+    {
+        int ordinal=HttpHeaders.CACHE.getOrdinal(name);
+        if (ordinal>=0 && ordinal<KNOWN_SIZE)
+        {
+            _known[ordinal]=head;
+            return;
+        }
+
+        int hash=head==null?hashIgnoreCase(name):head._hash;
+        int slot=_unknownSize==0?-1:findUnknown(name,hash);
+        if (slot>=0)
+        {
+            if (head==null)
+                removeUnknown(slot);
+            else
+                _unknown[slot]=head;
+        }
+        else if (head!=null)
+        {
+            if ((_unknownSize+1)*2>_unknown.length)
+                growUnknown();
+            insertUnknown(head);
+            _unknownSize++;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private int findUnknown(Buffer name, int hash)
+    {
+        int mask=_unknown.length-1;
+        for (int i=hash&mask;_unknown[i]!=null;i=(i+1)&mask)
+        {
+            Field f=_unknown[i];
+            if (f._hash==hash && f._name.equalsIgnoreCase(name))
+                return i;
+        }
+        return -1;
+    }
+
+    /* ------------------------------------------------------------ */
+    private void insertUnknown(Field head)
+    {
+        int mask=_unknown.length-1;
+        int i=head._hash&mask;
+        while (_unknown[i]!=null)
+            i=(i+1)&mask;
+        _unknown[i]=head;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* Remove by shifting back the entries that follow, so no tombstones are needed */
+    private void removeUnknown(int slot)
+    {
+        int mask=_unknown.length-1;
+        _unknown[slot]=null;
+        _unknownSize--;
+        for (int j=(slot+1)&mask;_unknown[j]!=null;j=(j+1)&mask)
+        {
+            int home=_unknown[j]._hash&mask;
+            // move the entry to the hole, unless its home slot lies cyclically in (slot,j]
+            if (slot<=j?(home<=slot || home>j):(home<=slot && home>j))
+            {
+                _unknown[slot]=_unknown[j];
+                _unknown[j]=null;
+                slot=j;
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void growUnknown()
+    {
+        Field[] old=_unknown;
+        _unknown=new Field[old.length*2];
+        for (Field f : old)
+        {
+            if (f!=null)
+                insertUnknown(f);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private static int hashIgnoreCase(Buffer name)
+    {
+        int h=0;
+        byte[] array=name.array();
+        for (int i=name.getIndex(),e=name.putIndex();i<e;i++)
+        {
+            byte b=array==null?name.peek(i):array[i];
+            if (b>='a' && b<='z')
+                b-='a'-'A';
+            h=31*h+b;
+        }
+        return h^(h>>>16);
+    }
+
+    /* ------------------------------------------------------------ */
+    private Field newField(Buffer name, Buffer value)
+    {
+        Field field=_recycled;
+        if (field==null)
+            return new Field(name, value);
+        _recycled=field._next;
+        field.reset(name, value);
+        return field;
     }
 
     /* ------------------------------------------------------------ */
     public boolean containsKey(Buffer name)
     {
-        return _names.containsKey(HttpHeaders.CACHE.lookup(name));
+        return getField(name)!=null;
     }
 
     /* ------------------------------------------------------------ */
     public boolean containsKey(String name)
     {
-        return _names.containsKey(HttpHeaders.CACHE.lookup(name));
+        return getField(name)!=null;
     }
 
     /* -------------------------------------------------------------- */
@@ -592,7 +627,52 @@ public class HttpFields
         };
     }
 
-    
+    /* -------------------------------------------------------------- */
+    /**
+     * Get the value of a field that may be repeated as a single comma separated value.
+     *
+     * @param name the case-insensitive field name
+     * @return The value buffer if there is one field of the name, the values joined with
+     * ',' if there are several, or null if there is none.
+     */
+    public Buffer getValuesBuffer(Buffer name)
+    {
+        Field field = getField(name);
+        if (field == null)
+            return null;
+        if (field._next == null)
+            return field._value;
+
+        int length = 0;
+        for (Field f = field; f != null; f = f._next)
+            length += f._value.length() + 1;
+        Buffer values = new ByteArrayBuffer(length);
+        for (Field f = field; f != null; f = f._next)
+        {
+            if (f != field)
+                values.put((byte)',');
+            values.put(f._value);
+        }
+        return values;
+    }
+
+    /* -------------------------------------------------------------- */
+    /**
+     * Get the values of a comma separated field, such as Accept-Language, in quality order.
+     *
+     * @param name the case-insensitive field name
+     * @return The values with a non zero quality, without their parameters, in quality
+     * order. The list is immutable and may be shared.
+     * @see HttpValueTokenizer#qualityList(Buffer)
+     */
+    public List<String> getQualityValues(Buffer name)
+    {
+        Buffer values = getValuesBuffer(name);
+        if (values == null)
+            return Collections.emptyList();
+        return HttpValueTokenizer.qualityList(values);
+    }
+
     /* -------------------------------------------------------------- */
     /**
      * Set a field.
@@ -645,9 +725,9 @@ public class HttpFields
             value= HttpHeaderValues.CACHE.lookup(value).asImmutableBuffer();
         
         // new value;
-        Field field = new Field(name, value);
+        Field field = newField(name, value);
         _fields.add(field);
-        _names.put(name, field);
+        setHead(name, field);
     }
 
     /* -------------------------------------------------------------- */
@@ -724,8 +804,15 @@ public class HttpFields
         if (!(value instanceof CachedBuffer) && HttpHeaderValues.hasKnownValues(HttpHeaders.CACHE.getOrdinal(name)))
             value= HttpHeaderValues.CACHE.lookup(value);
         value=value.asImmutableBuffer();
-        
-        Field field = _names.get(name);
+
+        materializeParsed(name);
+        addField(name, value);
+    }
+
+    /* -------------------------------------------------------------- */
+    private void addField(Buffer name, Buffer value)
+    {
+        Field field = getHead(name);
         Field last = null;
         while (field != null)
         {
@@ -734,14 +821,221 @@ public class HttpFields
         }
 
         // create the field
-        field = new Field(name, value);
+        field = newField(name, value);
         _fields.add(field);
 
         // look for chain to add too
         if (last != null)
             last._next = field;
         else
-            _names.put(name, field);
+            setHead(name, field);
+    }
+
+    /* -------------------------------------------------------------- */
+    /**
+     * Add a field parsed from a buffer, without converting or copying it. Names and values
+     * that are views of the parse buffer are recorded as offsets only, and turned into a
+     * {@link Field} the first time the name is looked up. The parse buffer must not be
+     * changed until {@link #retainParsed()} or {@link #clear()} is called.
+     *
+     * @param name the name of the field, a cached header name or a view of the parse buffer
+     * @param value the value of the field, a view of the parse buffer or an immutable buffer
+     */
+    public void addParsed(Buffer name, Buffer value)
+    {
+        if (value == null) throw new IllegalArgumentException("null value");
+
+        int ordinal=HttpHeaders.CACHE.getOrdinal(name);
+        Buffer parsed=_parsedBuffer;
+        if (parsed==null)
+            parsed=ordinal>=0?value.buffer():name.buffer();
+        boolean nameInBuffer=name!=name.buffer() && name.buffer()==parsed;
+        boolean valueInBuffer=value!=value.buffer() && value.buffer()==parsed;
+        if (ordinal<0 && !nameInBuffer || !valueInBuffer && !value.isImmutable())
+        {
+            add(name, value);
+            return;
+        }
+        if (_parsedBuffer==null && (nameInBuffer || valueInBuffer))
+        {
+            _parsedBuffer=parsed;
+            _parsedName.update(parsed);
+        }
+
+        if (_parsedSize==_parsedOrdinals.length)
+        {
+            int size=_parsedSize*2;
+            _parsedNames=Arrays.copyOf(_parsedNames, size);
+            _parsedValues=Arrays.copyOf(_parsedValues, size);
+            _parsedOrdinals=Arrays.copyOf(_parsedOrdinals, size);
+            _parsedOffsets=Arrays.copyOf(_parsedOffsets, size*4);
+        }
+
+        int i=_parsedSize++;
+        int o=i*4;
+        _parsedOrdinals[i]=ordinal;
+        _parsedNames[i]=ordinal>=0?name:null;
+        if (nameInBuffer)
+        {
+            _parsedOffsets[o]=name.getIndex();
+            _parsedOffsets[o+1]=name.putIndex();
+        }
+        _parsedValues[i]=valueInBuffer?null:value;
+        if (valueInBuffer)
+        {
+            _parsedOffsets[o+2]=value.getIndex();
+            _parsedOffsets[o+3]=value.putIndex();
+        }
+        _parsedPending++;
+    }
+
+    /* -------------------------------------------------------------- */
+    /**
+     * Copy the bytes that the parsed fields refer to out of the parse buffer, so that the
+     * parser may compact, reuse or return its buffer. This must be called once the header
+     * is complete, before the parser fills or releases its buffer. The fields are still
+     * created lazily, from the copy, and the copy is reused by the next request.
+     */
+    public void retainParsed()
+    {
+        Buffer parsed=_parsedBuffer;
+        if (parsed==null || parsed==_parsedCopy)
+            return;
+
+        // The span of the parse buffer referred to by the pending entries and by the
+        // fields already created from them
+        int start=Integer.MAX_VALUE;
+        int end=-1;
+        for (int i=0;i<_parsedSize;i++)
+        {
+            if (_parsedOrdinals[i]==PARSED_CONSUMED)
+                continue;
+            int o=i*4;
+            if (_parsedNames[i]==null)
+            {
+                start=Math.min(start,_parsedOffsets[o]);
+                end=Math.max(end,_parsedOffsets[o+1]);
+            }
+            if (_parsedValues[i]==null)
+            {
+                start=Math.min(start,_parsedOffsets[o+2]);
+                end=Math.max(end,_parsedOffsets[o+3]);
+            }
+        }
+        for (int i=0;i<_fields.size();i++)
+        {
+            Field field=_fields.get(i);
+            if (field._name.buffer()==parsed)
+            {
+                start=Math.min(start,field._name.getIndex());
+                end=Math.max(end,field._name.putIndex());
+            }
+            if (field._value.buffer()==parsed)
+            {
+                start=Math.min(start,field._value.getIndex());
+                end=Math.max(end,field._value.putIndex());
+            }
+        }
+
+        if (end<start)
+        {
+            _parsedBuffer=null;
+            return;
+        }
+
+        int length=end-start;
+        if (_parsedCopy==null || _parsedCopy.capacity()<length)
+            _parsedCopy=new ByteArrayBuffer(Math.max(length,_parsedCopy==null?256:_parsedCopy.capacity()*2));
+        parsed.peek(start,_parsedCopy.array(),0,length);
+        _parsedCopy.setGetIndex(0);
+        _parsedCopy.setPutIndex(length);
+
+        for (int i=0;i<_parsedSize;i++)
+        {
+            if (_parsedOrdinals[i]==PARSED_CONSUMED)
+                continue;
+            int o=i*4;
+            if (_parsedNames[i]==null)
+            {
+                _parsedOffsets[o]-=start;
+                _parsedOffsets[o+1]-=start;
+            }
+            if (_parsedValues[i]==null)
+            {
+                _parsedOffsets[o+2]-=start;
+                _parsedOffsets[o+3]-=start;
+            }
+        }
+        // fields looked up before the header was complete, not expected to be common
+        for (int i=0;i<_fields.size();i++)
+        {
+            Field field=_fields.get(i);
+            Buffer name=field._name;
+            if (name.buffer()==parsed)
+                field._name=new View.CaseInsensitive(_parsedCopy,-1,name.getIndex()-start,name.putIndex()-start,Buffer.READONLY);
+            Buffer value=field._value;
+            if (value.buffer()==parsed)
+                field._value=new View(_parsedCopy,-1,value.getIndex()-start,value.putIndex()-start,Buffer.READONLY);
+        }
+
+        _parsedBuffer=_parsedCopy;
+        _parsedName.update(_parsedCopy);
+    }
+
+    /* -------------------------------------------------------------- */
+    /* Create the fields for all the parsed entries of a name */
+    private void materializeParsed(Buffer name)
+    {
+        if (_parsedPending==0)
+            return;
+        int ordinal=HttpHeaders.CACHE.getOrdinal(name);
+        for (int i=0;i<_parsedSize;i++)
+        {
+            int o=_parsedOrdinals[i];
+            if (o==PARSED_CONSUMED)
+                continue;
+            if (ordinal>=0?o==ordinal:o<0 && parsedName(i).equalsIgnoreCase(name))
+                materializeParsed(i);
+        }
+    }
+
+    /* -------------------------------------------------------------- */
+    /* Create the fields for all the parsed entries, in order */
+    private void materializeParsed()
+    {
+        for (int i=0;_parsedPending>0 && i<_parsedSize;i++)
+            if (_parsedOrdinals[i]!=PARSED_CONSUMED)
+                materializeParsed(i);
+    }
+
+    /* -------------------------------------------------------------- */
+    private void materializeParsed(int i)
+    {
+        int o=i*4;
+        Buffer name=_parsedNames[i];
+        if (name==null)
+            name=new View.CaseInsensitive(_parsedBuffer,-1,_parsedOffsets[o],_parsedOffsets[o+1],Buffer.READONLY);
+        Buffer value=_parsedValues[i];
+        if (value==null)
+        {
+            // a read only view, valid as long as the parse buffer is
+            value=new View(_parsedBuffer,-1,_parsedOffsets[o+2],_parsedOffsets[o+3],Buffer.READONLY);
+            if (HttpHeaderValues.hasKnownValues(_parsedOrdinals[i]))
+                value=HttpHeaderValues.CACHE.lookup(value);
+        }
+
+        _parsedOrdinals[i]=PARSED_CONSUMED;
+        _parsedNames[i]=null;
+        _parsedValues[i]=null;
+        _parsedPending--;
+        addField(name, value);
+    }
+
+    /* -------------------------------------------------------------- */
+    private Buffer parsedName(int i)
+    {
+        _parsedName.update(_parsedOffsets[i*4],_parsedOffsets[i*4+1]);
+        return _parsedName;
     }
 
     /* ------------------------------------------------------------ */
@@ -765,7 +1059,10 @@ public class HttpFields
     {
         if (!(name instanceof BufferCache.CachedBuffer)) 
             name = HttpHeaders.CACHE.lookup(name);
-        Field field = _names.remove(name);
+        materializeParsed(name);
+        Field field = getHead(name);
+        if (field != null)
+            setHead(name, null);
         while (field != null)
         {
             _fields.remove(field);
@@ -813,14 +1110,21 @@ public class HttpFields
         Field field = getField(name);
         if (field == null) 
             return -1;
+        if (field._date!=Long.MIN_VALUE)
+            return field._date;
 
-        String val = valueParameters(BufferUtil.to8859_1_String(field._value), null);
-        if (val == null) 
-            return -1;
-
-        final long date = __dateParser.get().parse(val);
+        long date = HttpDate.parseDate(field._value);
         if (date==-1)
-            throw new IllegalArgumentException("Cannot convert date: " + val);
+        {
+            String val = valueParameters(field.getValue(), null);
+            if (val == null) 
+                return -1;
+
+            date = __dateParser.get().parse(val);
+            if (date==-1)
+                throw new IllegalArgumentException("Cannot convert date: " + val);
+        }
+        field._date=date;
         return date;
     }
 
@@ -887,9 +1191,7 @@ public class HttpFields
      */
     public void putDateField(Buffer name, long date)
     {
-        String d=formatDate(date);
-        Buffer v = new ByteArrayBuffer(d);
-        put(name, v);
+        put(name, HttpDate.formatDateBuffer(date));
     }
 
     /* -------------------------------------------------------------- */
@@ -914,10 +1216,8 @@ public class HttpFields
      */
     public void addDateField(String name, long date)
     {
-        String d=formatDate(date);
         Buffer n = HttpHeaders.CACHE.lookup(name);
-        Buffer v = new ByteArrayBuffer(d);
-        add(n, v);
+        add(n, HttpDate.formatDateBuffer(date));
     }
 
     /* ------------------------------------------------------------ */
@@ -941,7 +1241,8 @@ public class HttpFields
     }
 
     /**
-     * Format a set cookie value
+     * Format a set cookie value. Characters above 0x7f in the name, value, path, domain
+     * or comment are encoded as UTF-8, whatever the platform default charset.
      * 
      * @param name the name
      * @param value the value
@@ -964,84 +1265,82 @@ public class HttpFields
             final boolean isHttpOnly, 
             int version)
     {
-    	String delim=__COOKIE_DELIM;
-    	
         // Check arguments
         if (name == null || name.length() == 0) 
             throw new IllegalArgumentException("Bad cookie name");
 
-        // Format value and params
-        StringBuilder buf = new StringBuilder(128);
-        String name_value_params;
-        QuotedStringTokenizer.quoteIfNeeded(buf, name, delim);
-        buf.append('=');
-        String start=buf.toString();
+        // Format value and params straight into bytes, without a StringBuilder or Strings
+        SetCookieEncoder buf = _setCookie;
+        if (buf == null)
+            buf = _setCookie = new SetCookieEncoder();
+        buf.clear();
+        buf.quoteIfNeeded(name);
+        buf.put('=');
+        int start=buf._length;
         boolean hasDomain = false;
         boolean hasPath = false;
         
         if (value != null && value.length() > 0)
-            QuotedStringTokenizer.quoteIfNeeded(buf, value, delim);        
+            buf.quoteIfNeeded(value);
 
         if (comment != null && comment.length() > 0)
         {
-            buf.append(";Comment=");
-            QuotedStringTokenizer.quoteIfNeeded(buf, comment, delim);
+            buf.put(";Comment=");
+            buf.quoteIfNeeded(comment);
         }
 
         if (path != null && path.length() > 0)
         {
             hasPath = true;
-            buf.append(";Path=");
+            buf.put(";Path=");
             if (path.trim().startsWith("\""))
-                buf.append(path);
+                buf.put(path);
             else
-                QuotedStringTokenizer.quoteIfNeeded(buf,path,delim);
+                buf.quoteIfNeeded(path);
         }
         if (domain != null && domain.length() > 0)
         {
             hasDomain = true;
-            buf.append(";Domain=");
-            QuotedStringTokenizer.quoteIfNeeded(buf,domain.toLowerCase(Locale.ENGLISH),delim);
+            buf.put(";Domain=");
+            buf.quoteIfNeeded(domain.toLowerCase(Locale.ENGLISH));
         }
 
         if (maxAge >= 0)
         {
             // Always add the expires param as some browsers still don't handle max-age
-            buf.append(";Expires=");
+            buf.put(";Expires=");
             if (maxAge == 0)
-                buf.append(__01Jan1970_COOKIE);
+                buf.put(__01Jan1970_COOKIE);
             else
-                formatCookieDate(buf, System.currentTimeMillis() + 1000L * maxAge);
+                buf.putCookieDate(System.currentTimeMillis() + 1000L * maxAge);
 
             if (version >0)
             {
-                buf.append(";Max-Age=");
-                buf.append(maxAge);
+                buf.put(";Max-Age=");
+                buf.put(maxAge);
             }
         }
 
         if (isSecure)
-            buf.append(";Secure");
+            buf.put(";Secure");
         if (isHttpOnly) 
-            buf.append(";HttpOnly");
+            buf.put(";HttpOnly");
 
-        name_value_params = buf.toString();
-        
         // remove existing set-cookie of same name
         Field field = getField(HttpHeaders.SET_COOKIE);
         Field last=null;
         while (field!=null)
         {
-            String val = (field._value == null ? null : field._value.toString());
-            if (val!=null && val.startsWith(start))
+            Buffer val = field._value;
+            if (val!=null && buf.isPrefixOf(val,start))
             {
                 //existing cookie has same name, does it also match domain and path?
-                if (((!hasDomain && !val.contains("Domain")) || (hasDomain && val.contains("Domain="+domain))) &&
-                    ((!hasPath && !val.contains("Path")) || (hasPath && val.contains("Path="+path))))
+                if (((!hasDomain && indexOf(val,"Domain",null)<0) || (hasDomain && indexOf(val,"Domain=",domain)>=0)) &&
+                    ((!hasPath && indexOf(val,"Path",null)<0) || (hasPath && indexOf(val,"Path=",path)>=0)))
                 {
                     _fields.remove(field);
                     if (last==null)
-                        _names.put(HttpHeaders.SET_COOKIE_BUFFER,field._next);
+                        setHead(HttpHeaders.SET_COOKIE_BUFFER,field._next);
                     else
                         last._next=field._next;
                     break;
@@ -1051,15 +1350,38 @@ public class HttpFields
             field=field._next;
         }
 
-        add(HttpHeaders.SET_COOKIE_BUFFER, new ByteArrayBuffer(name_value_params));
+        add(HttpHeaders.SET_COOKIE_BUFFER, buf.toBuffer());
         
         // Expire responses with set-cookie headers so they do not get cached.
         put(HttpHeaders.EXPIRES_BUFFER, __01Jan1970_BUFFER);
     }
 
+    /* -------------------------------------------------------------- */
+    /**
+     * @return The index in the value of the chars of prefix followed by those of s, or -1.
+     * The chars are compared to the bytes as ISO-8859-1.
+     */
+    private static int indexOf(Buffer value, String prefix, String s)
+    {
+        int length=prefix.length()+(s==null?0:s.length());
+        int end=value.putIndex()-length;
+        loop: for (int i=value.getIndex();i<=end;i++)
+        {
+            for (int j=0;j<length;j++)
+            {
+                char c=j<prefix.length()?prefix.charAt(j):s.charAt(j-prefix.length());
+                if ((value.peek(i+j)&0xff)!=c)
+                    continue loop;
+            }
+            return i;
+        }
+        return -1;
+    }
+
     /* -------------------------------------------------------------- */
     public void putTo(Buffer buffer) throws IOException
     {
+        materializeParsed();
         for (int i = 0; i < _fields.size(); i++)
         {
             Field field = _fields.get(i);
@@ -1074,6 +1396,7 @@ public class HttpFields
     {
         try
         {
+            materializeParsed();
             StringBuffer buffer = new StringBuffer();
             for (int i = 0; i < _fields.size(); i++)
             {
@@ -1100,12 +1423,33 @@ public class HttpFields
 
     /* ------------------------------------------------------------ */
     /**
-     * Clear the header.
+     * Clear the header. The fields are kept for reuse, so a {@link Field} must not
+     * be used after the fields are cleared.
      */
     public void clear()
     {
+        for (int i=_fields.size();i-->0;)
+        {
+            Field field=_fields.get(i);
+            field.reset(null, null);
+            field._next=_recycled;
+            _recycled=field;
+        }
         _fields.clear();
-        _names.clear();
+        Arrays.fill(_known, null);
+        if (_unknownSize>0)
+        {
+            Arrays.fill(_unknown, null);
+            _unknownSize=0;
+        }
+        if (_parsedSize>0)
+        {
+            Arrays.fill(_parsedNames,0,_parsedSize,null);
+            Arrays.fill(_parsedValues,0,_parsedSize,null);
+            _parsedSize=0;
+            _parsedPending=0;
+        }
+        _parsedBuffer=null;
     }
 
     /* ------------------------------------------------------------ */
@@ -1280,6 +1624,186 @@ public class HttpFields
         return vl;
     }
 
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** Encoder of Set-Cookie values.
+     * <p>
+     * Quotes as {@link QuotedStringTokenizer#quoteIfNeeded(Appendable, String, String)} does
+     * with {@link #__COOKIE_DELIM}, but writes UTF-8 bytes into an array kept by the
+     * HttpFields, so only the final value is copied.
+     * </p>
+     * <p>
+     * Characters above 0x7f are always encoded as UTF-8. The String based formatting
+     * this replaced encoded the value with the platform default charset.
+     * </p>
+     */
+    private static final class SetCookieEncoder
+    {
+        private static final byte[] HEX="0123456789abcdef".getBytes();
+        private byte[] _bytes=new byte[128];
+        private int _length;
+
+        /* ------------------------------------------------------------ */
+        void clear()
+        {
+            _length=0;
+        }
+
+        /* ------------------------------------------------------------ */
+        void put(char c)
+        {
+            ensure(1);
+            _bytes[_length++]=(byte)c;
+        }
+
+        /* ------------------------------------------------------------ */
+        /* Put a String as is */
+        void put(String s)
+        {
+            int length=s.length();
+            ensure(length*3);
+            for (int i=0;i<length;i++)
+                i=putChar(s,i);
+        }
+
+        /* ------------------------------------------------------------ */
+        void put(long n)
+        {
+            ensure(20);
+            if (n==0)
+            {
+                _bytes[_length++]='0';
+                return;
+            }
+            int end=_length;
+            for (long m=n;m>0;m/=10)
+                end++;
+            _length=end;
+            for (long m=n;m>0;m/=10)
+                _bytes[--end]=(byte)('0'+m%10);
+        }
+
+        /* ------------------------------------------------------------ */
+        void putCookieDate(long date)
+        {
+            ensure(29);
+            _length=HttpDate.formatCookieDate(_bytes,_length,date);
+        }
+
+        /* ------------------------------------------------------------ */
+        void quoteIfNeeded(String s)
+        {
+            int length=s.length();
+            boolean quote=false;
+            for (int i=0;i<length;i++)
+            {
+                if (__COOKIE_DELIM.indexOf(s.charAt(i))>=0)
+                {
+                    quote=true;
+                    break;
+                }
+            }
+            if (!quote)
+            {
+                put(s);
+                return;
+            }
+
+            // at most 6 bytes for each char escaped as a unicode escape
+            ensure(length*6+2);
+            _bytes[_length++]='"';
+            for (int i=0;i<length;i++)
+            {
+                char c=s.charAt(i);
+                if (c>=32)
+                {
+                    if (c=='"' || c=='\\')
+                        _bytes[_length++]='\\';
+                    i=putChar(s,i);
+                }
+                else
+                {
+                    _bytes[_length++]='\\';
+                    switch (c)
+                    {
+                        case '\b': _bytes[_length++]='b'; break;
+                        case '\t': _bytes[_length++]='t'; break;
+                        case '\n': _bytes[_length++]='n'; break;
+                        case '\f': _bytes[_length++]='f'; break;
+                        case '\r': _bytes[_length++]='r'; break;
+                        default:
+                            _bytes[_length++]='u';
+                            _bytes[_length++]='0';
+                            _bytes[_length++]='0';
+                            _bytes[_length++]=HEX[c>>4];
+                            _bytes[_length++]=HEX[c&0xf];
+                    }
+                }
+            }
+            _bytes[_length++]='"';
+        }
+
+        /* ------------------------------------------------------------ */
+        /* Put the char at i as UTF-8, with the low surrogate after it if it is a high one.
+         * @return The index of the last char put */
+        private int putChar(String s, int i)
+        {
+            char c=s.charAt(i);
+            if (c<0x80)
+                _bytes[_length++]=(byte)c;
+            else if (c<0x800)
+            {
+                _bytes[_length++]=(byte)(0xc0|c>>6);
+                _bytes[_length++]=(byte)(0x80|c&0x3f);
+            }
+            else if (Character.isHighSurrogate(c) && i+1<s.length() && Character.isLowSurrogate(s.charAt(i+1)))
+            {
+                int cp=Character.toCodePoint(c,s.charAt(++i));
+                _bytes[_length++]=(byte)(0xf0|cp>>18);
+                _bytes[_length++]=(byte)(0x80|cp>>12&0x3f);
+                _bytes[_length++]=(byte)(0x80|cp>>6&0x3f);
+                _bytes[_length++]=(byte)(0x80|cp&0x3f);
+            }
+            else if (Character.isSurrogate(c))
+                _bytes[_length++]='?';
+            else
+            {
+                _bytes[_length++]=(byte)(0xe0|c>>12);
+                _bytes[_length++]=(byte)(0x80|c>>6&0x3f);
+                _bytes[_length++]=(byte)(0x80|c&0x3f);
+            }
+            return i;
+        }
+
+        /* ------------------------------------------------------------ */
+        /* @return true if the value starts with the first length bytes */
+        boolean isPrefixOf(Buffer value, int length)
+        {
+            int index=value.getIndex();
+            if (value.putIndex()-index<length)
+                return false;
+            for (int i=0;i<length;i++)
+            {
+                if (value.peek(index+i)!=_bytes[i])
+                    return false;
+            }
+            return true;
+        }
+
+        /* ------------------------------------------------------------ */
+        Buffer toBuffer()
+        {
+            return new ByteArrayBuffer(Arrays.copyOf(_bytes,_length),0,_length,Buffer.IMMUTABLE);
+        }
+
+        /* ------------------------------------------------------------ */
+        private void ensure(int space)
+        {
+            if (_length+space>_bytes.length)
+                _bytes=Arrays.copyOf(_bytes,Math.max(_bytes.length*2,_length+space));
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /* ------------------------------------------------------------ */
     /* ------------------------------------------------------------ */
@@ -1288,13 +1812,29 @@ public class HttpFields
         private Buffer _name;
         private Buffer _value;
         private Field _next;
+        private int _hash; // of an unknown name, ignoring case
+        // conversions of the value, done on first use
+        private String _string;
+        private long _long=Long.MIN_VALUE;
+        private long _date=Long.MIN_VALUE;
 
         /* ------------------------------------------------------------ */
         private Field(Buffer name, Buffer value)
+        {
+            reset(name, value);
+        }
+
+        /* ------------------------------------------------------------ */
+        private void reset(Buffer name, Buffer value)
         {
             _name = name;
             _value = value;
             _next = null;
+            int ordinal = name==null?0:HttpHeaders.CACHE.getOrdinal(name);
+            _hash = ordinal>=0 && ordinal<KNOWN_SIZE?0:hashIgnoreCase(name);
+            _string = null;
+            _long = Long.MIN_VALUE;
+            _date = Long.MIN_VALUE;
         }
         
         /* ------------------------------------------------------------ */
@@ -1370,7 +1910,9 @@ public class HttpFields
         /* ------------------------------------------------------------ */
         public String getValue()
         {
-            return BufferUtil.to8859_1_String(_value);
+            if (_string==null)
+                _string=BufferUtil.to8859_1_String(_value);
+            return _string;
         }
 
         /* ------------------------------------------------------------ */
@@ -1394,7 +1936,9 @@ public class HttpFields
         /* ------------------------------------------------------------ */
         public long getLongValue()
         {
-            return BufferUtil.toLong(_value);
+            if (_long==Long.MIN_VALUE)
+                _long=BufferUtil.toLong(_value);
+            return _long;
         }
 
         /* ------------------------------------------------------------ */
@@ -80,6 +80,48 @@ public class HttpGenerator extends AbstractGenerator
         }
     }
 
+    // Cache of the pre-encoded start of a response: the status line followed by the
+    // Date header. Entries are immutable and are replaced when the date buffer changes,
+    // which is once a second, so a typical response starts with a single arraycopy.
+    private static class Head
+    {
+        final Buffer _date;
+        final byte[] _bytes;
+
+        Head(Buffer date, byte[] bytes)
+        {
+            _date=date;
+            _bytes=bytes;
+        }
+    }
+    private static final Head[] __head = new Head[HttpStatus.MAX_CODE+1];
+
+    /* ------------------------------------------------------------------------------- */
+    private static Head getHead(int code, Status status, Buffer date)
+    {
+        Head head=__head[code];
+        if (head!=null && head._date==date)
+            return head;
+
+        Buffer line=status._responseLine;
+        int l=line.length();
+        int d=HttpHeaders.DATE_BUFFER.length();
+        byte[] bytes=new byte[l+d+2+date.length()+2];
+        line.peek(line.getIndex(),bytes,0,l);
+        HttpHeaders.DATE_BUFFER.peek(HttpHeaders.DATE_BUFFER.getIndex(),bytes,l,d);
+        l+=d;
+        bytes[l++]=HttpTokens.COLON;
+        bytes[l++]=HttpTokens.SPACE;
+        date.peek(date.getIndex(),bytes,l,date.length());
+        l+=date.length();
+        bytes[l++]=HttpTokens.CARRIAGE_RETURN;
+        bytes[l]=HttpTokens.LINE_FEED;
+
+        head=new Head(date,bytes);
+        __head[code]=head;
+        return head;
+    }
+
     /* ------------------------------------------------------------------------------- */
     public static Buffer getReasonBuffer(int code)
     {
@@ -220,8 +262,9 @@ public class HttpGenerator extends AbstractGenerator
             content.clear();
             _content=null;
         }
-        else if (_endp != null && (_buffer==null || _buffer.length()==0) && _content.length() > 0 && (_last || isCommitted() && _content.length()>1024))
+        else if (_endp != null && (_buffer==null || _buffer.length()==0) && _content.length() > 0 && (_last || isCommitted() && _content.length()>1024 || _content.length()>=bufferCapacity()))
         {
+            // Write the content directly, gathered with the header or chunk, rather than copying it
             _bypass = true;
         }
         else if (!_bufferChunked)
@@ -238,6 +281,14 @@ public class HttpGenerator extends AbstractGenerator
         }
     }
 
+    /* ------------------------------------------------------------ */
+    private int bufferCapacity()
+    {
+        if (_buffer == null)
+            _buffer = _buffers.getBuffer();
+        return _buffer.capacity();
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * send complete response.
@@ -377,6 +428,7 @@ public class HttpGenerator extends AbstractGenerator
             _header = _buffers.getHeader();
 
         boolean has_server = false;
+        boolean has_date = false;
 
         try
         {
@@ -443,7 +495,13 @@ public class HttpGenerator extends AbstractGenerator
                     }
                     else
                     {
-                        if (_reason==null)
+                        if (_reason==null && _status>=200 && _date!=null)
+                        {
+                            byte[] head=getHead(_status,status,_date)._bytes;
+                            _header.put(head,0,head.length);
+                            has_date=true;
+                        }
+                        else if (_reason==null)
                             _header.put(status._responseLine);
                         else
                         {
@@ -479,7 +537,7 @@ public class HttpGenerator extends AbstractGenerator
             }
 
             // Add headers
-            if (_status>=200 && _date!=null)
+            if (_status>=200 && _date!=null && !has_date)
             {
                 _header.put(HttpHeaders.DATE_BUFFER);
                 _header.put((byte)':');
@@ -909,6 +967,10 @@ public class HttpGenerator extends AbstractGenerator
             // loop while progress is being made (OR we have prepared some buffers that might make progress)
             while (len>0 || (to_flush!=0 && last_flush==0));
 
+            // Drop written content, so the caller may reuse its buffer
+            if (_content != null && _content.length() == 0)
+                _content = null;
+
             return total;
         }
         catch (IOException e)
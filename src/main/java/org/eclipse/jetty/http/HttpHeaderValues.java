@@ -21,6 +21,9 @@ package org.eclipse.jetty.http;
 import org.eclipse.jetty.io.Buffer;
 import org.eclipse.jetty.io.BufferCache;
 import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.eclipse.jetty.util.StringMap;
+
+import java.util.Map;
 
 /**
  * Cached HTTP Header values.
@@ -72,6 +75,100 @@ public class HttpHeaderValues extends BufferCache
         BYTES_BUFFER=CACHE.add(BYTES,BYTES_ORDINAL),
         NO_CACHE_BUFFER=CACHE.add(NO_CACHE,NO_CACHE_ORDINAL),
         UPGRADE_BUFFER=CACHE.add(UPGRADE,UPGRADE_ORDINAL);
+
+    /* ------------------------------------------------------------ */
+    /** Values that are repeated verbatim on most requests. The parser resolves
+     * raw header values against a case sensitive byte trie of these and hands
+     * the shared immutable buffer to the handler instead of a view.
+     */
+    private final static StringMap __interned = new StringMap(false);
+    private static int __maxInternedLength;
+
+    static
+    {
+        // reuse the cached buffers so that ordinal lookups still work on interned values
+        internValue(CLOSE_BUFFER);
+        internValue(CHUNKED_BUFFER);
+        internValue(GZIP_BUFFER);
+        internValue(IDENTITY_BUFFER);
+        internValue(KEEP_ALIVE_BUFFER);
+        internValue(CONTINUE_BUFFER);
+        internValue(NO_CACHE_BUFFER);
+        internValue(UPGRADE_BUFFER);
+
+        String[] common = {
+            "Keep-Alive",
+            "Close",
+            "gzip, deflate",
+            "gzip,deflate",
+            "gzip, deflate, br",
+            "gzip, deflate, sdch",
+            "deflate, gzip",
+            "max-age=0",
+            "no-store",
+            "*/*",
+            "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8",
+            "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8",
+            "application/json, text/plain, */*",
+            "application/json",
+            "application/json;charset=UTF-8",
+            "application/x-www-form-urlencoded",
+            "application/x-www-form-urlencoded; charset=UTF-8",
+            "text/plain",
+            "text/plain;charset=UTF-8",
+            "en-US,en;q=0.9",
+            "en-US,en;q=0.8",
+            "en-us",
+            "zh-CN,zh;q=0.9",
+            "ISO-8859-1,utf-8;q=0.7,*;q=0.7",
+            "XMLHttpRequest",
+            "websocket",
+            "trailers",
+            "1",
+            "?0",
+            "?1",
+            "same-origin",
+            "same-site",
+            "cross-site",
+            "none",
+            "cors",
+            "navigate",
+            "no-cors",
+            "document",
+            "empty",
+            "bytes=0-"
+        };
+        for (String value : common)
+            internValue(new ByteArrayBuffer(value));
+    }
+
+    /* ------------------------------------------------------------ */
+    private static void internValue(Buffer value)
+    {
+        String key=value.toString();
+        __interned.put(key,value);
+        if (key.length()>__maxInternedLength)
+            __maxInternedLength=key.length();
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Resolve a raw header value against the interned common values.
+     * @param value a (usually volatile) view of the parsed value
+     * @return the shared immutable buffer on an exact match, else the passed value
+     */
+    public static Buffer intern(Buffer value)
+    {
+        int length=value.length();
+        if (length==0 || length>__maxInternedLength)
+            return value;
+        byte[] array=value.array();
+        if (array==null)
+            return value;
+        Map.Entry entry=__interned.getBestEntry(array,value.getIndex(),length);
+        if (entry==null || ((String)entry.getKey()).length()!=length)
+            return value;
+        return (Buffer)entry.getValue();
+    }
         
 
     public static boolean hasKnownValues(int httpHeaderOrdinal)
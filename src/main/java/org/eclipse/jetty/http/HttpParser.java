@@ -55,6 +55,94 @@ public class HttpParser implements Parser
     public static final int STATE_CHUNK=6;
     public static final int STATE_SEEKING_EOF=7;
 
+    // Byte classes of the header states
+    private static final int C_CTL=0;
+    private static final int C_TAB=1;
+    private static final int C_LF=2;
+    private static final int C_CR=3;
+    private static final int C_SPACE=4;
+    private static final int C_COLON=5;
+    private static final int C_DIGIT=6;
+    private static final int C_TOKEN=7; // any other byte, including 0x7f and non ASCII
+    private static final int CLASSES=8;
+
+    // Actions of the header states
+    private static final int A_NONE=0;
+    private static final int A_BAD=1;
+    private static final int A_START=2;
+    private static final int A_START_MARK=3;
+    private static final int A_FIELD0_END=4;
+    private static final int A_SPACE1_MARK=5;
+    private static final int A_STATUS_END=6;
+    private static final int A_STATUS_DIGIT=7;
+    private static final int A_STATUS_EOL=8;
+    private static final int A_STATUS_URI=9;
+    private static final int A_URI_END=10;
+    private static final int A_URI_EOL=11;
+    private static final int A_URI_SKIP=12;
+    private static final int A_SPACE2_MARK=13;
+    private static final int A_SPACE2_EOL=14;
+    private static final int A_FIELD2_EOL=15;
+    private static final int A_HEADER_CONTINUATION=16;
+    private static final int A_HEADER_END=17;
+    private static final int A_HEADER_NAME=18;
+    private static final int A_NAME_EOL=19;
+    private static final int A_NAME_COLON=20;
+    private static final int A_NAME_START=21;
+    private static final int A_NAME_SPACE=22;
+    private static final int A_NAME_SKIP=23;
+    private static final int A_VALUE_EOL=24;
+    private static final int A_VALUE_START=25;
+    private static final int A_VALUE_SPACE=26;
+    private static final int A_VALUE_SKIP=27;
+
+    // __byteClass[b&0xff] is the class of a byte, __actions[state-STATE_START][class] the action to take
+    private static final byte[] __byteClass=new byte[256];
+    private static final byte[][] __actions=new byte[STATE_END-STATE_START][CLASSES];
+    static
+    {
+        for (int b=0;b<256;b++)
+        {
+            int c;
+            switch(b)
+            {
+                case HttpTokens.TAB: c=C_TAB; break;
+                case HttpTokens.LINE_FEED: c=C_LF; break;
+                case HttpTokens.CARRIAGE_RETURN: c=C_CR; break;
+                case HttpTokens.SPACE: c=C_SPACE; break;
+                case HttpTokens.COLON: c=C_COLON; break;
+                default:
+                    if (b<HttpTokens.SPACE)
+                        c=C_CTL;
+                    else if (b>='0' && b<='9')
+                        c=C_DIGIT;
+                    else
+                        c=C_TOKEN;
+            }
+            __byteClass[b]=(byte)c;
+        }
+
+        //                              CTL             TAB                    LF             CR             SPACE                  COLON                  DIGIT           TOKEN
+        actions(STATE_START,            A_START,        A_START,               A_START,       A_START,       A_START,               A_START_MARK,          A_START_MARK,   A_START_MARK);
+        actions(STATE_FIELD0,           A_BAD,          A_BAD,                 A_BAD,         A_BAD,         A_FIELD0_END,          A_NONE,                A_NONE,         A_NONE);
+        actions(STATE_SPACE1,           A_BAD,          A_BAD,                 A_BAD,         A_BAD,         A_NONE,                A_SPACE1_MARK,         A_SPACE1_MARK,  A_SPACE1_MARK);
+        actions(STATE_STATUS,           A_STATUS_EOL,   A_STATUS_EOL,          A_STATUS_EOL,  A_STATUS_EOL,  A_STATUS_END,          A_STATUS_URI,          A_STATUS_DIGIT, A_STATUS_URI);
+        actions(STATE_URI,              A_URI_EOL,      A_URI_EOL,             A_URI_EOL,     A_URI_EOL,     A_URI_END,             A_URI_SKIP,            A_URI_SKIP,     A_URI_SKIP);
+        actions(STATE_SPACE2,           A_SPACE2_EOL,   A_SPACE2_EOL,          A_SPACE2_EOL,  A_SPACE2_EOL,  A_NONE,                A_SPACE2_MARK,         A_SPACE2_MARK,  A_SPACE2_MARK);
+        actions(STATE_FIELD2,           A_NONE,         A_NONE,                A_FIELD2_EOL,  A_FIELD2_EOL,  A_NONE,                A_NONE,                A_NONE,         A_NONE);
+        actions(STATE_HEADER,           A_HEADER_NAME,  A_HEADER_CONTINUATION, A_HEADER_END,  A_HEADER_END,  A_HEADER_CONTINUATION, A_HEADER_CONTINUATION, A_HEADER_NAME,  A_HEADER_NAME);
+        actions(STATE_HEADER_NAME,      A_NAME_START,   A_NONE,                A_NAME_EOL,    A_NAME_EOL,    A_NONE,                A_NAME_COLON,          A_NAME_START,   A_NAME_START);
+        actions(STATE_HEADER_IN_NAME,   A_NAME_SKIP,    A_NAME_SPACE,          A_NAME_EOL,    A_NAME_EOL,    A_NAME_SPACE,          A_NAME_COLON,          A_NAME_SKIP,    A_NAME_SKIP);
+        actions(STATE_HEADER_VALUE,     A_VALUE_START,  A_NONE,                A_VALUE_EOL,   A_VALUE_EOL,   A_NONE,                A_VALUE_START,         A_VALUE_START,  A_VALUE_START);
+        actions(STATE_HEADER_IN_VALUE,  A_VALUE_SKIP,   A_VALUE_SPACE,         A_VALUE_EOL,   A_VALUE_EOL,   A_VALUE_SPACE,         A_VALUE_SKIP,          A_VALUE_SKIP,   A_VALUE_SKIP);
+    }
+
+    private static void actions(int state, int... actions)
+    {
+        for (int c=0;c<CLASSES;c++)
+            __actions[state-STATE_START][c]=(byte)actions[c];
+    }
+
     private final EventHandler _handler;
     private final Buffers _buffers; // source of buffers
     private final EndPoint _endp;
@@ -64,6 +152,7 @@ public class HttpParser implements Parser
     private CachedBuffer _cached;
     private final View.CaseInsensitive _tok0; // Saved token: header name, request method or response version
     private final View.CaseInsensitive _tok1; // Saved token: header value, request URI or response code
+    private final HttpScanner _scanner=new HttpScanner(); // scanning of long tokens straight over the array
     private String _multiLineValue;
     private int _responseStatus; // If >0 then we are parsing a response
     private boolean _forceContentBuffer;
@@ -71,6 +160,16 @@ public class HttpParser implements Parser
 
     /* ------------------------------------------------------------------------------- */
     protected final View  _contentView=new View(); // View of the content in the buffer for {@link Input}
+    private final View _fillView=new View() // View of the caller's array that readContent fills, up to _fillLimit
+    {
+        @Override
+        public int capacity()
+        {
+            return _fillLimit;
+        }
+    };
+    private int _fillLimit;
+    private ByteArrayBuffer _fillArray; // The caller's array of the last readContent, wrapped once
     protected int _state=STATE_START;
     protected byte _eol;
     protected int _length;
@@ -357,443 +456,290 @@ public class HttpParser implements Parser
                 }
                 _eol=0;
 
-                switch (_state)
+                // The byte class and the state select the action from the tables
+                switch (__actions[_state-STATE_START][__byteClass[0xff&ch]])
                 {
-                    case STATE_START:
+                    case A_NONE:
+                        break;
+
+                    case A_BAD:
+                        throw new HttpException(HttpStatus.BAD_REQUEST_400);
+
+                    case A_START:
                         _contentLength=HttpTokens.UNKNOWN_CONTENT;
                         _cached=null;
-                        if (ch > HttpTokens.SPACE || ch<0)
-                        {
-                            _buffer.mark();
-                            _state=STATE_FIELD0;
-                        }
                         break;
 
-                    case STATE_FIELD0:
-                        if (ch == HttpTokens.SPACE)
-                        {
-                            _tok0.update(_buffer.markIndex(), _buffer.getIndex() - 1);
-                            _responseStatus=HttpVersions.CACHE.get(_tok0)==null?-1:0;
-                            _state=STATE_SPACE1;
-                            continue;
-                        }
-                        else if (ch < HttpTokens.SPACE && ch>=0)
-                        {
-                            throw new HttpException(HttpStatus.BAD_REQUEST_400);
-                        }
+                    case A_START_MARK:
+                        _contentLength=HttpTokens.UNKNOWN_CONTENT;
+                        _cached=null;
+                        _buffer.mark();
+                        _state=STATE_FIELD0;
                         break;
 
-                    case STATE_SPACE1:
-                        if (ch > HttpTokens.SPACE || ch<0)
-                        {
-                            _buffer.mark();
-                            if (_responseStatus>=0)
-                            {
-                                _state=STATE_STATUS;
-                                _responseStatus=ch-'0';
-                            }
-                            else
-                                _state=STATE_URI;
-                        }
-                        else if (ch < HttpTokens.SPACE)
-                        {
-                            throw new HttpException(HttpStatus.BAD_REQUEST_400);
-                        }
+                    case A_FIELD0_END:
+                        _tok0.update(_buffer.markIndex(), _buffer.getIndex() - 1);
+                        _responseStatus=HttpVersions.CACHE.get(_tok0)==null?-1:0;
+                        _state=STATE_SPACE1;
                         break;
 
-                    case STATE_STATUS:
-                        if (ch == HttpTokens.SPACE)
+                    case A_SPACE1_MARK:
+                        _buffer.mark();
+                        if (_responseStatus>=0)
                         {
-                            _tok1.update(_buffer.markIndex(), _buffer.getIndex() - 1);
-                            _state=STATE_SPACE2;
-                            continue;
-                        }
-                        else if (ch>='0' && ch<='9')
-                        {
-                            _responseStatus=_responseStatus*10+(ch-'0');
-                            continue;
-                        }
-                        else if (ch < HttpTokens.SPACE && ch>=0)
-                        {
-                            _handler.startResponse(HttpMethods.CACHE.lookup(_tok0), _responseStatus, null);
-                            _eol=ch;
-                            _state=STATE_HEADER;
-                            _tok0.setPutIndex(_tok0.getIndex());
-                            _tok1.setPutIndex(_tok1.getIndex());
-                            _multiLineValue=null;
-                            continue;
+                            _state=STATE_STATUS;
+                            _responseStatus=ch-'0';
                         }
+                        else
+                            _state=STATE_URI;
+                        break;
+
+                    case A_STATUS_END:
+                        _tok1.update(_buffer.markIndex(), _buffer.getIndex() - 1);
+                        _state=STATE_SPACE2;
+                        break;
+
+                    case A_STATUS_DIGIT:
+                        _responseStatus=_responseStatus*10+(ch-'0');
+                        break;
+
+                    case A_STATUS_EOL:
+                        _handler.startResponse(HttpMethods.CACHE.lookup(_tok0), _responseStatus, null);
+                        _eol=ch;
+                        _state=STATE_HEADER;
+                        _tok0.setPutIndex(_tok0.getIndex());
+                        _tok1.setPutIndex(_tok1.getIndex());
+                        _multiLineValue=null;
+                        break;
+
+                    case A_STATUS_URI:
                         // not a digit, so must be a URI
                         _state=STATE_URI;
                         _responseStatus=-1;
                         break;
 
-                    case STATE_URI:
-                        if (ch == HttpTokens.SPACE)
-                        {
-                            _tok1.update(_buffer.markIndex(), _buffer.getIndex() - 1);
-                            _state=STATE_SPACE2;
-                            continue;
-                        }
-                        else if (ch < HttpTokens.SPACE && ch>=0)
-                        {
-                            // HTTP/0.9
-                            _handler.startRequest(HttpMethods.CACHE.lookup(_tok0), _buffer.sliceFromMark(), null);
-                            _persistent=false;
-                            _state=STATE_SEEKING_EOF;
-                            _handler.headerComplete();
-                            _handler.messageComplete(_contentPosition);
-                            return 1;
-                        }
+                    case A_URI_END:
+                        _tok1.update(_buffer.markIndex(), _buffer.getIndex() - 1);
+                        _state=STATE_SPACE2;
                         break;
 
-                    case STATE_SPACE2:
-                        if (ch > HttpTokens.SPACE || ch<0)
-                        {
-                            _buffer.mark();
-                            _state=STATE_FIELD2;
-                        }
-                        else if (ch < HttpTokens.SPACE)
-                        {
-                            if (_responseStatus>0)
-                            {
-                                _handler.startResponse(HttpMethods.CACHE.lookup(_tok0), _responseStatus, null);
-                                _eol=ch;
-                                _state=STATE_HEADER;
-                                _tok0.setPutIndex(_tok0.getIndex());
-                                _tok1.setPutIndex(_tok1.getIndex());
-                                _multiLineValue=null;
-                            }
-                            else
-                            {
-                                // HTTP/0.9
-                                _handler.startRequest(HttpMethods.CACHE.lookup(_tok0), _tok1, null);
-                                _persistent=false;
-                                _state=STATE_SEEKING_EOF;
-                                _handler.headerComplete();
-                                _handler.messageComplete(_contentPosition);
-                                return 1;
-                            }
-                        }
+                    case A_URI_EOL:
+                        // HTTP/0.9
+                        _handler.startRequest(HttpMethods.CACHE.lookup(_tok0), _buffer.sliceFromMark(), null);
+                        _persistent=false;
+                        _state=STATE_SEEKING_EOF;
+                        _handler.headerComplete();
+                        _handler.messageComplete(_contentPosition);
+                        return 1;
+
+                    case A_URI_SKIP:
+                        // skip straight to the next space or control char
+                        length-=skipTo(_scanner.indexOfSpaceOrControl(_buffer,_buffer.getIndex(),_buffer.putIndex()),false);
                         break;
 
-                    case STATE_FIELD2:
-                        if (ch == HttpTokens.CARRIAGE_RETURN || ch == HttpTokens.LINE_FEED)
+                    case A_SPACE2_MARK:
+                        _buffer.mark();
+                        _state=STATE_FIELD2;
+                        break;
+
+                    case A_SPACE2_EOL:
+                        if (_responseStatus>0)
                         {
-                            Buffer version;
-                            if (_responseStatus>0)
-                                _handler.startResponse(version=HttpVersions.CACHE.lookup(_tok0), _responseStatus,_buffer.sliceFromMark());
-                            else
-                                _handler.startRequest(HttpMethods.CACHE.lookup(_tok0), _tok1, version=HttpVersions.CACHE.lookup(_buffer.sliceFromMark()));
+                            _handler.startResponse(HttpMethods.CACHE.lookup(_tok0), _responseStatus, null);
                             _eol=ch;
-                            _persistent=HttpVersions.CACHE.getOrdinal(version)>=HttpVersions.HTTP_1_1_ORDINAL;
                             _state=STATE_HEADER;
                             _tok0.setPutIndex(_tok0.getIndex());
                             _tok1.setPutIndex(_tok1.getIndex());
                             _multiLineValue=null;
-                            continue;
+                            break;
                         }
+                        // HTTP/0.9
+                        _handler.startRequest(HttpMethods.CACHE.lookup(_tok0), _tok1, null);
+                        _persistent=false;
+                        _state=STATE_SEEKING_EOF;
+                        _handler.headerComplete();
+                        _handler.messageComplete(_contentPosition);
+                        return 1;
+
+                    case A_FIELD2_EOL:
+                    {
+                        Buffer version;
+                        if (_responseStatus>0)
+                            _handler.startResponse(version=HttpVersions.CACHE.lookup(_tok0), _responseStatus,_buffer.sliceFromMark());
+                        else
+                            _handler.startRequest(HttpMethods.CACHE.lookup(_tok0), _tok1, version=HttpVersions.CACHE.lookup(_buffer.sliceFromMark()));
+                        _eol=ch;
+                        _persistent=HttpVersions.CACHE.getOrdinal(version)>=HttpVersions.HTTP_1_1_ORDINAL;
+                        _state=STATE_HEADER;
+                        _tok0.setPutIndex(_tok0.getIndex());
+                        _tok1.setPutIndex(_tok1.getIndex());
+                        _multiLineValue=null;
+                        break;
+                    }
+
+                    case A_HEADER_CONTINUATION:
+                        // header value without name - continuation?
+                        _length=-1;
+                        _state=STATE_HEADER_VALUE;
                         break;
 
-                    case STATE_HEADER:
-                        switch(ch)
+                    case A_HEADER_END:
+                    {
+                        handleHeader();
+                        _buffer.setMarkIndex(-1);
+
+
+                        // is it a response that cannot have a body?
+                        if (_responseStatus > 0  && // response
+                           (_responseStatus == 304  || // not-modified response
+                            _responseStatus == 204 || // no-content response
+                            _responseStatus < 200)) // 1xx response
+                            _contentLength=HttpTokens.NO_CONTENT; // ignore any other headers set
+                        // else if we don't know framing
+                        else if (_contentLength == HttpTokens.UNKNOWN_CONTENT)
                         {
-                            case HttpTokens.COLON:
-                            case HttpTokens.SPACE:
-                            case HttpTokens.TAB:
-                            {
-                                // header value without name - continuation?
-                                _length=-1;
-                                _state=STATE_HEADER_VALUE;
-                                break;
-                            }
+                            if (_responseStatus == 0  // request
+                                    || _responseStatus == 304 // not-modified response
+                                    || _responseStatus == 204 // no-content response
+                                    || _responseStatus < 200) // 1xx response
+                                _contentLength=HttpTokens.NO_CONTENT;
+                            else
+                                _contentLength=HttpTokens.EOF_CONTENT;
+                        }
 
-                            default:
-                            {
-                                // handler last header if any
-                                if (_cached!=null || _tok0.length() > 0 || _tok1.length() > 0 || _multiLineValue != null)
-                                {
-                                    Buffer header=_cached!=null?_cached:HttpHeaders.CACHE.lookup(_tok0);
-                                    _cached=null;
-                                    Buffer value=_multiLineValue == null ? _tok1 : new ByteArrayBuffer(_multiLineValue);
+                        _contentPosition=0;
+                        _eol=ch;
+                        if (_eol==HttpTokens.CARRIAGE_RETURN && _buffer.hasContent() && _buffer.peek()==HttpTokens.LINE_FEED)
+                            _eol=_buffer.get();
 
-                                    int ho=HttpHeaders.CACHE.getOrdinal(header);
-                                    if (ho >= 0)
-                                    {
-                                        int vo;
-
-                                        switch (ho)
-                                        {
-                                            case HttpHeaders.CONTENT_LENGTH_ORDINAL:
-                                                if (_contentLength != HttpTokens.CHUNKED_CONTENT )
-                                                {
-                                                    try
-                                                    {
-                                                        _contentLength=BufferUtil.toLong(value);
-                                                    }
-                                                    catch(NumberFormatException e)
-                                                    {
-                                                        LOG.ignore(e);
-                                                        throw new HttpException(HttpStatus.BAD_REQUEST_400);
-                                                    }
-                                                    if (_contentLength <= 0)
-                                                        _contentLength=HttpTokens.NO_CONTENT;
-                                                }
-                                                break;
-
-                                            case HttpHeaders.TRANSFER_ENCODING_ORDINAL:
-                                                value=HttpHeaderValues.CACHE.lookup(value);
-                                                vo=HttpHeaderValues.CACHE.getOrdinal(value);
-                                                if (HttpHeaderValues.CHUNKED_ORDINAL == vo)
-                                                    _contentLength=HttpTokens.CHUNKED_CONTENT;
-                                                else
-                                                {
-                                                    String c=value.toString(StringUtil.__ISO_8859_1);
-                                                    if (c.endsWith(HttpHeaderValues.CHUNKED))
-                                                        _contentLength=HttpTokens.CHUNKED_CONTENT;
-
-                                                    else if (c.indexOf(HttpHeaderValues.CHUNKED) >= 0)
-                                                        throw new HttpException(400,null);
-                                                }
-                                                break;
-
-                                            case HttpHeaders.CONNECTION_ORDINAL:
-                                                switch(HttpHeaderValues.CACHE.getOrdinal(value))
-                                                {
-                                                    case HttpHeaderValues.CLOSE_ORDINAL:
-                                                        _persistent=false;
-                                                        break;
-
-                                                    case HttpHeaderValues.KEEP_ALIVE_ORDINAL:
-                                                        _persistent=true;
-                                                        break;
-
-                                                    case -1: // No match, may be multi valued
-                                                    {
-                                                        for (String v : value.toString().split(","))
-                                                        {
-                                                            switch(HttpHeaderValues.CACHE.getOrdinal(v.trim()))
-                                                            {
-                                                                case HttpHeaderValues.CLOSE_ORDINAL:
-                                                                    _persistent=false;
-                                                                    break;
-
-                                                                case HttpHeaderValues.KEEP_ALIVE_ORDINAL:
-                                                                    _persistent=true;
-                                                                    break;
-                                                            }
-                                                        }
-                                                        break;
-                                                    }
-                                                }
-                                        }
-                                    }
+                        // We convert _contentLength to an int for this switch statement because
+                        // we don't care about the amount of data available just whether there is some.
+                        switch (_contentLength > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) _contentLength)
+                        {
+                            case HttpTokens.EOF_CONTENT:
+                                _state=STATE_EOF_CONTENT;
+                                _handler.headerComplete(); // May recurse here !
+                                break;
 
-                                    _handler.parsedHeader(header, value);
-                                    _tok0.setPutIndex(_tok0.getIndex());
-                                    _tok1.setPutIndex(_tok1.getIndex());
-                                    _multiLineValue=null;
-                                }
-                                _buffer.setMarkIndex(-1);
+                            case HttpTokens.CHUNKED_CONTENT:
+                                _state=STATE_CHUNKED_CONTENT;
+                                _handler.headerComplete(); // May recurse here !
+                                break;
 
-                                // now handle ch
-                                if (ch == HttpTokens.CARRIAGE_RETURN || ch == HttpTokens.LINE_FEED)
-                                {
-                                    // is it a response that cannot have a body?
-                                    if (_responseStatus > 0  && // response
-                                       (_responseStatus == 304  || // not-modified response
-                                        _responseStatus == 204 || // no-content response
-                                        _responseStatus < 200)) // 1xx response
-                                        _contentLength=HttpTokens.NO_CONTENT; // ignore any other headers set
-                                    // else if we don't know framing
-                                    else if (_contentLength == HttpTokens.UNKNOWN_CONTENT)
-                                    {
-                                        if (_responseStatus == 0  // request
-                                                || _responseStatus == 304 // not-modified response
-                                                || _responseStatus == 204 // no-content response
-                                                || _responseStatus < 200) // 1xx response
-                                            _contentLength=HttpTokens.NO_CONTENT;
-                                        else
-                                            _contentLength=HttpTokens.EOF_CONTENT;
-                                    }
+                            case HttpTokens.NO_CONTENT:
+                                _state=_persistent||(_responseStatus>=100&&_responseStatus<200)?STATE_END:STATE_SEEKING_EOF;
+                                _handler.headerComplete();
+                                _handler.messageComplete(_contentPosition);
+                                return 1;
 
-                                    _contentPosition=0;
-                                    _eol=ch;
-                                    if (_eol==HttpTokens.CARRIAGE_RETURN && _buffer.hasContent() && _buffer.peek()==HttpTokens.LINE_FEED)
-                                        _eol=_buffer.get();
+                            default:
+                                _state=STATE_CONTENT;
+                                _handler.headerComplete(); // May recurse here !
+                                break;
+                        }
+                        return 1;
+                    }
 
-                                    // We convert _contentLength to an int for this switch statement because
-                                    // we don't care about the amount of data available just whether there is some.
-                                    switch (_contentLength > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) _contentLength)
-                                    {
-                                        case HttpTokens.EOF_CONTENT:
-                                            _state=STATE_EOF_CONTENT;
-                                            _handler.headerComplete(); // May recurse here !
-                                            break;
+                    case A_HEADER_NAME:
+                    {
+                        handleHeader();
+                        _buffer.setMarkIndex(-1);
 
-                                        case HttpTokens.CHUNKED_CONTENT:
-                                            _state=STATE_CHUNKED_CONTENT;
-                                            _handler.headerComplete(); // May recurse here !
-                                            break;
 
-                                        case HttpTokens.NO_CONTENT:
-                                            _state=_persistent||(_responseStatus>=100&&_responseStatus<200)?STATE_END:STATE_SEEKING_EOF;
-                                            _handler.headerComplete();
-                                            _handler.messageComplete(_contentPosition);
-                                            return 1;
+                        // New header
+                        _length=1;
+                        _buffer.mark();
+                        _state=STATE_HEADER_NAME;
 
-                                        default:
-                                            _state=STATE_CONTENT;
-                                            _handler.headerComplete(); // May recurse here !
-                                            break;
-                                    }
-                                    return 1;
-                                }
-                                else
-                                {
-                                    // New header
-                                    _length=1;
-                                    _buffer.mark();
-                                    _state=STATE_HEADER_NAME;
+                        // try cached name!
+                        if (array!=null)
+                        {
+                            _cached=HttpHeaders.CACHE.getBest(array, _buffer.markIndex(), length+1);
 
-                                    // try cached name!
-                                    if (array!=null)
-                                    {
-                                        _cached=HttpHeaders.CACHE.getBest(array, _buffer.markIndex(), length+1);
-
-                                        if (_cached!=null)
-                                        {
-                                            _length=_cached.length();
-                                            _buffer.setGetIndex(_buffer.markIndex()+_length);
-                                            length=_buffer.length();
-                                        }
-                                    }
-                                }
+                            if (_cached!=null)
+                            {
+                                _length=_cached.length();
+                                _buffer.setGetIndex(_buffer.markIndex()+_length);
+                                length=_buffer.length();
                             }
                         }
+                        break;
+                    }
 
+                    case A_NAME_EOL:
+                        if (_length > 0)
+                            _tok0.update(_buffer.markIndex(), _buffer.markIndex() + _length);
+                        _eol=ch;
+                        _state=STATE_HEADER;
                         break;
 
-                    case STATE_HEADER_NAME:
-                        switch(ch)
-                        {
-                            case HttpTokens.CARRIAGE_RETURN:
-                            case HttpTokens.LINE_FEED:
-                                if (_length > 0)
-                                    _tok0.update(_buffer.markIndex(), _buffer.markIndex() + _length);
-                                _eol=ch;
-                                _state=STATE_HEADER;
-                                break;
-                            case HttpTokens.COLON:
-                                if (_length > 0 && _cached==null)
-                                    _tok0.update(_buffer.markIndex(), _buffer.markIndex() + _length);
-                                _length=-1;
-                                _state=STATE_HEADER_VALUE;
-                                break;
-                            case HttpTokens.SPACE:
-                            case HttpTokens.TAB:
-                                break;
-                            default:
-                            {
-                                _cached=null;
-                                if (_length == -1)
-                                    _buffer.mark();
-                                _length=_buffer.getIndex() - _buffer.markIndex();
-                                _state=STATE_HEADER_IN_NAME;
-                            }
-                        }
+                    case A_NAME_COLON:
+                        if (_length > 0 && _cached==null)
+                            _tok0.update(_buffer.markIndex(), _buffer.markIndex() + _length);
+                        _length=-1;
+                        _state=STATE_HEADER_VALUE;
+                        break;
 
+                    case A_NAME_START:
+                        _cached=null;
+                        if (_length == -1)
+                            _buffer.mark();
+                        _length=_buffer.getIndex() - _buffer.markIndex();
+                        _state=STATE_HEADER_IN_NAME;
                         break;
 
-                    case STATE_HEADER_IN_NAME:
-                        switch(ch)
-                        {
-                            case HttpTokens.CARRIAGE_RETURN:
-                            case HttpTokens.LINE_FEED:
-                                if (_length > 0)
-                                    _tok0.update(_buffer.markIndex(), _buffer.markIndex() + _length);
-                                _eol=ch;
-                                _state=STATE_HEADER;
-                                break;
-                            case HttpTokens.COLON:
-                                if (_length > 0 && _cached==null)
-                                    _tok0.update(_buffer.markIndex(), _buffer.markIndex() + _length);
-                                _length=-1;
-                                _state=STATE_HEADER_VALUE;
-                                break;
-                            case HttpTokens.SPACE:
-                            case HttpTokens.TAB:
-                                _state=STATE_HEADER_NAME;
-                                break;
-                            default:
-                            {
-                                _cached=null;
-                                _length++;
-                            }
-                        }
+                    case A_NAME_SPACE:
+                        _state=STATE_HEADER_NAME;
                         break;
 
-                    case STATE_HEADER_VALUE:
-                        switch(ch)
+                    case A_NAME_SKIP:
+                    {
+                        _cached=null;
+                        _length++;
+                        // skip straight to the colon, space or control char ending the name
+                        int skipped=skipTo(_scanner.indexOfNameEnd(_buffer,_buffer.getIndex(),_buffer.putIndex()),false);
+                        _length+=skipped;
+                        length-=skipped;
+                        break;
+                    }
+
+                    case A_VALUE_EOL:
+                        if (_length > 0)
                         {
-                            case HttpTokens.CARRIAGE_RETURN:
-                            case HttpTokens.LINE_FEED:
-                                if (_length > 0)
-                                {
-                                    if (_tok1.length() == 0)
-                                        _tok1.update(_buffer.markIndex(), _buffer.markIndex() + _length);
-                                    else
-                                    {
-                                        // Continuation line!
-                                        if (_multiLineValue == null) _multiLineValue=_tok1.toString(StringUtil.__ISO_8859_1);
-                                        _tok1.update(_buffer.markIndex(), _buffer.markIndex() + _length);
-                                        _multiLineValue += " " + _tok1.toString(StringUtil.__ISO_8859_1);
-                                    }
-                                }
-                                _eol=ch;
-                                _state=STATE_HEADER;
-                                break;
-                            case HttpTokens.SPACE:
-                            case HttpTokens.TAB:
-                                break;
-                            default:
+                            if (_tok1.length() == 0)
+                                _tok1.update(_buffer.markIndex(), _buffer.markIndex() + _length);
+                            else
                             {
-                                if (_length == -1)
-                                    _buffer.mark();
-                                _length=_buffer.getIndex() - _buffer.markIndex();
-                                _state=STATE_HEADER_IN_VALUE;
+                                // Continuation line!
+                                if (_multiLineValue == null) _multiLineValue=_tok1.toString(StringUtil.__ISO_8859_1);
+                                _tok1.update(_buffer.markIndex(), _buffer.markIndex() + _length);
+                                _multiLineValue += " " + _tok1.toString(StringUtil.__ISO_8859_1);
                             }
                         }
+                        _eol=ch;
+                        _state=STATE_HEADER;
                         break;
 
-                    case STATE_HEADER_IN_VALUE:
-                        switch(ch)
-                        {
-                            case HttpTokens.CARRIAGE_RETURN:
-                            case HttpTokens.LINE_FEED:
-                                if (_length > 0)
-                                {
-                                    if (_tok1.length() == 0)
-                                        _tok1.update(_buffer.markIndex(), _buffer.markIndex() + _length);
-                                    else
-                                    {
-                                        // Continuation line!
-                                        if (_multiLineValue == null) _multiLineValue=_tok1.toString(StringUtil.__ISO_8859_1);
-                                        _tok1.update(_buffer.markIndex(), _buffer.markIndex() + _length);
-                                        _multiLineValue += " " + _tok1.toString(StringUtil.__ISO_8859_1);
-                                    }
-                                }
-                                _eol=ch;
-                                _state=STATE_HEADER;
-                                break;
-                            case HttpTokens.SPACE:
-                            case HttpTokens.TAB:
-                                _state=STATE_HEADER_VALUE;
-                                break;
-                            default:
-                                _length++;
-                        }
+                    case A_VALUE_START:
+                        if (_length == -1)
+                            _buffer.mark();
+                        _length=_buffer.getIndex() - _buffer.markIndex();
+                        _state=STATE_HEADER_IN_VALUE;
+                        break;
+
+                    case A_VALUE_SPACE:
+                        _state=STATE_HEADER_VALUE;
                         break;
+
+                    case A_VALUE_SKIP:
+                    {
+                        _length++;
+                        // skip straight to the end of line, leaving trailing white space to the state machine
+                        int skipped=skipTo(_scanner.indexOfLineEnd(_buffer,_buffer.getIndex(),_buffer.putIndex()),true);
+                        _length+=skipped;
+                        length-=skipped;
+                        break;
+                    }
                 }
             } // end of HEADER states loop
 
@@ -993,6 +939,124 @@ public class HttpParser implements Parser
         }
     }
 
+    /* ------------------------------------------------------------------------------- */
+    /** Pass the header name and value held in the tokens, if any, to the handler.
+     */
+    private void handleHeader() throws IOException
+    {
+        if (_cached!=null || _tok0.length() > 0 || _tok1.length() > 0 || _multiLineValue != null)
+        {
+            Buffer header=_cached!=null?_cached:HttpHeaders.CACHE.lookup(_tok0);
+            _cached=null;
+            // common values come back as shared immutable buffers
+            Buffer value=_multiLineValue == null ? HttpHeaderValues.intern(_tok1) : new ByteArrayBuffer(_multiLineValue);
+
+            int ho=HttpHeaders.CACHE.getOrdinal(header);
+            if (ho >= 0)
+            {
+                int vo;
+
+                switch (ho)
+                {
+                    case HttpHeaders.CONTENT_LENGTH_ORDINAL:
+                        if (_contentLength != HttpTokens.CHUNKED_CONTENT )
+                        {
+                            try
+                            {
+                                _contentLength=BufferUtil.toLong(value);
+                            }
+                            catch(NumberFormatException e)
+                            {
+                                LOG.ignore(e);
+                                throw new HttpException(HttpStatus.BAD_REQUEST_400);
+                            }
+                            if (_contentLength <= 0)
+                                _contentLength=HttpTokens.NO_CONTENT;
+                        }
+                        break;
+
+                    case HttpHeaders.TRANSFER_ENCODING_ORDINAL:
+                        value=HttpHeaderValues.CACHE.lookup(value);
+                        vo=HttpHeaderValues.CACHE.getOrdinal(value);
+                        if (HttpHeaderValues.CHUNKED_ORDINAL == vo)
+                            _contentLength=HttpTokens.CHUNKED_CONTENT;
+                        else
+                        {
+                            String c=value.toString(StringUtil.__ISO_8859_1);
+                            if (c.endsWith(HttpHeaderValues.CHUNKED))
+                                _contentLength=HttpTokens.CHUNKED_CONTENT;
+
+                            else if (c.indexOf(HttpHeaderValues.CHUNKED) >= 0)
+                                throw new HttpException(400,null);
+                        }
+                        break;
+
+                    case HttpHeaders.CONNECTION_ORDINAL:
+                        switch(HttpHeaderValues.CACHE.getOrdinal(value))
+                        {
+                            case HttpHeaderValues.CLOSE_ORDINAL:
+                                _persistent=false;
+                                break;
+
+                            case HttpHeaderValues.KEEP_ALIVE_ORDINAL:
+                                _persistent=true;
+                                break;
+
+                            case -1: // No match, may be multi valued
+                            {
+                                for (String v : value.toString().split(","))
+                                {
+                                    switch(HttpHeaderValues.CACHE.getOrdinal(v.trim()))
+                                    {
+                                        case HttpHeaderValues.CLOSE_ORDINAL:
+                                            _persistent=false;
+                                            break;
+
+                                        case HttpHeaderValues.KEEP_ALIVE_ORDINAL:
+                                            _persistent=true;
+                                            break;
+                                    }
+                                }
+                                break;
+                            }
+                        }
+                }
+            }
+
+            _handler.parsedHeader(header, value);
+            _tok0.setPutIndex(_tok0.getIndex());
+            _tok1.setPutIndex(_tok1.getIndex());
+            _multiLineValue=null;
+        }
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    /** Move the get index forward to a position found by the {@link HttpScanner}.
+     * @param end the index found, or -1 to skip to the end of the available data
+     * @param trim true if trailing white space before end must be left unconsumed
+     * @return the number of bytes skipped
+     */
+    private int skipTo(int end, boolean trim)
+    {
+        int start=_buffer.getIndex();
+        if (end<0)
+            end=_buffer.putIndex();
+        if (trim)
+        {
+            while (end>start)
+            {
+                byte b=_buffer.peek(end-1);
+                if (b!=HttpTokens.SPACE && b!=HttpTokens.TAB)
+                    break;
+                end--;
+            }
+        }
+        if (end<=start)
+            return 0;
+        _buffer.setGetIndex(end);
+        return end-start;
+    }
+
     /* ------------------------------------------------------------------------------- */
     /** fill the buffers from the endpoint
      *
@@ -1210,6 +1274,96 @@ public class HttpParser implements Parser
         return _contentView.length()>0?_contentView:null;
     }
 
+    /* ------------------------------------------------------------ */
+    /** Non blocking read of content into a caller supplied array.
+     * Content already parsed is copied out of the buffers first. Otherwise, when the
+     * parser is within a content-length body or a chunk and nothing is buffered, the
+     * endpoint fills the caller's array directly so the bytes are never copied.
+     * @return the number of bytes read, 0 if none are available now, -1 at the end of the content
+     */
+    public int readContent(byte[] b, int off, int len) throws IOException
+    {
+        if (_contentView.length()>0)
+            return _contentView.get(b,off,len);
+
+        if (getState() <= STATE_END || isState(STATE_SEEKING_EOF))
+            return -1;
+
+        // Fill straight into the caller's array if nothing is buffered
+        // and the CRLF before the content has been consumed
+        if (_endp!=null && _eol!=HttpTokens.CARRIAGE_RETURN && (_header==null || !_header.hasContent()) && (_body==null || !_body.hasContent()))
+        {
+            long remaining=0;
+            if (_state==STATE_CONTENT)
+                remaining=_contentLength-_contentPosition;
+            else if (_state==STATE_CHUNK)
+                remaining=_chunkLength-_chunkPosition;
+
+            if (remaining>0)
+            {
+                if (_fillArray==null || _fillArray.array()!=b)
+                    _fillArray=new ByteArrayBuffer(b);
+                _fillView.update(_fillArray);
+                _fillView.update(off,off);
+                _fillLimit=off+(int)Math.min(len,remaining);
+                int filled;
+                try
+                {
+                    filled=_endp.fill(_fillView);
+                }
+                catch(IOException e)
+                {
+                    LOG.debug(e);
+                    throw (e instanceof EofException) ? e:new EofException(e);
+                }
+
+                if (filled==0)
+                    return 0;
+                if (filled>0)
+                {
+                    _eol=0;
+                    _contentPosition+=filled;
+                    if (_state==STATE_CHUNK)
+                        _chunkPosition+=filled;
+                    else if (_contentPosition==_contentLength)
+                    {
+                        _state=_persistent?STATE_END:STATE_SEEKING_EOF;
+                        _handler.messageComplete(_contentPosition);
+                    }
+                    return filled;
+                }
+                // EOF, let parseNext deal with it
+            }
+        }
+
+        parseNext();
+        if (_contentView.length()>0)
+            return _contentView.get(b,off,len);
+        return (getState() <= STATE_END || isState(STATE_SEEKING_EOF))?-1:0;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if {@link #readContent(byte[], int, int)} can make progress without
+     * waiting for the endpoint: content or unparsed bytes are buffered, or the content is complete.
+     */
+    public boolean isContentReady()
+    {
+        return _contentView.length()>0 ||
+            getState() <= STATE_END || isState(STATE_SEEKING_EOF) ||
+            _header!=null && _header.hasContent() ||
+            _body!=null && _body.hasContent();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if all the content has been parsed and read
+     */
+    public boolean isContentComplete()
+    {
+        return _contentView.length()==0 && (getState() <= STATE_END || isState(STATE_SEEKING_EOF));
+    }
+
     /* ------------------------------------------------------------ */
     /* (non-Javadoc)
      * @see java.io.InputStream#available()
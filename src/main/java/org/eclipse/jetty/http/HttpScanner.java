@@ -0,0 +1,87 @@
+package org.eclipse.jetty.http;
+
+import org.eclipse.jetty.io.Buffer;
+
+/**
+ * 给{@link HttpParser}跳过长的URI和header值用的扫描器
+ * 1. 有底层数组的Buffer直接在数组上逐字节比较，省掉每个字节一次peek的虚调用和下标检查；
+ * 2. 没有数组的(直接内存)Buffer退化成peek。
+ * 没有用一次读8个字节的long做SWAR：目标JDK上HeapByteBuffer.getLong也是拆成8次单字节读取再拼起来，
+ * 并不比逐字节快，反而让扫描器难读
+ *
+ * 没有状态，和解析器一样一个连接一个
+ */
+public class HttpScanner {
+
+    /**
+     * 找[from,to)中第一个CR或者LF
+     * @return 下标，没有找到返回-1
+     */
+    public int indexOfLineEnd(Buffer buffer, int from, int to) {
+        byte[] array = buffer.array();
+        if (array != null) {
+            for (int i = from; i < to; i++) {
+                byte b = array[i];
+                if (b == HttpTokens.CARRIAGE_RETURN || b == HttpTokens.LINE_FEED) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        for (int i = from; i < to; i++) {
+            byte b = buffer.peek(i);
+            if (b == HttpTokens.CARRIAGE_RETURN || b == HttpTokens.LINE_FEED) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 找[from,to)中第一个空格或者控制字符(0x00~0x20，不含0x7f)，用于URI
+     * @return 下标，没有找到返回-1
+     */
+    public int indexOfSpaceOrControl(Buffer buffer, int from, int to) {
+        byte[] array = buffer.array();
+        if (array != null) {
+            for (int i = from; i < to; i++) {
+                byte b = array[i];
+                if (b <= HttpTokens.SPACE && b >= 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        for (int i = from; i < to; i++) {
+            byte b = buffer.peek(i);
+            if (b <= HttpTokens.SPACE && b >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 找[from,to)中第一个冒号、空格或者控制字符，用于header名字
+     * @return 下标，没有找到返回-1
+     */
+    public int indexOfNameEnd(Buffer buffer, int from, int to) {
+        byte[] array = buffer.array();
+        if (array != null) {
+            for (int i = from; i < to; i++) {
+                byte b = array[i];
+                if (b == HttpTokens.COLON || b <= HttpTokens.SPACE && b >= 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        for (int i = from; i < to; i++) {
+            byte b = buffer.peek(i);
+            if (b == HttpTokens.COLON || b <= HttpTokens.SPACE && b >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -21,6 +21,7 @@ package org.eclipse.jetty.http;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 
+import org.eclipse.jetty.io.Buffer;
 import org.eclipse.jetty.util.MultiMap;
 import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.util.TypeUtil;
@@ -43,7 +44,11 @@ import org.eclipse.jetty.util.Utf8StringBuilder;
  * <li>{@link #getQuery()} - query</li>
  * <li>{@link #getFragment()} - fragment</li>
  * </ul>
- *
+ * <p>
+ * Only the offsets of the elements are recorded by the parse. The path, decoded path,
+ * path and param, and query Strings are created on first use and kept until the next
+ * parse, and the path is not decoded if it has no '%'.
+ * </p>
  */
 public class HttpURI
 {
@@ -75,6 +80,15 @@ public class HttpURI
     int _end;
     boolean _encoded=false;
 
+    // Strings created on first use, until the next parse
+    String _pathString;
+    String _decodedPath;
+    String _pathAndParam;
+    String _queryString;
+
+    // the bytes of a parsed buffer that may change, reused for each parse
+    private byte[] _copy=__empty;
+
     final Utf8StringBuilder _utf8b = new Utf8StringBuilder(64);
 
     public HttpURI()
@@ -129,11 +143,52 @@ public class HttpURI
         parse2(raw,offset,length);
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Parse the URI in a buffer, such as the view of the request line. The bytes of
+     * an immutable buffer are parsed where they are. Those of other buffers are copied
+     * into an array kept by this URI, as the parser compacts its buffer while the
+     * request is handled.
+     */
+    public void parse(Buffer raw)
+    {
+        _rawString=null;
+        byte[] array=raw.array();
+        if (array!=null && raw.isImmutable())
+            parse2(array,raw.getIndex(),raw.length());
+        else
+            parse2(copy(raw),0,raw.length());
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Parse the authority of a CONNECT in a buffer, as {@link #parse(Buffer)}
+     */
+    public void parseConnect(Buffer raw)
+    {
+        byte[] array=raw.array();
+        if (array!=null && raw.isImmutable())
+            parseConnect(array,raw.getIndex(),raw.length());
+        else
+            parseConnect(copy(raw),0,raw.length());
+    }
+
+    /* ------------------------------------------------------------ */
+    private byte[] copy(Buffer raw)
+    {
+        int length=raw.length();
+        if (_copy.length<length)
+            _copy=new byte[Math.max(length,128)];
+        raw.peek(raw.getIndex(),_copy,0,length);
+        return _copy;
+    }
+
 
     public void parseConnect(byte[] raw,int offset, int length)
     {
         _rawString=null;
         _encoded=false;
+        resetStrings();
         _raw=raw;
         int i=offset;
         int e=offset+length;
@@ -205,6 +260,7 @@ public class HttpURI
     private void parse2(byte[] raw,int offset, int length)
     {
         _encoded=false;
+        resetStrings();
         _raw=raw;
         int i=offset;
         int e=offset+length;
@@ -497,6 +553,14 @@ public class HttpURI
             _portValue=TypeUtil.parseInt(_raw, _port+1, _path-_port-1,10);
     }
 
+    private void resetStrings()
+    {
+        _pathString=null;
+        _decodedPath=null;
+        _pathAndParam=null;
+        _queryString=null;
+    }
+
     private String toUtf8String(int offset,int length)
     {
         _utf8b.reset();
@@ -549,30 +613,36 @@ public class HttpURI
     {
         if (_path==_param)
             return null;
-        return toUtf8String(_path,_param-_path);
+        if (_pathString==null)
+            _pathString=toUtf8String(_path,_param-_path);
+        return _pathString;
     }
 
     public String getDecodedPath()
     {
         if (_path==_param)
             return null;
+        if (_decodedPath!=null)
+            return _decodedPath;
+
+        // without a % the decoded path is the path
+        int i=_path;
+        while (i<_param && _raw[i]!='%')
+            i++;
+        if (i==_param)
+        {
+            _decodedPath=getPath();
+            return _decodedPath;
+        }
 
-        int length = _param-_path;
-        boolean decoding=false;
-
-        for (int i=_path;i<_param;i++)
+        _utf8b.reset();
+        _utf8b.append(_raw,_path,i-_path);
+        for (;i<_param;i++)
         {
             byte b = _raw[i];
 
             if (b=='%')
             {
-                if (!decoding)
-                {
-                    _utf8b.reset();
-                    _utf8b.append(_raw,_path,i-_path);
-                    decoding=true;
-                }
-                
                 if ((i+2)>=_param)
                     throw new IllegalArgumentException("Bad % encoding: "+this);
                 if (_raw[i+1]=='u')
@@ -598,15 +668,11 @@ public class HttpURI
                 }
                 continue;
             }
-            else if (decoding)
-            {
-                _utf8b.append(b);
-            }
+            _utf8b.append(b);
         }
 
-        if (!decoding)
-            return toUtf8String(_path,length);
-        return _utf8b.toString();
+        _decodedPath=_utf8b.toString();
+        return _decodedPath;
     }
     
     public String getDecodedPath(String encoding)
@@ -684,7 +750,9 @@ public class HttpURI
     {
         if (_path==_query)
             return null;
-        return toUtf8String(_path,_query-_path);
+        if (_pathAndParam==null)
+            _pathAndParam=toUtf8String(_path,_query-_path);
+        return _pathAndParam;
     }
 
     public String getCompletePath()
@@ -705,7 +773,9 @@ public class HttpURI
     {
         if (_query==_fragment)
             return null;
-        return toUtf8String(_query+1,_fragment-_query-1);
+        if (_queryString==null)
+            _queryString=toUtf8String(_query+1,_fragment-_query-1);
+        return _queryString;
     }
 
     public String getQuery(String encoding)
@@ -753,6 +823,7 @@ public class HttpURI
         _raw=__empty;
         _rawString="";
         _encoded=false;
+        resetStrings();
     }
 
     @Override
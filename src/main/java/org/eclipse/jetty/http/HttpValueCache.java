@@ -0,0 +1,205 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2016 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.eclipse.jetty.util.StringUtil;
+
+/* ------------------------------------------------------------ */
+/** Bounded cache of header value buffers.
+ * <p>
+ * Used by {@link HttpFields} to convert String values set by the application.
+ * A value is only admitted on the second miss for it within a short window, so
+ * values that are only ever seen once, such as request IDs and timestamps, do
+ * not displace the values that are set on every response. When full, an entry
+ * is evicted with the CLOCK algorithm: each hit marks its entry, and the hand
+ * passes over marked entries, clearing their mark, until it finds one that has
+ * not been hit since it last passed.
+ * </p>
+ * <p>
+ * Hits only read the map and set the mark, and take no lock. Admission and
+ * eviction are synchronized, as they are rare once the hot values are cached.
+ * </p>
+ */
+public class HttpValueCache
+{
+    private final int _capacity;
+    private final ConcurrentMap<String, Entry> _map;
+    private final Entry[] _clock;
+    private int _hand;
+
+    // Hashes of values that missed once. Racy, a lost or false entry only delays or hastens an admission.
+    private final int[] _seen;
+
+    private final LongAdder _hits=new LongAdder();
+    private final LongAdder _misses=new LongAdder();
+    private final LongAdder _evictions=new LongAdder();
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param capacity The maximum number of values cached, or 0 for none
+     */
+    public HttpValueCache(int capacity)
+    {
+        _capacity=Math.max(0,capacity);
+        _map=new ConcurrentHashMap<String, Entry>(_capacity*4/3+1);
+        _clock=new Entry[_capacity];
+        int seen=Integer.highestOneBit(Math.max(1,_capacity)*2);
+        _seen=new int[seen<16?16:seen];
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param value The header value
+     * @return An immutable ISO-8859-1 buffer of the value, cached if the value is
+     * seen often enough
+     */
+    public Buffer lookup(String value)
+    {
+        Entry entry=_map.get(value);
+        if (entry!=null)
+        {
+            if (!entry._hit)
+                entry._hit=true;
+            _hits.increment();
+            return entry._buffer;
+        }
+        _misses.increment();
+
+        Buffer buffer;
+        try
+        {
+            buffer=new ByteArrayBuffer(value,StringUtil.__ISO_8859_1);
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        if (_capacity>0 && admit(value))
+            buffer=add(value,buffer);
+        return buffer;
+    }
+
+    /* ------------------------------------------------------------ */
+    private boolean admit(String value)
+    {
+        // 0 marks an empty slot. Only remap 0, as or-ing in a bit would pair up
+        // sequential values such as request IDs and admit them on their first miss.
+        int hash=value.hashCode();
+        if (hash==0)
+            hash=1;
+        int i=(hash^(hash>>>16))&(_seen.length-1);
+        if (_seen[i]==hash)
+        {
+            _seen[i]=0;
+            return true;
+        }
+        _seen[i]=hash;
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    private synchronized Buffer add(String value, Buffer buffer)
+    {
+        Entry entry=_map.get(value);
+        if (entry!=null)
+            return entry._buffer;
+
+        while (true)
+        {
+            Entry victim=_clock[_hand];
+            if (victim==null)
+                break;
+            if (victim._hit)
+            {
+                victim._hit=false;
+                _hand=(_hand+1)%_capacity;
+                continue;
+            }
+            _map.remove(victim._value,victim);
+            _evictions.increment();
+            break;
+        }
+
+        entry=new Entry(value,buffer);
+        _clock[_hand]=entry;
+        _hand=(_hand+1)%_capacity;
+        _map.put(value,entry);
+        return buffer;
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getCapacity()
+    {
+        return _capacity;
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getSize()
+    {
+        return _map.size();
+    }
+
+    /* ------------------------------------------------------------ */
+    public long getHits()
+    {
+        return _hits.sum();
+    }
+
+    /* ------------------------------------------------------------ */
+    public long getMisses()
+    {
+        return _misses.sum();
+    }
+
+    /* ------------------------------------------------------------ */
+    public long getEvictions()
+    {
+        return _evictions.sum();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return "HttpValueCache{size="+getSize()+"/"+_capacity+",hits="+getHits()+",misses="+getMisses()+",evictions="+getEvictions()+"}";
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static final class Entry
+    {
+        final String _value;
+        final Buffer _buffer;
+        volatile boolean _hit;
+
+        Entry(String value, Buffer buffer)
+        {
+            _value=value;
+            _buffer=buffer;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2016 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.BufferUtil;
+import org.eclipse.jetty.io.View;
+
+/* ------------------------------------------------------------ */
+/** Tokenizer of comma separated header values, such as <code>Accept</code>,
+ * <code>Accept-Encoding</code> and <code>Accept-Language</code>.
+ * <p>
+ * The tokenizer is a cursor over the bytes of the value. Each call to {@link #next()}
+ * moves to the next element, skipping empty ones. Commas within quotes do not separate
+ * elements. The value of the element, without its parameters, is given as a
+ * {@link View} that is reused for every element, and its <code>q</code> parameter is
+ * parsed as an int in thousandths, so no Strings are created.
+ * </p>
+ * <p>
+ * {@link #qualityList(Buffer)} keeps the quality sorted values of the last few header
+ * values it was given, as clients send the same few values on every request.
+ * </p>
+ */
+public class HttpValueTokenizer
+{
+    public static final int MAX_QUALITY=1000;
+
+    private static final int CACHE_SIZE=32; // a power of 2
+    private static final int MAX_CACHED=256;
+    private static final Parsed[] __parsed=new Parsed[CACHE_SIZE];
+
+    private final View _view=new View();
+    private Buffer _buffer;
+    private int _index;
+    private int _end;
+    private int _quality;
+
+    /* ------------------------------------------------------------ */
+    public HttpValueTokenizer()
+    {
+    }
+
+    /* ------------------------------------------------------------ */
+    public HttpValueTokenizer(Buffer value)
+    {
+        reset(value);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param value The header value to tokenize, which must not change while it is tokenized
+     */
+    public void reset(Buffer value)
+    {
+        _buffer=value;
+        _index=value.getIndex();
+        _end=value.putIndex();
+        _quality=0;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Move to the next element.
+     * @return true if there is one
+     */
+    public boolean next()
+    {
+        while (_index<_end)
+        {
+            byte b=_buffer.peek(_index);
+            if (b==',' || b==' ' || b=='\t')
+            {
+                _index++;
+                continue;
+            }
+
+            // the value ends at the first ';', the element at the first ',', outside of quotes
+            int start=_index;
+            int value=-1;
+            boolean quoted=false;
+            for (;_index<_end;_index++)
+            {
+                b=_buffer.peek(_index);
+                if (quoted)
+                {
+                    if (b=='\\' && _index+1<_end) // a trailing escape ends the unterminated quote
+                        _index++;
+                    else if (b=='"')
+                        quoted=false;
+                }
+                else if (b=='"')
+                    quoted=true;
+                else if (b==',')
+                    break;
+                else if (b==';' && value<0)
+                    value=_index;
+            }
+            int end=_index;
+            if (value<0)
+                value=end;
+
+            _quality=value<end?quality(value,end):MAX_QUALITY;
+
+            while (value>start && isSpace(_buffer.peek(value-1)))
+                value--;
+            if (value==start)
+                continue;
+
+            _view.update(_buffer);
+            _view.update(start,value);
+            return true;
+        }
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The value of the current element, without its parameters. The view is
+     * only valid until the next call to {@link #next()} or {@link #reset(Buffer)}.
+     */
+    public Buffer getValue()
+    {
+        return _view;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The <code>q</code> parameter of the current element in thousandths, from 0
+     * to {@link #MAX_QUALITY}. An element without a valid one has the maximum quality.
+     */
+    public int getQuality()
+    {
+        return _quality;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param value A value of US-ASCII characters
+     * @return true if the value of the current element is the value, ignoring case
+     */
+    public boolean isValue(String value)
+    {
+        int start=_view.getIndex();
+        int length=value.length();
+        if (_view.putIndex()-start!=length)
+            return false;
+        for (int i=0;i<length;i++)
+        {
+            int b=_view.peek(start+i);
+            int c=value.charAt(i);
+            if (b!=c && ((b|0x20)!=(c|0x20) || (c|0x20)<'a' || (c|0x20)>'z'))
+                return false;
+        }
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* Parse the q parameter from the parameters between start, a ';', and end */
+    private int quality(int start, int end)
+    {
+        int i=start;
+        while (i<end)
+        {
+            // skip the ';' and spaces before the name
+            i++;
+            while (i<end && isSpace(_buffer.peek(i)))
+                i++;
+            if (i+1<end && (_buffer.peek(i)|0x20)=='q')
+            {
+                int j=i+1;
+                while (j<end && isSpace(_buffer.peek(j)))
+                    j++;
+                if (j<end && _buffer.peek(j)=='=')
+                {
+                    j++;
+                    while (j<end && isSpace(_buffer.peek(j)))
+                        j++;
+                    return parseQuality(j,end);
+                }
+            }
+            while (i<end && _buffer.peek(i)!=';')
+                i++;
+        }
+        return MAX_QUALITY;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* Parse a qvalue, 0 to 1 with up to 3 decimals. Further decimals are ignored. */
+    private int parseQuality(int i, int end)
+    {
+        int q=0;
+        int unit=MAX_QUALITY;
+        boolean point=false;
+        boolean digits=false;
+        for (;i<end;i++)
+        {
+            byte b=_buffer.peek(i);
+            if (b>='0' && b<='9')
+            {
+                digits=true;
+                if (!point)
+                    q=q*10+(b-'0')*MAX_QUALITY;
+                else if (unit>1)
+                {
+                    unit/=10;
+                    q+=(b-'0')*unit;
+                }
+            }
+            else if (b=='.' && !point)
+                point=true;
+            else if (b==';' || isSpace(b))
+                break;
+            else
+                return MAX_QUALITY;
+            if (q>MAX_QUALITY)
+                return MAX_QUALITY;
+        }
+        return digits?q:MAX_QUALITY;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static boolean isSpace(byte b)
+    {
+        return b==' ' || b=='\t';
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param value A comma separated header value
+     * @return The values of the elements with a non zero quality, without their parameters,
+     * in order of quality. Elements of equal quality keep their order. The list is immutable.
+     */
+    public static List<String> qualityList(Buffer value)
+    {
+        int length=value.length();
+        if (length>MAX_CACHED)
+            return parse(value);
+
+        int start=value.getIndex();
+        int hash=0;
+        for (int i=0;i<length;i++)
+            hash=31*hash+value.peek(start+i);
+        int slot=(hash^(hash>>>16))&(CACHE_SIZE-1);
+
+        Parsed parsed=__parsed[slot];
+        if (parsed!=null && parsed.matches(hash,value))
+            return parsed._values;
+
+        List<String> values=parse(value);
+        byte[] text=new byte[length];
+        value.peek(start,text,0,length);
+        __parsed[slot]=new Parsed(hash,text,values);
+        return values;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static List<String> parse(Buffer value)
+    {
+        HttpValueTokenizer tok=new HttpValueTokenizer(value);
+        String[] values=new String[4];
+        int[] qualities=new int[4];
+        int n=0;
+        while (tok.next())
+        {
+            int q=tok.getQuality();
+            if (q==0)
+                continue;
+            if (n==values.length)
+            {
+                values=Arrays.copyOf(values,n*2);
+                qualities=Arrays.copyOf(qualities,n*2);
+            }
+
+            // insertion sort, after the values of the same quality
+            int i=n++;
+            while (i>0 && qualities[i-1]<q)
+            {
+                values[i]=values[i-1];
+                qualities[i]=qualities[i-1];
+                i--;
+            }
+            values[i]=BufferUtil.to8859_1_String(tok.getValue());
+            qualities[i]=q;
+        }
+
+        if (n==0)
+            return Collections.emptyList();
+        if (n==1)
+            return Collections.singletonList(values[0]);
+        return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(values,n)));
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static final class Parsed
+    {
+        final int _hash;
+        final byte[] _text;
+        final List<String> _values;
+
+        Parsed(int hash, byte[] text, List<String> values)
+        {
+            _hash=hash;
+            _text=text;
+            _values=values;
+        }
+
+        boolean matches(int hash, Buffer value)
+        {
+            if (hash!=_hash || value.length()!=_text.length)
+                return false;
+            int start=value.getIndex();
+            for (int i=_text.length;i-->0;)
+            {
+                if (_text[i]!=value.peek(start+i))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
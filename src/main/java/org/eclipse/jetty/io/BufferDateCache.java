@@ -4,10 +4,21 @@ import org.eclipse.jetty.util.DateCache;
 
 import java.text.DateFormatSymbols;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+/**
+ * 无锁的按秒缓存
+ * 1. 当前这一秒格式化好的Buffer放在一个不可变的Tick里，用volatile发布，命中时只是一次volatile读，不加锁；
+ * 2. 未命中(进入了新的一秒)才去调用父类同步的format，每秒一次，再用CAS换上新的Tick，
+ * 并发的线程里只有一个能换上，其他线程直接用自己格式化的结果，不会互相等待；
+ * 3. 比当前缓存更旧的时间戳(比如请求时间戳跨了秒)只格式化不替换，缓存不会来回抖动；
+ * 4. 返回的Buffer是不可变的，可以被多个生成器同时读
+ */
 public class BufferDateCache extends DateCache {
-    Buffer _buffer;
-    String _last;
+    private static final AtomicReferenceFieldUpdater<BufferDateCache, Tick> TICK =
+            AtomicReferenceFieldUpdater.newUpdater(BufferDateCache.class, Tick.class, "_tick");
+
+    private volatile Tick _tick;
 
     public BufferDateCache() {
     }
@@ -24,14 +35,40 @@ public class BufferDateCache extends DateCache {
         super(format);
     }
 
-    public synchronized Buffer formatBuffer(long date) {
-        String d = super.format(date);
-        if (d == this._last) {
-            return this._buffer;
-        } else {
-            this._last = d;
-            this._buffer = new ByteArrayBuffer(d);
-            return this._buffer;
+    public Buffer formatBuffer(long date) {
+        long seconds = date / 1000;
+        Tick tick = this._tick;
+        if (tick != null && tick._seconds == seconds) {
+            return tick._buffer;
+        }
+
+        Tick next = new Tick(seconds, new ByteArrayBuffer(super.format(date)));
+        while (tick == null || seconds > tick._seconds) {
+            if (TICK.compareAndSet(this, tick, next)) {
+                break;
+            }
+            tick = this._tick;
+            if (tick._seconds == seconds) {
+                return tick._buffer;
+            }
+        }
+        return next._buffer;
+    }
+
+    /**
+     * 当前这一秒的Date，不加锁
+     */
+    public Buffer formatBuffer() {
+        return formatBuffer(System.currentTimeMillis());
+    }
+
+    private static final class Tick {
+        final long _seconds;
+        final Buffer _buffer;
+
+        Tick(long seconds, Buffer buffer) {
+            this._seconds = seconds;
+            this._buffer = buffer;
         }
     }
 }
@@ -9,7 +9,7 @@ public class ByteArrayBuffer extends AbstractBuffer{
     // Set a maximum size to a write for the writeTo method, to ensure that very large content is not
     // written as a single write (which may fall foul to write timeouts if consumed slowly).
     final static int MAX_WRITE=Integer.getInteger("org.eclipse.jetty.io.ByteArrayBuffer.MAX_WRITE",128*1024);
-    final protected byte[] _bytes;
+    protected byte[] _bytes;
 
     protected ByteArrayBuffer(int size, int access, boolean isVolatile) {
         this(new byte[size],0,0,access, isVolatile);
@@ -78,6 +78,20 @@ public class ByteArrayBuffer extends AbstractBuffer{
         _string = value;
     }
 
+    /**
+     * 改成包装另一个数组的[index,index+length)，同一个Buffer对象可以反复用来写不同的数组，不用每次都分配
+     * 只能用于不是IMMUTABLE的Buffer，调用者要保证之前包装的内容已经没有人引用了
+     */
+    public void wrap(byte[] bytes, int index, int length) {
+        if (isImmutable()) {
+            throw new IllegalStateException(__IMMUTABLE);
+        }
+        _bytes = bytes;
+        setMarkIndex(-1);
+        setGetIndex(index);
+        setPutIndex(index + length);
+    }
+
     public byte[] array()
     {
         return _bytes;
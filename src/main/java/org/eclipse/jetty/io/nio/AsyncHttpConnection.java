@@ -1,7 +1,9 @@
 package org.eclipse.jetty.io.nio;
 
+import org.eclipse.jetty.http.HttpParser;
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.server.AbstractHttpConnection;
+import org.eclipse.jetty.server.HttpInput;
 
 import java.io.IOException;
 
@@ -46,6 +48,15 @@ public class AsyncHttpConnection extends AbstractHttpConnection {
                     {
                         if (_request._async.isDispatchable())
                             handleRequest();
+                        // 挂起中用ReadListener非阻塞读请求体，数据来了就通知应用，
+                        // 由应用自己去读，这里不解析，免得把请求体先拷贝到解析器的缓冲区
+                        else if (_in instanceof HttpInput && ((HttpInput)_in).isWaiting())
+                            ((HttpInput)_in).dataAvailable();
+
+                        // 挂起中用WriteListener非阻塞写，可写了先把生成器里剩下的写出去，
+                        // 写完了才通知应用接着写，线程不会阻塞在慢客户端上
+                        if (_out!=null && _out.isWriteWaiting() && _out.writePossible())
+                            progress=true;
                     }
                     // else Parse more input
                     else if (!_parser.isComplete() && _parser.parseAvailable())
@@ -56,8 +67,10 @@ public class AsyncHttpConnection extends AbstractHttpConnection {
                         if (_generator.flushBuffer()>0)
                             progress=true;
 
-                    // Flush output
-                    _endp.flush();
+                    // Flush output, unless the response of a pipelined request is being
+                    // held back to be written together with the following ones
+                    if (!_asyncEndp.isCorked())
+                        _endp.flush();
 
                     // Has any IO been done by the endpoint itself since last loop
                     if (_asyncEndp.hasProgressed())
@@ -129,6 +142,21 @@ public class AsyncHttpConnection extends AbstractHttpConnection {
         {
             setCurrentConnection(null);
 
+            // 攒着的流水线响应，离开之前一定要写出去
+            _asyncEndp.setCorked(false);
+            if (_asyncEndp.hasPendingOutput())
+            {
+                try
+                {
+                    _endp.flush();
+                }
+                catch (IOException e)
+                {
+                    LOG.debug(e);
+                    _endp.close();
+                }
+            }
+
             // If we are not suspended
             if (!_request.getAsyncContinuation().isAsyncStarted())
             {
@@ -159,6 +187,30 @@ public class AsyncHttpConnection extends AbstractHttpConnection {
         return connection;
     }
 
+    /**
+     * 流水线请求：这个请求已经完整读完，缓冲区里还有后面的请求，那就先不写这个响应，
+     * 让endpoint攒着，等缓冲区里的请求处理完或者攒满了，再一次gathering write写出去
+     */
+    @Override
+    protected void handleRequest() throws IOException
+    {
+        HttpParser parser = (HttpParser)_parser;
+        _asyncEndp.setCorked(parser.isComplete() && parser.isPersistent() && parser.isMoreInBuffer());
+        try
+        {
+            super.handleRequest();
+        }
+        finally
+        {
+            // 挂起的请求由别的线程来写响应，不能再攒，前面攒着的也先写掉
+            if (_asyncEndp.isCorked() && _request.getAsyncContinuation().isAsyncStarted())
+            {
+                _asyncEndp.setCorked(false);
+                _endp.flush();
+            }
+        }
+    }
+
     public void onInputShutdown() throws IOException
     {
         // If we don't have a committed response and we are not suspended
@@ -184,7 +236,31 @@ public class AsyncHttpConnection extends AbstractHttpConnection {
     @Override
     public boolean isSuspended()
     {
+        // 非阻塞读请求体，只有应用在等数据(isReady返回过false)才关注OP_READ，
+        // 应用不读的时候就不从网络读，让TCP窗口把压力传回客户端
+        if (_in instanceof HttpInput && ((HttpInput)_in).isAsync())
+            return !((HttpInput)_in).isWaiting();
         return !_readInterested || super.isSuspended();
     }
 
+    @Override
+    protected void contentWanted()
+    {
+        _asyncEndp.readInterestChanged();
+    }
+
+    /**
+     * 应用在等可写(非阻塞写isReady返回了false)，需要关注OP_WRITE
+     */
+    public boolean isWriteWaiting()
+    {
+        return _out!=null && _out.isWriteWaiting();
+    }
+
+    @Override
+    protected void writeWanted()
+    {
+        _asyncEndp.writeInterestChanged();
+    }
+
 }
@@ -23,6 +23,7 @@ public class ChannelEndPoint implements EndPoint {
     protected final Socket socket; //如果是SocketChannel，那就肯定有一个socket连接
 
     protected final ByteBuffer[] _gather2 = new ByteBuffer[2]; //为了可以批量写入
+    private ByteBuffer _fillWrap; //调用方数组的包装，数组不变就一直复用
 
     //解析地址的对象
     protected final InetSocketAddress local;
@@ -119,21 +120,35 @@ public class ChannelEndPoint implements EndPoint {
         }
 
         Buffer buf = buffer.buffer();
-        if(buf instanceof NIOBuffer){
-            NIOBuffer nioBuffer = (NIOBuffer)buf;
-            ByteBuffer byteBuffer = nioBuffer.getByteBuffer();
-
+        if(buf instanceof NIOBuffer || buffer.array() != null){
             int len = -1;
             try {
-                //真正和socket交互读取数据还是用jdk提供的HeapByteBuffer；
-                //而之后，还是利用jetty包装的类ByteBuffer进行操作
-                synchronized (byteBuffer){
-                    try {
-                        byteBuffer.position(nioBuffer.putIndex());
-                        len = channel.read(byteBuffer); //读取字节数组到缓冲区中
-                    } finally {
-                        buffer.setPutIndex(byteBuffer.position()); //当前放入的位置
-                        byteBuffer.position(0); //设置为0？是清理吗
+                if(buf instanceof NIOBuffer){
+                    NIOBuffer nioBuffer = (NIOBuffer)buf;
+                    ByteBuffer byteBuffer = nioBuffer.getByteBuffer();
+                    //真正和socket交互读取数据还是用jdk提供的HeapByteBuffer；
+                    //而之后，还是利用jetty包装的类ByteBuffer进行操作
+                    synchronized (byteBuffer){
+                        try {
+                            byteBuffer.position(nioBuffer.putIndex());
+                            len = channel.read(byteBuffer); //读取字节数组到缓冲区中
+                        } finally {
+                            buffer.setPutIndex(byteBuffer.position()); //当前放入的位置
+                            byteBuffer.position(0); //设置为0？是清理吗
+                        }
+                    }
+                }else {
+                    //普通数组的Buffer(比如调用方自己的数组)，只包[putIndex,capacity)这一段直接读进去
+                    byte[] array = buffer.array();
+                    ByteBuffer byteBuffer = _fillWrap;
+                    if(byteBuffer == null || byteBuffer.array() != array){
+                        _fillWrap = byteBuffer = ByteBuffer.wrap(array);
+                    }
+                    byteBuffer.limit(buffer.capacity());
+                    byteBuffer.position(buffer.putIndex());
+                    len = channel.read(byteBuffer);
+                    if(len > 0){
+                        buffer.setPutIndex(byteBuffer.position());
                     }
                 }
 
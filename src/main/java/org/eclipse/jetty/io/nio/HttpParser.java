@@ -1,152 +1,646 @@
 package org.eclipse.jetty.io.nio;
 
-import java.nio.ByteBuffer;
+import org.eclipse.jetty.http.HttpException;
+import org.eclipse.jetty.http.HttpParser.EventHandler;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.HttpTokens;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.Buffers;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.View;
+
+import java.io.IOException;
 
 /**
- * http解析器
+ * http解析器(NIO连接器热路径上用的那个)
+ * 1. 可恢复：状态和各个token的起止位置都记在字段里，一个请求被拆成多次read也能从上次停下的地方接着解析；
+ * 2. 不分配：直接在池化的header Buffer上解析，method/uri/version/header/content都是指向这个Buffer的View，
+ * 不拷贝字节，也不创建新的ByteBuffer；
+ * 3. 支持pipeline：一个请求结束之后，Buffer里剩下的字节留着，reset之后接着解析下一个请求；
+ * 4. 回调用的是{@link org.eclipse.jetty.http.HttpParser.EventHandler}，和http.HttpParser保持兼容。
+ * 回调里拿到的View只在回调期间有效，需要保存的话handler自己拷贝(和http.HttpParser的约定一样)。
+ *
+ * 和http.HttpParser相比做了简化：只解析请求，不支持HTTP/0.9和头部折行(obs-fold，直接400)
+ *
+ * 字节对应表：
+ * <32和127 - 控制字符 13-回车键 10 换行键
+ * 32 - 空格 58 - 冒号
  */
 public class HttpParser {
-    private int state = -14;
+    //头部状态<0，内容状态>0，命名沿用http.HttpParser
+    public static final int STATE_START=-9;
+    public static final int STATE_METHOD=-8;
+    public static final int STATE_SPACE1=-7;
+    public static final int STATE_URI=-6;
+    public static final int STATE_SPACE2=-5;
+    public static final int STATE_VERSION=-4;
+    public static final int STATE_HEADER=-3; //一行header的开头
+    public static final int STATE_HEADER_NAME=-2;
+    public static final int STATE_HEADER_VALUE=-1;
+    public static final int STATE_END=0;
+    public static final int STATE_CONTENT=1;
+    public static final int STATE_CHUNK_SIZE=2;
+    public static final int STATE_CHUNK_PARAMS=3;
+    public static final int STATE_CHUNK=4;
+    public static final int STATE_CHUNK_END=5; //chunk数据后面的CRLF
+    public static final int STATE_TRAILER=6;
+
+    private static final byte[] CONTENT_LENGTH = lower("content-length");
+    private static final byte[] TRANSFER_ENCODING = lower("transfer-encoding");
+    private static final byte[] CONNECTION = lower("connection");
+    private static final byte[] CHUNKED = lower("chunked");
+    private static final byte[] CLOSE = lower("close");
+    private static final byte[] KEEP_ALIVE = lower("keep-alive");
+    private static final byte[] HTTP_1_1 = lower("http/1.1");
+
+    private final Buffers _buffers;
+    private final EndPoint _endp;
+    private final EventHandler _handler;
+    private Buffer _header; //从池子里借的，没有内容的时候归还
+
+    //token，都是指向_header的View，一直复用
+    private final View.CaseInsensitive _method = new View.CaseInsensitive();
+    private final View.CaseInsensitive _uri = new View.CaseInsensitive();
+    private final View.CaseInsensitive _version = new View.CaseInsensitive();
+    private final View.CaseInsensitive _name = new View.CaseInsensitive();
+    private final View.CaseInsensitive _value = new View.CaseInsensitive();
+    private final View _contentView = new View();
+
+    private int _state = STATE_START;
+    private byte _eol; //上一个结束符，CR的话下一个字节必须是LF
+    private boolean _persistent;
+
+    //当前请求在_header中的位置，buffer满了要压缩的时候统一平移
+    private int _start;
+    private int _methodStart, _methodEnd;
+    private int _uriStart, _uriEnd;
+    private int _versionStart, _versionEnd;
+    private int _nameStart, _nameEnd;
+    private int _valueStart = -1, _valueEnd;
+
+    private long _contentLength;
     private long _contentPosition;
-    SelectChannelEndPoint endPoint; //需要端点来获取Socket
+    private int _chunkLength;
+    private int _chunkPosition;
+    private boolean _chunked;
+    private int _length; //trailer当前行的长度
+
+    public HttpParser(Buffers buffers, EndPoint endp, EventHandler handler) {
+        _buffers = buffers;
+        _endp = endp;
+        _handler = handler;
+    }
+
+    private static byte[] lower(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte)s.charAt(i);
+        }
+        return b;
+    }
+
+    public int getState() {
+        return _state;
+    }
+
+    public boolean isIdle() {
+        return _state == STATE_START;
+    }
 
-    public HttpParser(SelectChannelEndPoint endPoint) {
-        this.endPoint = endPoint;
+    public boolean isComplete() {
+        return _state == STATE_END;
     }
 
-    public boolean isComplete(){
-        return state == 0;
+    public boolean isPersistent() {
+        return _persistent;
     }
 
-    public boolean parseAvailable(){
-        boolean progress = false;
-        parseNext();
+    public void setPersistent(boolean persistent) {
+        _persistent = persistent;
+    }
 
+    public long getContentLength() {
+        return _contentLength;
+    }
+
+    public boolean isChunking() {
+        return _chunked;
+    }
+
+    /**
+     * buffer里是否还有没解析的字节，pipeline的时候就是下一个请求
+     */
+    public boolean isMoreInBuffer() {
+        return _header != null && _header.hasContent();
+    }
+
+    public Buffer getHeaderBuffer() {
+        if (_header == null) {
+            _header = _buffers.getHeader();
+            _method.update(_header);
+            _uri.update(_header);
+            _version.update(_header);
+            _name.update(_header);
+            _value.update(_header);
+        }
+        return _header;
+    }
+
+    /**
+     * 一直解析到buffer里没有可用数据，或者请求解析完
+     */
+    public boolean parseAvailable() throws IOException {
+        boolean progress = parseNext() > 0;
+        while (!isComplete() && _header != null && _header.length() > 0) {
+            progress |= parseNext() > 0;
+        }
         return progress;
     }
 
     /**
-     * 0-成功
-     * 字节对应表：
-     * <32和127 - 控制字符 13-回车键 10 换行键
-     * 32 - 空格
-     * 47 - 斜杠
-     * 65~90 - A~Z
-     * 97~122 - a~z
-     * 示例
-     * POST / HTTP/1.1
-     * Content-Length: 0
-     * Host: 127.0.0.1:8093
-     * Connection: Keep-Alive
-     * User-Agent: Apache-HttpClient/4.5.5 (Java/1.8.0_191)
-     * Accept-Encoding: gzip,deflate
+     * 解析直到下一个事件
+     * @return <0 EOF, 0 没有进展, >0 有进展
+     */
+    public int parseNext() throws IOException {
+        try {
+            if (_state == STATE_END) {
+                return 0;
+            }
+            getHeaderBuffer();
+
+            int progress = 0;
+            if (_header.length() == 0) {
+                int filled = fill();
+                if (filled < 0) {
+                    return eof();
+                }
+                if (filled == 0) {
+                    return 0;
+                }
+                progress++;
+            }
+
+            if (_state < STATE_END && parseHeaders()) {
+                progress++;
+            }
+            if (_state > STATE_END && parseContent()) {
+                progress++;
+            }
+            return progress;
+        } catch (HttpException e) {
+            _persistent = false;
+            _state = STATE_END;
+            throw e;
+        }
+    }
+
+    /**
+     * 解析请求行和头部，直接按下标扫描，最后统一更新getIndex
+     * @return 是否触发了事件
      */
-    public int parseNext(){
-        if(state == 0){
-            return 0;
-        }
-        ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
-        endPoint.read(byteBuffer);
-        byteBuffer.flip();
-        byte[] b = byteBuffer.array();
-        int len = b.length;
-
-        //打印
-        System.out.println(new String(b));
-
-        int getIndex = 0;
-        int readIndex = 0;
-        while (getIndex<len&&len-->0&&state<0){
-            byte ch = b[getIndex];
-            switch (state){
-                case -14:
-                    if(ch > 32 || ch < 0){ //跳过所有的控制字符
-                        byteBuffer.mark();
-                        state = -13;
+    private boolean parseHeaders() throws IOException {
+        boolean event = false;
+        byte[] array = _header.array();
+        int i = _header.getIndex();
+        int end = _header.putIndex();
+        try {
+            while (i < end && _state < STATE_END) {
+                byte ch = array != null ? array[i] : _header.peek(i);
+                i++;
+
+                if (_eol == HttpTokens.CARRIAGE_RETURN) {
+                    _eol = 0;
+                    if (ch == HttpTokens.LINE_FEED) {
+                        continue;
                     }
-                    break;
-                case -13: //解析http method
-                    if(ch == 32){ //遇到空格，说明以及解析出请求方式了是GET还是POST或者其
-                        byte[] tmp = new byte[getIndex - readIndex];
-                        System.arraycopy(b, readIndex, tmp, 0, tmp.length);
-                        readIndex = getIndex+1;
-                        System.out.println("http method:" + new String(tmp));
-                        state = -12;
-                    }else if(ch < 32 && ch >= 0){ //出现控制字符
-                        System.out.println("error byte is controller char");
-                        return 0;
+                    if (_state != STATE_START) {
+                        throw new HttpException(HttpStatus.BAD_REQUEST_400);
                     }
-                    break;
-                case -12:
-                    if(ch < 32 && ch >= 0){
-                        System.out.println("error byte is controller char");
-                        return 0;
-                    }else{
-                        byteBuffer.mark();
-                        state = -10;
+                }
+                _eol = 0;
+
+                switch (_state) {
+                    case STATE_START:
+                        //跳过请求之间多余的CRLF
+                        if (ch > HttpTokens.SPACE || ch < 0) {
+                            _start = _methodStart = i - 1;
+                            _contentLength = 0;
+                            _contentPosition = 0;
+                            _chunked = false;
+                            _state = STATE_METHOD;
+                        }
+                        break;
+
+                    case STATE_METHOD:
+                        if (ch == HttpTokens.SPACE) {
+                            _methodEnd = i - 1;
+                            _state = STATE_SPACE1;
+                        } else if (ch < HttpTokens.SPACE && ch >= 0) {
+                            throw new HttpException(HttpStatus.BAD_REQUEST_400);
+                        }
+                        break;
+
+                    case STATE_SPACE1:
+                        if (ch > HttpTokens.SPACE || ch < 0) {
+                            _uriStart = i - 1;
+                            _state = STATE_URI;
+                        } else if (ch != HttpTokens.SPACE) {
+                            throw new HttpException(HttpStatus.BAD_REQUEST_400);
+                        }
+                        break;
+
+                    case STATE_URI:
+                        if (ch == HttpTokens.SPACE) {
+                            _uriEnd = i - 1;
+                            _state = STATE_SPACE2;
+                        } else if (ch < HttpTokens.SPACE && ch >= 0) { //HTTP/0.9不支持
+                            throw new HttpException(HttpStatus.BAD_REQUEST_400);
+                        }
+                        break;
+
+                    case STATE_SPACE2:
+                        if (ch > HttpTokens.SPACE || ch < 0) {
+                            _versionStart = i - 1;
+                            _state = STATE_VERSION;
+                        } else if (ch != HttpTokens.SPACE) {
+                            throw new HttpException(HttpStatus.BAD_REQUEST_400);
+                        }
+                        break;
+
+                    case STATE_VERSION:
+                        if (ch == HttpTokens.CARRIAGE_RETURN || ch == HttpTokens.LINE_FEED) {
+                            _versionEnd = i - 1;
+                            _eol = ch;
+                            _persistent = matches(_versionStart, _versionEnd, HTTP_1_1);
+                            _method.update(_methodStart, _methodEnd);
+                            _uri.update(_uriStart, _uriEnd);
+                            _version.update(_versionStart, _versionEnd);
+                            _state = STATE_HEADER;
+                            event = true;
+                            _handler.startRequest(_method, _uri, _version);
+                        } else if (ch < HttpTokens.SPACE && ch >= 0) {
+                            throw new HttpException(HttpStatus.BAD_REQUEST_400);
+                        }
+                        break;
+
+                    case STATE_HEADER:
+                        if (ch == HttpTokens.CARRIAGE_RETURN || ch == HttpTokens.LINE_FEED) {
+                            //空行，头部结束
+                            _eol = ch;
+                            event = true;
+                            i = headerComplete(i);
+                        } else if (ch == HttpTokens.SPACE || ch == HttpTokens.TAB || ch == HttpTokens.COLON) {
+                            throw new HttpException(HttpStatus.BAD_REQUEST_400);
+                        } else {
+                            _nameStart = i - 1;
+                            _state = STATE_HEADER_NAME;
+                        }
+                        break;
+
+                    case STATE_HEADER_NAME:
+                        if (ch == HttpTokens.COLON) {
+                            _nameEnd = i - 1;
+                            _valueStart = -1;
+                            _state = STATE_HEADER_VALUE;
+                        } else if (ch <= HttpTokens.SPACE && ch >= 0) { //名字和冒号之间不允许有空白
+                            throw new HttpException(HttpStatus.BAD_REQUEST_400);
+                        }
+                        break;
+
+                    case STATE_HEADER_VALUE:
+                        if (ch == HttpTokens.CARRIAGE_RETURN || ch == HttpTokens.LINE_FEED) {
+                            _eol = ch;
+                            if (_valueStart < 0) {
+                                _valueStart = _valueEnd = i - 1;
+                            }
+                            event = true;
+                            parsedHeader();
+                            _state = STATE_HEADER;
+                        } else if (ch != HttpTokens.SPACE && ch != HttpTokens.TAB) {
+                            //前后的空白都不算在值里
+                            if (_valueStart < 0) {
+                                _valueStart = i - 1;
+                            }
+                            _valueEnd = i;
+                        }
+                        break;
+                }
+            }
+        } finally {
+            _header.setGetIndex(i);
+        }
+        return event;
+    }
+
+    private void parsedHeader() throws IOException {
+        _name.update(_nameStart, _nameEnd);
+        _value.update(_valueStart, _valueEnd);
+
+        int length = _nameEnd - _nameStart;
+        if (length == CONTENT_LENGTH.length && matches(_nameStart, _nameEnd, CONTENT_LENGTH)) {
+            if (!_chunked) {
+                _contentLength = toLong(_valueStart, _valueEnd);
+            }
+        } else if (length == TRANSFER_ENCODING.length && matches(_nameStart, _nameEnd, TRANSFER_ENCODING)) {
+            //chunked必须是最后一个编码
+            int vl = _valueEnd - _valueStart;
+            if (vl >= CHUNKED.length && matches(_valueEnd - CHUNKED.length, _valueEnd, CHUNKED)) {
+                _chunked = true;
+            } else {
+                throw new HttpException(HttpStatus.NOT_IMPLEMENTED_501);
+            }
+        } else if (length == CONNECTION.length && matches(_nameStart, _nameEnd, CONNECTION)) {
+            if (hasToken(_valueStart, _valueEnd, CLOSE)) {
+                _persistent = false;
+            } else if (hasToken(_valueStart, _valueEnd, KEEP_ALIVE)) {
+                _persistent = true;
+            }
+        }
+
+        _handler.parsedHeader(_name, _value);
+    }
+
+    /**
+     * 头部结束，决定后面按什么方式读内容
+     * @return 新的扫描位置
+     */
+    private int headerComplete(int i) throws IOException {
+        _header.setGetIndex(i);
+        //空行是CRLF的话把LF也吃掉，否则没有请求体的请求结束后LF还留在缓冲区里，
+        //isMoreInBuffer会误以为有流水线请求，缓冲区也就一直还不回去
+        if (_eol == HttpTokens.CARRIAGE_RETURN && _header.hasContent() && _header.peek() == HttpTokens.LINE_FEED) {
+            _eol = _header.get();
+        }
+        if (_chunked) {
+            _chunkLength = 0;
+            _state = STATE_CHUNK_SIZE;
+            _handler.headerComplete();
+        } else if (_contentLength > 0) {
+            _state = STATE_CONTENT;
+            _handler.headerComplete();
+        } else {
+            _state = STATE_END;
+            _handler.headerComplete();
+            _handler.messageComplete(_contentPosition);
+        }
+        return _header.getIndex();
+    }
+
+    /**
+     * 解析内容，每次只交付一段View，handler消费完了再继续
+     * @return 是否触发了事件
+     */
+    private boolean parseContent() throws IOException {
+        while (_state > STATE_END && _header.length() > 0) {
+            //上一个结束符是CR的话，吃掉后面的LF
+            if (_eol == HttpTokens.CARRIAGE_RETURN && _header.peek() == HttpTokens.LINE_FEED) {
+                _header.get();
+                _eol = HttpTokens.LINE_FEED;
+                continue;
+            }
+            _eol = 0;
+
+            byte ch;
+            switch (_state) {
+                case STATE_CONTENT: {
+                    long remaining = _contentLength - _contentPosition;
+                    int length = _header.length();
+                    if (length > remaining) {
+                        length = (int)remaining;
                     }
-                    break;
-                case -10:
-                    if(ch == 32){ //遇到下一个空格，说明以及遍历完了uri
-                        byte[] tmp = new byte[getIndex - readIndex];
-                        System.arraycopy(b, readIndex, tmp, 0, tmp.length);
-                        readIndex = getIndex+1;
-                        System.out.println("uri:" + new String(tmp));
-                        state = -9;
+                    content(length);
+                    if (_contentPosition == _contentLength) {
+                        _state = STATE_END;
+                        _handler.messageComplete(_contentPosition);
+                    }
+                    return true;
+                }
+
+                case STATE_CHUNK_SIZE:
+                    ch = _header.get();
+                    if (ch == HttpTokens.CARRIAGE_RETURN || ch == HttpTokens.LINE_FEED) {
+                        _eol = ch;
+                        chunkSizeComplete();
+                    } else if (ch == HttpTokens.SEMI_COLON || ch == HttpTokens.SPACE || ch == HttpTokens.TAB) {
+                        _state = STATE_CHUNK_PARAMS;
+                    } else {
+                        int digit = hex(ch);
+                        if (digit < 0 || _chunkLength > (Integer.MAX_VALUE >> 4)) {
+                            throw new HttpException(HttpStatus.BAD_REQUEST_400);
+                        }
+                        _chunkLength = (_chunkLength << 4) + digit;
                     }
                     break;
-                case -9:
-                    if (ch==13 || ch==10) {
-                        byte[] tmp = new byte[getIndex - readIndex];
-                        System.arraycopy(b, readIndex, tmp, 0, tmp.length);
-                        readIndex = getIndex+1;
-                        System.out.println("version:" + new String(tmp));
-                        state = -6;
+
+                case STATE_CHUNK_PARAMS:
+                    ch = _header.get();
+                    if (ch == HttpTokens.CARRIAGE_RETURN || ch == HttpTokens.LINE_FEED) {
+                        _eol = ch;
+                        chunkSizeComplete();
                     }
                     break;
-                case -6:
-                    int count = 1;
-                    while(ch<=32 && ch>=0){
-                        if(count == 3){
-                            break;
-                        }
-                        count++;
-                        readIndex++;
-                        ch = b[++getIndex];
+
+                case STATE_CHUNK: {
+                    int remaining = _chunkLength - _chunkPosition;
+                    int length = _header.length();
+                    if (length > remaining) {
+                        length = remaining;
                     }
-                    if(count == 3){
-                        readIndex++;
-                        state = -4;
-                        break;
+                    content(length);
+                    _chunkPosition += length;
+                    if (_chunkPosition == _chunkLength) {
+                        _state = STATE_CHUNK_END;
                     }
-                    state = -5;
-                    //heade5
-
+                    return true;
+                }
 
-                    break;
-                case -5:
-                    if (ch==13 || ch==10) {
-                        byte[] tmp = new byte[getIndex - readIndex];
-                        System.arraycopy(b, readIndex, tmp, 0, tmp.length);
-                        readIndex = getIndex+1;
-                        System.out.println(new String(tmp));
-                        state = -6;
+                case STATE_CHUNK_END:
+                    ch = _header.get();
+                    if (ch == HttpTokens.CARRIAGE_RETURN || ch == HttpTokens.LINE_FEED) {
+                        _eol = ch;
+                        _chunkLength = 0;
+                        _state = STATE_CHUNK_SIZE;
+                    } else {
+                        throw new HttpException(HttpStatus.BAD_REQUEST_400);
                     }
                     break;
-                case -4:
-                    if (ch<=32 && ch>=0) {
-                        byte[] tmp = new byte[getIndex - readIndex];
-                        System.arraycopy(b, readIndex, tmp, 0, tmp.length);
-                        readIndex = getIndex+1;
-                        System.out.println(new String(tmp));
-                        state = -3;
-                        break;
+
+                case STATE_TRAILER:
+                    //trailer直接丢掉，遇到空行就结束
+                    ch = _header.get();
+                    if (ch == HttpTokens.CARRIAGE_RETURN || ch == HttpTokens.LINE_FEED) {
+                        _eol = ch;
+                        if (_length == 0) {
+                            //和头部结束一样，把空行的LF也吃掉
+                            if (_eol == HttpTokens.CARRIAGE_RETURN && _header.hasContent() && _header.peek() == HttpTokens.LINE_FEED) {
+                                _eol = _header.get();
+                            }
+                            _state = STATE_END;
+                            _handler.messageComplete(_contentPosition);
+                            return true;
+                        }
+                        _length = 0;
+                    } else {
+                        _length++;
                     }
-                default: break;
+                    break;
             }
-            getIndex++;
         }
+        return false;
+    }
+
+    private void chunkSizeComplete() {
+        if (_chunkLength == 0) {
+            _length = 0;
+            _state = STATE_TRAILER;
+        } else {
+            _chunkPosition = 0;
+            _state = STATE_CHUNK;
+        }
+    }
+
+    private void content(int length) throws IOException {
+        int get = _header.getIndex();
+        _contentView.update(_header);
+        _contentView.update(get, get + length);
+        _header.skip(length);
+        _contentPosition += length;
+        _handler.content(_contentView); // May recurse here
+    }
+
+    private int eof() throws IOException {
+        _persistent = false;
+        int state = _state;
+        _state = STATE_END;
+        if (state != STATE_START) {
+            _handler.earlyEOF();
+            _handler.messageComplete(_contentPosition);
+        }
+        return -1;
+    }
+
+    /**
+     * 从端点读取数据
+     * 1. 请求之间或者读内容的时候，没有需要保留的下标，直接压缩；
+     * 2. 解析头部的时候buffer满了，就把当前请求平移到开头，所有记录的下标一起平移；还是满的就是头部太大了
+     */
+    private int fill() throws IOException {
+        if (_state == STATE_START || _state > STATE_END) {
+            _header.setMarkIndex(-1);
+            _header.compact();
+        } else if (_header.space() == 0) {
+            int shift = _start;
+            if (shift > 0) {
+                _header.setMarkIndex(shift);
+                _header.compact();
+                _header.setMarkIndex(-1);
+                _start -= shift;
+                _methodStart -= shift;
+                _methodEnd -= shift;
+                _uriStart -= shift;
+                _uriEnd -= shift;
+                _versionStart -= shift;
+                _versionEnd -= shift;
+                _nameStart -= shift;
+                _nameEnd -= shift;
+                _valueStart -= shift;
+                _valueEnd -= shift;
+            }
+            if (_header.space() == 0) {
+                throw new HttpException(HttpStatus.REQUEST_ENTITY_TOO_LARGE_413, "Request Entity Too Large: head");
+            }
+        }
+        return _endp.fill(_header);
+    }
+
+    /**
+     * 一个请求处理完，准备解析下一个；buffer里剩下的字节(pipeline)保留
+     */
+    public void reset() {
+        _state = _persistent ? STATE_START : STATE_END;
+        _contentLength = 0;
+        _contentPosition = 0;
+        _chunked = false;
+        _valueStart = -1;
+        _contentView.update(0, 0);
+        returnBuffers();
+    }
+
+    /**
+     * 没有未解析的数据，就把header buffer还给池子
+     */
+    public void returnBuffers() {
+        if (_header != null && !_header.hasContent() && (_state == STATE_START || _state == STATE_END)) {
+            _buffers.returnBuffer(_header);
+            _header = null;
+        }
+    }
+
+    //[start,end)和小写的token按忽略大小写比较，只用于字母、数字、'-'、'/'、'.'组成的token
+    private boolean matches(int start, int end, byte[] token) {
+        if (end - start != token.length) {
+            return false;
+        }
+        for (int i = 0; i < token.length; i++) {
+            if ((_header.peek(start + i) | 0x20) != token[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //逗号分隔的值里是否有这个token
+    private boolean hasToken(int start, int end, byte[] token) {
+        int i = start;
+        while (i < end) {
+            while (i < end && (_header.peek(i) == ',' || _header.peek(i) == ' ' || _header.peek(i) == '\t')) {
+                i++;
+            }
+            int s = i;
+            while (i < end && _header.peek(i) != ',') {
+                i++;
+            }
+            int e = i;
+            while (e > s && (_header.peek(e - 1) == ' ' || _header.peek(e - 1) == '\t')) {
+                e--;
+            }
+            if (matches(s, e, token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long toLong(int start, int end) throws HttpException {
+        if (start == end) {
+            throw new HttpException(HttpStatus.BAD_REQUEST_400);
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = _header.peek(i);
+            if (b < '0' || b > '9' || value > (Long.MAX_VALUE - 9) / 10) {
+                throw new HttpException(HttpStatus.BAD_REQUEST_400);
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return 10 + b - 'a';
+        }
+        if (b >= 'A' && b <= 'F') {
+            return 10 + b - 'A';
+        }
+        return -1;
+    }
 
-        return 1;
+    @Override
+    public String toString() {
+        return String.format("%s{s=%d,c=%d}", getClass().getSimpleName(), _state, _contentLength);
     }
 }
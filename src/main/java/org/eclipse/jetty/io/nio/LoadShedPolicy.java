@@ -0,0 +1,144 @@
+package org.eclipse.jetty.io.nio;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 过载保护(快速失败)策略，由Selector线程使用
+ * 1. 线程池拒绝任务时，原来的做法是置为STATE_NEEDS_DISPATCH然后updateKey重新排队，
+ * 过载的时候会一直空转，延迟越堆越高；
+ * 2. 连续拒绝次数达到阈值，或者线程池排队耗时超过阈值，Selector线程直接往channel写一个预先编码好的
+ * 503响应(带Retry-After和Connection: close)然后关闭连接，不占用任何工作线程，客户端可以马上重试其他节点；
+ * 3. 任何一次分派成功都会把连续拒绝次数清零
+ */
+public class LoadShedPolicy {
+    private volatile int _maxRejections = 1; //连续拒绝多少次开始丢弃，<=0表示不根据拒绝丢弃
+    private volatile long _maxQueueDelayMs = -1; //排队耗时阈值，<0表示不根据排队耗时丢弃
+    private volatile int _retryAfterSeconds = 1;
+    private volatile byte[] _response; //预编码的响应，配置变化时重建
+
+    private static final int DRAIN_BUFFER_SIZE = 4096;
+    private static final int MAX_DRAIN = 64 * 1024; //关闭前最多读掉多少字节
+
+    private final AtomicInteger _rejections = new AtomicInteger(); //连续拒绝次数
+    private final AtomicLong _shed = new AtomicLong(); //累计丢弃的连接数
+
+    public LoadShedPolicy() {
+        _response = encode(_retryAfterSeconds);
+    }
+
+    private static byte[] encode(int retryAfterSeconds) {
+        String response = "HTTP/1.1 503 Service Unavailable\r\n" +
+                "Retry-After: " + retryAfterSeconds + "\r\n" +
+                "Content-Length: 0\r\n" +
+                "Connection: close\r\n" +
+                "\r\n";
+        try {
+            return response.getBytes("ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 分派之前判断：排队耗时已经超过阈值就不要再往线程池里塞了
+     * @param queueDelayMs 线程池最近的排队耗时，未知为-1
+     */
+    public boolean isOverloaded(long queueDelayMs) {
+        long max = _maxQueueDelayMs;
+        return max >= 0 && queueDelayMs > max;
+    }
+
+    /**
+     * 线程池拒绝了一次任务
+     * @return 是否达到了丢弃的阈值
+     */
+    public boolean onRejected() {
+        int max = _maxRejections;
+        int rejections = _rejections.incrementAndGet();
+        return max > 0 && rejections >= max;
+    }
+
+    public void onDispatched() {
+        if (_rejections.get() != 0) { //避免每次分派都写共享变量
+            _rejections.set(0);
+        }
+    }
+
+    /**
+     * 在Selector线程上直接写503然后关闭；非阻塞写，写不完也直接关，反正是要关闭的连接
+     * 1. 先shutdownOutput发FIN，客户端能完整读到503；
+     * 2. 再把已经到达的请求字节读掉丢弃：接收缓冲区里还有未读数据时close会发RST，
+     * 客户端可能连503都还没读到就收到connection reset。最多读MAX_DRAIN字节，不在Selector线程上等待
+     */
+    public void shed(SocketChannel channel) {
+        _shed.incrementAndGet();
+        try {
+            channel.write(ByteBuffer.wrap(_response));
+            channel.socket().shutdownOutput();
+            drain(channel);
+        } catch (IOException e) {
+            //写失败了也没关系，下面照样关闭
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * 非阻塞地读掉已经到达的数据，读到0(没有更多)、-1(对端关闭)或者读够MAX_DRAIN就停
+     */
+    private static void drain(SocketChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(DRAIN_BUFFER_SIZE);
+        int drained = 0;
+        while (drained < MAX_DRAIN) {
+            buffer.clear();
+            int n = channel.read(buffer);
+            if (n <= 0) {
+                break;
+            }
+            drained += n;
+        }
+    }
+
+    public int getMaxRejections() {
+        return _maxRejections;
+    }
+
+    public void setMaxRejections(int maxRejections) {
+        _maxRejections = maxRejections;
+    }
+
+    public long getMaxQueueDelayMs() {
+        return _maxQueueDelayMs;
+    }
+
+    public void setMaxQueueDelayMs(long maxQueueDelayMs) {
+        _maxQueueDelayMs = maxQueueDelayMs;
+    }
+
+    public int getRetryAfterSeconds() {
+        return _retryAfterSeconds;
+    }
+
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        _retryAfterSeconds = retryAfterSeconds;
+        _response = encode(retryAfterSeconds);
+    }
+
+    public long getShed() {
+        return _shed.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s{maxRejections=%d,maxQueueDelayMs=%d,retryAfter=%d,shed=%d}",
+                getClass().getSimpleName(), _maxRejections, _maxQueueDelayMs, _retryAfterSeconds, _shed.get());
+    }
+}
@@ -1,5 +1,6 @@
 package org.eclipse.jetty.io.nio;
 
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.util.thread.ThreadPool;
 
 import java.io.IOException;
@@ -59,6 +60,17 @@ public class SelectChannelConnector {
         return threadPool;
     }
 
+    /**
+     * 线程池拒绝或者排队太久时，在Selector线程上直接回503，null表示关闭
+     */
+    public void setLoadShedPolicy(LoadShedPolicy policy){
+        selectorManager.setLoadShedPolicy(policy);
+    }
+
+    public LoadShedPolicy getLoadShedPolicy(){
+        return selectorManager.getLoadShedPolicy();
+    }
+
     /**
      * 内部类，不给外人使用
      */
@@ -74,6 +86,16 @@ public class SelectChannelConnector {
 
             return pool.dispatch(task);
         }
+
+        @Override
+        public long getQueueDelayMs(){
+            //只有开启了统计的QueuedThreadPool才知道排队耗时
+            ThreadPool pool = getThreadPool();
+            if(pool instanceof QueuedThreadPool && ((QueuedThreadPool)pool).isStatsOn()){
+                return ((QueuedThreadPool)pool).getLastQueueDelayMs();
+            }
+            return -1;
+        }
     }
 
     /**
@@ -1,7 +1,10 @@
 package org.eclipse.jetty.io.nio;
 
+import org.eclipse.jetty.io.Buffer;
 import org.eclipse.jetty.io.Connection;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
@@ -37,6 +40,17 @@ public class SelectChannelEndPoint extends ChannelEndPoint{
     private boolean readBlocked = false; //正在阻塞读
     private boolean writeBlocked = false; //正在阻塞写
 
+    //流水线请求的响应合并写：corked的时候flush进来的字节先拷贝到pending里，
+    //pending攒满了或者解除corked之后，和新的数据一起用一次gathering write写出去
+    public static final int DEFAULT_PENDING_SIZE = 16 * 1024;
+    private boolean corked;
+    private int pendingSize = DEFAULT_PENDING_SIZE;
+    private ByteBuffer pending; //写模式，[0,position)是还没有写出去的字节
+    private final ByteBuffer[] gather4 = new ByteBuffer[4];
+    //header/buffer/trailer各缓存一个ByteBuffer视图，底层存储没变就只改position/limit，不用每次flush都分配
+    private final Object[] viewSources = new Object[3];
+    private final ByteBuffer[] views = new ByteBuffer[3];
+
     private final Runnable handler; //处理器，调用是本类中的handle方法
 
     private AsyncHttpConnection conn;
@@ -131,10 +145,24 @@ public class SelectChannelEndPoint extends ChannelEndPoint{
                 if(onIdea) { //处于空闲状态，但是又没有超过阈值
                     state = STATE_NEEDS_DISPATCH;
                 }else {
+                    LoadShedPolicy policy = manager.getLoadShedPolicy();
+                    //排队已经太久了，再塞进线程池也只是继续堆积，直接丢弃
+                    if(policy != null && isSheddable() && policy.isOverloaded(manager.getQueueDelayMs())){
+                        shed(policy);
+                        return;
+                    }
+
                     state = STATE_DISPATCHED; //先置为已经分派，防止重复处理
                     //交给线程池处理，只要交付成功就会返回true
                     boolean isDispatch = manager.dispatch(handler);
-                    if(!isDispatch){
+                    if(isDispatch){
+                        if(policy != null){
+                            policy.onDispatched();
+                        }
+                    }else if(policy != null && policy.onRejected() && isSheddable()){
+                        //连续拒绝达到阈值，不再重新排队
+                        shed(policy);
+                    }else {
                         //交付失败了
                         state = STATE_NEEDS_DISPATCH;
                         updateKey(); //重新交给SelectSet处理
@@ -144,6 +172,28 @@ public class SelectChannelEndPoint extends ChannelEndPoint{
         }
     }
 
+    /**
+     * 只有停在两个请求之间的连接才能丢弃：没有正在处理的请求(包括读了一半的请求体)，
+     * 没有待写出的数据，也没有在等待写。否则(比如为了写出被塞住的输出而触发的OP_WRITE)照常分派
+     */
+    private boolean isSheddable(){
+        return !hasPendingOutput() && !writeBlocked && !readBlocked
+                && (conn == null || conn.isAtRequestBoundary() && !conn.isWriteWaiting() && !conn.isSuspended());
+    }
+
+    /**
+     * 在当前(Selector)线程上直接回503并关闭连接，然后把key也取消掉
+     */
+    private void shed(LoadShedPolicy policy){
+        state = STATE_UNDISPATCHED;
+        policy.shed(channel);
+        if(key != null && key.isValid()){
+            key.cancel();
+        }
+        open = false;
+        key = null;
+    }
+
     /**
      * 根据情况更新interestOpts，判断若是集合变化了，则重新注册
      * 1. 根据当前情况，来获取需要更新的感兴趣事件是什么，并记录到包装类的缓存中interestOpts
@@ -154,8 +204,8 @@ public class SelectChannelEndPoint extends ChannelEndPoint{
         synchronized (this){
             int current_ops = -1;
             if(isOpen()){ //更新key的前提是要打开
-                boolean read_interest = (!isInputShutdown()) && (readBlocked || state < 1);
-                boolean write_interest = (!isOutPutShutdown()) && writeBlocked || state < 1;
+                boolean read_interest = (!isInputShutdown()) && (readBlocked || state < 1 && (conn == null || !conn.isSuspended()));
+                boolean write_interest = (!isOutPutShutdown()) && (writeBlocked || hasPendingOutput() || conn != null && conn.isWriteWaiting()) || state < 1;
                 //我们想要更新的感兴趣集合
                 interestOpts = (read_interest?SelectionKey.OP_READ:0) |
                         (write_interest?SelectionKey.OP_WRITE:0);
@@ -259,6 +309,181 @@ public class SelectChannelEndPoint extends ChannelEndPoint{
 
     }
 
+    /**
+     * 连接对读的兴趣变了(比如应用在等请求体)，重新计算关注的事件
+     */
+    public void readInterestChanged(){
+        updateKey();
+    }
+
+    /**
+     * 连接对写的兴趣变了(非阻塞写的应用在等可写)，重新计算关注的事件
+     */
+    public void writeInterestChanged(){
+        updateKey();
+    }
+
+    /**
+     * 设置是否先攒着响应不写，由连接在处理流水线请求时设置，解除之后下一次flush会把攒着的一起写出去
+     */
+    public void setCorked(boolean corked){
+        this.corked = corked;
+    }
+
+    public boolean isCorked(){
+        return corked;
+    }
+
+    /**
+     * 攒响应用的缓冲区大小，超过这个大小就直接写
+     */
+    public void setPendingSize(int pendingSize){
+        this.pendingSize = pendingSize;
+    }
+
+    public int getPendingSize(){
+        return pendingSize;
+    }
+
+    /**
+     * 是否还有攒着没有写出去的字节
+     */
+    public boolean hasPendingOutput(){
+        return pending != null && pending.position() > 0;
+    }
+
+    @Override
+    public int flush(Buffer buffer) throws IOException {
+        if(!corked && !hasPendingOutput()){
+            return super.flush(buffer);
+        }
+        return aggregate(buffer, null, null);
+    }
+
+    @Override
+    public int flush(Buffer header, Buffer buffer, Buffer trailer) throws IOException {
+        if(!corked && !hasPendingOutput()){
+            return super.flush(header, buffer, trailer);
+        }
+        return aggregate(header, buffer, trailer);
+    }
+
+    /**
+     * 把攒着的字节写出去，非阻塞，写不完的留到下一次
+     */
+    @Override
+    public void flush() throws IOException {
+        if(hasPendingOutput()){
+            pending.flip();
+            try {
+                channel.write(pending);
+            } finally {
+                pending.compact();
+            }
+        }
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        //关输出之前先把攒着的响应写掉，不然就丢了
+        flush();
+        super.shutdownOutput();
+    }
+
+    /**
+     * 1. corked并且pending还放得下，就只拷贝，不发生系统调用；
+     * 2. 否则把pending和新的数据放在一起做一次gathering write，pending排在最前面保证顺序；
+     * 3. 返回值和flush一样是新数据被"写出去"的字节数，拷贝进pending也算
+     */
+    private int aggregate(Buffer header, Buffer buffer, Buffer trailer) throws IOException {
+        if(pending == null){
+            pending = ByteBuffer.allocate(pendingSize);
+        }
+
+        int length = length(header) + length(buffer) + length(trailer);
+        boolean viewable = viewable(header) && viewable(buffer) && viewable(trailer);
+        if(corked && length <= pending.remaining() && viewable){
+            copy(0, header);
+            copy(1, buffer);
+            copy(2, trailer);
+            return length;
+        }
+        if(!viewable){ //比如文件，没法放进gathering write，先把pending写完再走原来的路
+            flush();
+            return hasPendingOutput() ? 0 : super.flush(header, buffer, trailer);
+        }
+
+        int count = 0;
+        pending.flip();
+        int pendingLength = pending.remaining();
+        long written;
+        try {
+            gather4[count++] = pending;
+            if(length(header) > 0){
+                gather4[count++] = byteBuffer(0, header);
+            }
+            if(length(buffer) > 0){
+                gather4[count++] = byteBuffer(1, buffer);
+            }
+            if(length(trailer) > 0){
+                gather4[count++] = byteBuffer(2, trailer);
+            }
+            written = channel.write(gather4, 0, count);
+        } finally {
+            pending.compact();
+            for(int i = 0; i < count; i++){
+                gather4[i] = null;
+            }
+        }
+
+        //跳过新数据里已经写出去的部分
+        int skip = (int)Math.max(0, written - pendingLength);
+        int total = skip;
+        skip -= skip(header, skip);
+        skip -= skip(buffer, skip);
+        skip(trailer, skip);
+        return total;
+    }
+
+    private static int skip(Buffer buffer, int skip){
+        int len = Math.min(length(buffer), skip);
+        if(len > 0){
+            buffer.skip(len);
+        }
+        return len;
+    }
+
+    private void copy(int slot, Buffer buffer){
+        if(length(buffer) > 0){
+            pending.put(byteBuffer(slot, buffer));
+            buffer.skip(buffer.length());
+        }
+    }
+
+    private static int length(Buffer buffer){
+        return buffer == null ? 0 : buffer.length();
+    }
+
+    private static boolean viewable(Buffer buffer){
+        return length(buffer) == 0 || buffer.buffer() instanceof NIOBuffer || buffer.array() != null;
+    }
+
+    //拿到[getIndex,putIndex)的ByteBuffer视图，调用前要先判断viewable；视图按位置缓存，只在底层存储换了的时候才新建
+    private ByteBuffer byteBuffer(int slot, Buffer buffer){
+        Buffer buf = buffer.buffer();
+        Object source = buf instanceof NIOBuffer ? ((NIOBuffer)buf).getByteBuffer() : buffer.array();
+        ByteBuffer view = views[slot];
+        if(view == null || viewSources[slot] != source){
+            view = source instanceof ByteBuffer ? ((ByteBuffer)source).asReadOnlyBuffer() : ByteBuffer.wrap((byte[])source);
+            views[slot] = view;
+            viewSources[slot] = source;
+        }
+        view.clear();
+        view.limit(buffer.putIndex());
+        view.position(buffer.getIndex());
+        return view;
+    }
+
     public void setConnection(AsyncHttpConnection conn){
         this.conn = conn;
     }
@@ -17,6 +17,7 @@ public abstract class SelectorManager {
     private int _selectSetNum = 3; //Selector的数量
     private AtomicLong _set = new AtomicLong(0L); //处理多少次请求
     private SelectorManager.SelectSet[] _selectSets; //_selectSets个Selector
+    private volatile LoadShedPolicy _loadShedPolicy; //过载保护策略，null表示不开启
 
     public SelectorManager() {
         try {
@@ -43,6 +44,21 @@ public abstract class SelectorManager {
     //分派任务
     public abstract boolean dispatch(Runnable task);
 
+    /**
+     * 线程池最近的排队耗时(ms)，给过载保护策略使用；不知道就返回-1
+     */
+    public long getQueueDelayMs() {
+        return -1;
+    }
+
+    public LoadShedPolicy getLoadShedPolicy() {
+        return _loadShedPolicy;
+    }
+
+    public void setLoadShedPolicy(LoadShedPolicy loadShedPolicy) {
+        _loadShedPolicy = loadShedPolicy;
+    }
+
     public void doStart() throws Exception {
         //创建多个Selector
         _selectSets = new SelectorManager.SelectSet[_selectSetNum];
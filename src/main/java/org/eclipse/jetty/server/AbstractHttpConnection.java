@@ -292,6 +292,25 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
         return _in;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Called by {@link HttpInput} when a non blocking reader is waiting for content,
+     * so that the connection can register read interest again. Blocking connections
+     * read on demand and have nothing to do.
+     */
+    protected void contentWanted()
+    {
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Called by {@link HttpOutput} when a non blocking writer is waiting for the
+     * endpoint to become writable, so that the connection can register write interest.
+     */
+    protected void writeWanted()
+    {
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @return The output stream for this connection. The stream will be created if it does not already exist.
@@ -355,6 +374,8 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
     /* ------------------------------------------------------------ */
     public void reset()
     {
+        if (_out!=null)
+            _out.cancelDeferredFlush();
         _parser.reset();
         _parser.returnBuffers(); // TODO maybe only on unhandle
         _requestFields.clear();
@@ -366,6 +387,10 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
         _uri.clear();
         _writer=null;
         _earlyEOF = false;
+        if (_in instanceof HttpInput)
+            ((HttpInput)_in).recycle();
+        if (_out!=null)
+            _out.recycle();
     }
 
     /* ------------------------------------------------------------ */
@@ -598,6 +623,12 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
     /* ------------------------------------------------------------ */
     public void completeResponse() throws IOException
     {
+        if (_out!=null)
+        {
+            _out.cancelDeferredFlush();
+            _out.completeCompressed();
+        }
+
         if (!_generator.isCommitted())
         {
             _generator.setResponse(_response.getStatus(), _response.getReason());
@@ -627,8 +658,15 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
     {
         try
         {
+            if (_out!=null)
+            {
+                _out.cancelDeferredFlush();
+                _out.flushCompressed();
+            }
             commitResponse(Generator.MORE);
             _generator.flushBuffer();
+            if (_out!=null)
+                _out.flushed();
         }
         catch(IOException e)
         {
@@ -668,6 +706,17 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
         return _generator.isIdle() && (_parser.isIdle() || _delayedHandling);
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if no request is in progress: the parser waits for the start of the
+     * next request and nothing is being generated. Unlike {@link #isIdle()}, a request
+     * whose handling was delayed until its content arrives is in progress.
+     */
+    public boolean isAtRequestBoundary()
+    {
+        return _generator.isIdle() && _parser.isIdle() && !_delayedHandling;
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @see org.eclipse.jetty.io.Connection#isSuspended()
@@ -718,8 +767,6 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
     /* ------------------------------------------------------------ */
     protected void startRequest(Buffer method, Buffer uri, Buffer version) throws IOException
     {
-        uri=uri.asImmutableBuffer();
-
         _host = false;
         _expect = false;
         _expect100Continue=false;
@@ -737,16 +784,16 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
             switch (HttpMethods.CACHE.getOrdinal(method))
             {
                 case HttpMethods.CONNECT_ORDINAL:
-                    _uri.parseConnect(uri.array(), uri.getIndex(), uri.length());
+                    _uri.parseConnect(uri);
                     break;
 
                 case HttpMethods.HEAD_ORDINAL:
                     _head=true;
-                    _uri.parse(uri.array(), uri.getIndex(), uri.length());
+                    _uri.parse(uri);
                     break;
 
                 default:
-                    _uri.parse(uri.array(), uri.getIndex(), uri.length());
+                    _uri.parse(uri);
             }
 
             _request.setUri(_uri);
@@ -837,12 +884,16 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
                 break;
         }
 
-        _requestFields.add(name, value);
+        // only recorded here, converted when the header is first asked for
+        _requestFields.addParsed(name, value);
     }
 
     /* ------------------------------------------------------------ */
     protected void headerComplete() throws IOException
     {
+        // The parser may compact, reuse or return the header buffer from now on
+        _requestFields.retainParsed();
+
         // Handle idle race
         if (_endp.isOutputShutdown())
         {
@@ -1049,6 +1100,8 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
             if (isClosed())
                 return;
 
+            cancelDeferredFlush();
+            completeCompressed();
             if (!isIncluding() && !super._generator.isCommitted())
                 commitResponse(Generator.LAST);
             else
@@ -1065,6 +1118,21 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
         @Override
         public void flush() throws IOException
         {
+            synchronized (this)
+            {
+                if (coalesceFlush())
+                    return;
+                flushNow();
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * Flush regardless of the flush policy.
+         */
+        void flushNow() throws IOException
+        {
+            flushCompressed();
             if (!super._generator.isCommitted())
                 commitResponse(Generator.MORE);
             super.flush();
@@ -1100,6 +1168,8 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
             if (super._generator.isWritten())
                 throw new IllegalStateException("!empty");
 
+            cancelDeferredFlush();
+
             // Convert HTTP content to content
             if (content instanceof HttpContent)
             {
@@ -1181,14 +1251,14 @@ public abstract class AbstractHttpConnection  extends AbstractConnection
                     while (len>=0 && !_endp.isOutputShutdown())
                     {
                         super._generator.completeUncheckedAddContent();
-                        _out.flush();
+                        flushNow();
 
                         max = super._generator.prepareUncheckedAddContent();
                         buffer = super._generator.getUncheckedBuffer();
                         len=buffer.readFrom(in,max);
                     }
                     super._generator.completeUncheckedAddContent();
-                    _out.flush();
+                    flushNow();
                 }
                 finally
                 {
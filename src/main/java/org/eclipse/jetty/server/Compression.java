@@ -0,0 +1,203 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2016 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeaders;
+import org.eclipse.jetty.http.HttpValueTokenizer;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.util.StringUtil;
+
+/* ------------------------------------------------------------ */
+/** Response compression settings.
+ * <p>
+ * Set on the {@link Server} with {@link Server#setCompression(Compression)} to have
+ * {@link HttpOutput} gzip the content of responses whose client sends an
+ * <code>Accept-Encoding</code> that allows gzip. Responses smaller than the
+ * minimum size, responses with an excluded mime type and responses that already
+ * have a <code>Content-Encoding</code> are sent as they are.
+ * </p>
+ * <p>
+ * The {@link Deflater}s are pooled, as each one holds native memory that is only
+ * released by {@link Deflater#end()}.
+ * </p>
+ */
+public class Compression
+{
+    public static final int DEFAULT_MIN_SIZE=256;
+    public static final int DEFAULT_BUFFER_SIZE=8192;
+    public static final int DEFAULT_POOL_SIZE=64;
+
+    private int _minSize=DEFAULT_MIN_SIZE;
+    private int _bufferSize=DEFAULT_BUFFER_SIZE;
+    private int _level=Deflater.DEFAULT_COMPRESSION;
+    private final Set<String> _excludedMimeTypes=new HashSet<String>();
+    private final ArrayBlockingQueue<Deflater> _deflaters;
+
+    /* ------------------------------------------------------------ */
+    public Compression()
+    {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param poolSize The maximum number of idle {@link Deflater}s kept for reuse
+     */
+    public Compression(int poolSize)
+    {
+        _deflaters=new ArrayBlockingQueue<Deflater>(poolSize);
+        _excludedMimeTypes.add("application/gzip");
+        _excludedMimeTypes.add("application/x-gzip");
+        _excludedMimeTypes.add("application/zip");
+        _excludedMimeTypes.add("application/x-compress");
+        _excludedMimeTypes.add("application/x-bzip2");
+        _excludedMimeTypes.add("application/x-7z-compressed");
+        _excludedMimeTypes.add("application/pdf");
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The content size below which responses are not compressed
+     */
+    public int getMinSize()
+    {
+        return _minSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void setMinSize(int minSize)
+    {
+        _minSize=minSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The size of the buffer that compressed content is produced into
+     */
+    public int getBufferSize()
+    {
+        return _bufferSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void setBufferSize(int bufferSize)
+    {
+        _bufferSize=bufferSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getLevel()
+    {
+        return _level;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param level The {@link Deflater} compression level. Only applies to deflaters created after the call.
+     */
+    public void setLevel(int level)
+    {
+        _level=level;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The mime types that are never compressed, in addition to image, audio and video types
+     */
+    public Set<String> getExcludedMimeTypes()
+    {
+        return _excludedMimeTypes;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void addExcludedMimeType(String mimeType)
+    {
+        _excludedMimeTypes.add(StringUtil.asciiToLowerCase(mimeType));
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param contentType The response content type, possibly with parameters, or null
+     * @return true if content of that type is worth compressing
+     */
+    public boolean isCompressible(String contentType)
+    {
+        if (contentType==null)
+            return true;
+        int semi=contentType.indexOf(';');
+        String mime=StringUtil.asciiToLowerCase((semi<0?contentType:contentType.substring(0,semi)).trim());
+        if (mime.startsWith("image/"))
+            return mime.equals("image/svg+xml");
+        if (mime.startsWith("audio/") || mime.startsWith("video/"))
+            return false;
+        return !_excludedMimeTypes.contains(mime);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param requestFields The request headers
+     * @return true if the Accept-Encoding headers allow gzip, with a non zero q value
+     */
+    public boolean acceptsGzip(HttpFields requestFields)
+    {
+        Buffer value=requestFields.getValuesBuffer(HttpHeaders.ACCEPT_ENCODING_BUFFER);
+        if (value==null)
+            return false;
+
+        boolean star=false;
+        HttpValueTokenizer tok=new HttpValueTokenizer(value);
+        while (tok.next())
+        {
+            if (tok.isValue("gzip") || tok.isValue("x-gzip"))
+                return tok.getQuality()>0;
+            if (tok.isValue("*"))
+                star=tok.getQuality()>0;
+        }
+        return star;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return A pooled deflater producing raw deflate data (no zlib wrapper), or a new one
+     */
+    public Deflater getDeflater()
+    {
+        Deflater deflater=_deflaters.poll();
+        if (deflater==null)
+            deflater=new Deflater(_level,true);
+        return deflater;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Return a deflater to the pool, or release it if the pool is full.
+     */
+    public void returnDeflater(Deflater deflater)
+    {
+        deflater.reset();
+        if (!_deflaters.offer(deflater))
+            deflater.end();
+    }
+}
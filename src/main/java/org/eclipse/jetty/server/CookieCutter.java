@@ -0,0 +1,361 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2016 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.util.Arrays;
+
+import javax.servlet.http.Cookie;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/* ------------------------------------------------------------ */
+/** Cookie parser
+ * <p>
+ * The Cookie fields of a request are only recorded when added, and scanned once
+ * when a cookie is first asked for. The scan records the offsets of each name and
+ * value, so a single cookie can be looked up by name without creating the others.
+ * The Cookie array is created on the first call to {@link #getCookies()}.
+ * </p>
+ * <p>
+ * The cutter is kept by the connection's request. If the next request sends the
+ * same Cookie fields, as browsers do, the previous scan and Cookies are reused.
+ * The cached Cookies are therefore shared by the requests of a connection, and as
+ * {@link Cookie} is mutable they are never handed out: each request is given its
+ * own clones, so a change made by one request is not seen by the next.
+ * </p>
+ */
+public class CookieCutter
+{
+    private static final Logger LOG = Log.getLogger(CookieCutter.class);
+
+    // The ints recorded for each cookie
+    private static final int FIELD=0, NAME=1, NAME_END=2, VALUE=3, VALUE_END=4,
+        PATH=5, PATH_END=6, DOMAIN=7, DOMAIN_END=8, VERSION=9, SIZE=10;
+
+    private String[] _fields=new String[1];
+    private int _fieldCount;
+    private boolean _dirty; // a field differs from the one scanned at its index
+    private int _scanned; // the number of fields the offsets are for
+    private boolean _set; // the cookies were set, not scanned
+
+    private int[] _offsets=new int[8*SIZE];
+    private int _count;
+    private Cookie[] _cookies; // cached for the next request, never handed out unless set
+    private Cookie[] _handed; // the clones handed out for this request
+
+    /* ------------------------------------------------------------ */
+    public CookieCutter()
+    {
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The cookies of the fields added since {@link #reset()}. The array and
+     * Cookies belong to the current request.
+     */
+    public Cookie[] getCookies()
+    {
+        scan();
+        if (_handed==null)
+        {
+            if (_cookies==null)
+            {
+                Cookie[] cookies=new Cookie[_count];
+                int n=0;
+                for (int i=0;i<_count;i++)
+                {
+                    Cookie cookie=newCookie(i);
+                    if (cookie!=null)
+                        cookies[n++]=cookie;
+                }
+                _cookies=n==_count?cookies:Arrays.copyOf(cookies,n);
+            }
+            Cookie[] handed=new Cookie[_cookies.length];
+            for (int i=0;i<handed.length;i++)
+                handed[i]=(Cookie)_cookies[i].clone();
+            _handed=handed;
+        }
+        return _handed;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param name The cookie name
+     * @return The first cookie of the name, or null. Unless {@link #getCookies()}
+     * has been called, only this cookie is created.
+     */
+    public Cookie getCookie(String name)
+    {
+        scan();
+        Cookie[] cookies=_handed!=null?_handed:_cookies;
+        if (cookies!=null)
+        {
+            for (Cookie cookie : cookies)
+            {
+                if (cookie.getName().equals(name))
+                    return cookies==_handed?cookie:(Cookie)cookie.clone();
+            }
+            return null;
+        }
+
+        for (int i=0;i<_count;i++)
+        {
+            int o=i*SIZE;
+            String field=_fields[_offsets[o+FIELD]];
+            int length=_offsets[o+NAME_END]-_offsets[o+NAME];
+            if (length==name.length() && field.regionMatches(_offsets[o+NAME],name,0,length))
+            {
+                Cookie cookie=newCookie(i);
+                if (cookie!=null)
+                    return cookie;
+            }
+        }
+        return null;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void setCookies(Cookie[] cookies)
+    {
+        _cookies=cookies==null?new Cookie[0]:cookies;
+        _handed=_cookies;
+        _count=0;
+        _set=true;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void reset()
+    {
+        _fieldCount=0;
+        _handed=null;
+        if (_set)
+        {
+            // the cookies do not match the fields, so must not be reused
+            _set=false;
+            _scanned=-1;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Add the value of a Cookie field. It is not scanned until a cookie is asked for.
+     */
+    public void addCookieField(String f)
+    {
+        if (f==null)
+            return;
+        f=f.trim();
+        if (f.length()==0)
+            return;
+
+        if (_fieldCount<_fields.length && f.equals(_fields[_fieldCount]))
+        {
+            _fieldCount++;
+            return;
+        }
+
+        if (_fieldCount==_fields.length)
+            _fields=Arrays.copyOf(_fields,_fields.length*2);
+        _fields[_fieldCount++]=f;
+        _dirty=true;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* Scan the fields, unless they are those that were scanned last */
+    private void scan()
+    {
+        if (_set || !_dirty && _fieldCount==_scanned)
+            return;
+
+        _dirty=false;
+        _scanned=_fieldCount;
+        _cookies=null;
+        _handed=null;
+        _count=0;
+        for (int f=0;f<_fieldCount;f++)
+            scan(f,_fields[f]);
+    }
+
+    /* ------------------------------------------------------------ */
+    /* Record the offsets of the name=value pairs of a field, separated by ';', or by ','
+     * after a $Version of 1 or more (RFC 2965). RFC 6265 values may contain ','. */
+    private void scan(int f, String field)
+    {
+        int version=0;
+        int last=-1; // the last cookie, for $Path and $Domain
+        int length=field.length();
+        int i=0;
+
+        while (i<length)
+        {
+            // name
+            while (i<length && isSpace(field.charAt(i)))
+                i++;
+            int name=i;
+            while (i<length)
+            {
+                char c=field.charAt(i);
+                if (c=='=' || isSeparator(c,version))
+                    break;
+                i++;
+            }
+            int nameEnd=i;
+            while (nameEnd>name && isSpace(field.charAt(nameEnd-1)))
+                nameEnd--;
+
+            // value
+            int value=i, valueEnd=i;
+            if (i<length && field.charAt(i)=='=')
+            {
+                i++;
+                while (i<length && isSpace(field.charAt(i)))
+                    i++;
+                value=i;
+                if (i<length && field.charAt(i)=='"')
+                {
+                    // quoted, the end is the closing quote
+                    for (i++;i<length;i++)
+                    {
+                        char c=field.charAt(i);
+                        if (c=='\\' && i+1<length)
+                            i++;
+                        else if (c=='"')
+                        {
+                            i++;
+                            break;
+                        }
+                    }
+                    valueEnd=i;
+                    while (i<length && !isSeparator(field.charAt(i),version))
+                        i++;
+                }
+                else
+                {
+                    while (i<length && !isSeparator(field.charAt(i),version))
+                        i++;
+                    valueEnd=i;
+                    while (valueEnd>value && isSpace(field.charAt(valueEnd-1)))
+                        valueEnd--;
+                }
+            }
+            i++; // the separator
+
+            if (nameEnd==name)
+                continue;
+
+            if (field.charAt(name)=='$')
+            {
+                if (field.regionMatches(true,name,"$Version",0,8) && nameEnd-name==8)
+                {
+                    try
+                    {
+                        version=Integer.parseInt(unquote(field,value,valueEnd));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        LOG.ignore(e);
+                    }
+                }
+                else if (last>=0 && field.regionMatches(true,name,"$Path",0,5) && nameEnd-name==5)
+                {
+                    _offsets[last+PATH]=value;
+                    _offsets[last+PATH_END]=valueEnd;
+                }
+                else if (last>=0 && field.regionMatches(true,name,"$Domain",0,7) && nameEnd-name==7)
+                {
+                    _offsets[last+DOMAIN]=value;
+                    _offsets[last+DOMAIN_END]=valueEnd;
+                }
+                continue;
+            }
+
+            if ((_count+1)*SIZE>_offsets.length)
+                _offsets=Arrays.copyOf(_offsets,_offsets.length*2);
+            last=_count++*SIZE;
+            _offsets[last+FIELD]=f;
+            _offsets[last+NAME]=name;
+            _offsets[last+NAME_END]=nameEnd;
+            _offsets[last+VALUE]=value;
+            _offsets[last+VALUE_END]=valueEnd;
+            _offsets[last+PATH]=-1;
+            _offsets[last+DOMAIN]=-1;
+            _offsets[last+VERSION]=version;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* @return The cookie recorded at i, or null if the servlet API rejects it */
+    private Cookie newCookie(int i)
+    {
+        int o=i*SIZE;
+        String field=_fields[_offsets[o+FIELD]];
+        try
+        {
+            Cookie cookie=new Cookie(field.substring(_offsets[o+NAME],_offsets[o+NAME_END]),
+                unquote(field,_offsets[o+VALUE],_offsets[o+VALUE_END]));
+            if (_offsets[o+PATH]>=0)
+                cookie.setPath(unquote(field,_offsets[o+PATH],_offsets[o+PATH_END]));
+            if (_offsets[o+DOMAIN]>=0)
+                cookie.setDomain(unquote(field,_offsets[o+DOMAIN],_offsets[o+DOMAIN_END]));
+            if (_offsets[o+VERSION]>0)
+                cookie.setVersion(_offsets[o+VERSION]);
+            return cookie;
+        }
+        catch (IllegalArgumentException e)
+        {
+            LOG.debug(e);
+            return null;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private static String unquote(String field, int start, int end)
+    {
+        if (end-start<2 || field.charAt(start)!='"' || field.charAt(end-1)!='"')
+            return field.substring(start,end);
+
+        start++;
+        end--;
+        int slash=field.indexOf('\\',start);
+        if (slash<0 || slash>=end)
+            return field.substring(start,end);
+
+        StringBuilder b=new StringBuilder(end-start);
+        for (int i=start;i<end;i++)
+        {
+            char c=field.charAt(i);
+            if (c=='\\' && i+1<end)
+                c=field.charAt(++i);
+            b.append(c);
+        }
+        return b.toString();
+    }
+
+    /* ------------------------------------------------------------ */
+    private static boolean isSeparator(char c, int version)
+    {
+        return c==';' || c==',' && version>0;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static boolean isSpace(char c)
+    {
+        return c==' ' || c=='\t';
+    }
+}
@@ -0,0 +1,140 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2016 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+/* ------------------------------------------------------------ */
+/** Policy for explicit flushes of response content.
+ * <p>
+ * Handlers that flush after many small writes cause a socket write for each flush.
+ * A policy other than {@link #ALWAYS} lets {@link HttpOutput#flush()} and
+ * {@link Response#flushBuffer()} be skipped, so content is coalesced into fewer and
+ * larger writes. A skipped flush still commits the response, only the write of the
+ * content is deferred. Content held back by a skipped flush is written when the buffer
+ * fills, by the next flush that is due, when the response completes, or by a deferred
+ * flush scheduled on the {@link Server#getScheduler() server scheduler}
+ * {@link #getFlushDelay()} ms after the last flush, whichever comes first.
+ * </p>
+ * The policy can be set on the {@link Server}, on a
+ * {@link org.eclipse.jetty.server.handler.ContextHandler} or for a single response
+ * with {@link HttpOutput#setFlushPolicy(FlushPolicy)}.
+ */
+public class FlushPolicy
+{
+    public final static int
+        MODE_ALWAYS=0,
+        MODE_WHEN_FULL=1,
+        MODE_THRESHOLD=2;
+
+    /** Every flush writes, the default */
+    public final static FlushPolicy ALWAYS=new FlushPolicy(MODE_ALWAYS,0,0);
+
+    /** Flushes are skipped, content is written when the buffer is full, the response completes or {@link #DEFAULT_FLUSH_DELAY} ms later */
+    public final static FlushPolicy WHEN_FULL=new FlushPolicy(MODE_WHEN_FULL,0,0);
+
+    /** The ms after which skipped flushes are written if the policy has no delay of its own */
+    public final static long DEFAULT_FLUSH_DELAY=1000;
+
+    private final int _mode;
+    private final int _size;
+    private final long _delay;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param size A flush writes if at least this many bytes were written since the last flush
+     * @param delay A flush writes if at least this many ms have passed since the last flush, or 0 to only use the size
+     * @return A policy that skips flushes until the size or delay is reached
+     */
+    public static FlushPolicy threshold(int size, long delay)
+    {
+        return new FlushPolicy(MODE_THRESHOLD,size,delay);
+    }
+
+    /* ------------------------------------------------------------ */
+    private FlushPolicy(int mode, int size, long delay)
+    {
+        _mode=mode;
+        _size=size;
+        _delay=delay;
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getMode()
+    {
+        return _mode;
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getSize()
+    {
+        return _size;
+    }
+
+    /* ------------------------------------------------------------ */
+    public long getDelay()
+    {
+        return _delay;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The ms after the last flush at which a skipped flush is written by a deferred flush
+     */
+    public long getFlushDelay()
+    {
+        return _delay>0?_delay:DEFAULT_FLUSH_DELAY;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param pending The bytes written since the last flush
+     * @param flushed The time in ms of the last flush, or 0 if there was none
+     * @return true if an explicit flush can be skipped
+     */
+    public boolean isCoalesced(long pending, long flushed)
+    {
+        switch (_mode)
+        {
+            case MODE_WHEN_FULL:
+                return true;
+
+            case MODE_THRESHOLD:
+                if (pending>=_size)
+                    return false;
+                return _delay<=0 || System.currentTimeMillis()-flushed<_delay;
+
+            default:
+                return false;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        switch (_mode)
+        {
+            case MODE_WHEN_FULL:
+                return "FlushPolicy{WHEN_FULL}";
+            case MODE_THRESHOLD:
+                return "FlushPolicy{THRESHOLD,"+_size+","+_delay+"ms}";
+            default:
+                return "FlushPolicy{ALWAYS}";
+        }
+    }
+}
@@ -0,0 +1,352 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2016 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeaderValues;
+import org.eclipse.jetty.http.HttpHeaders;
+import org.eclipse.jetty.http.HttpMethods;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+
+/* ------------------------------------------------------------ */
+/** Gzip content-encoding stage of a {@link HttpOutput}.
+ * <p>
+ * Whether to compress is decided on the first write of each response, from the
+ * {@link Compression} settings and the request and response headers. While the
+ * content length is unknown, content is deferred until it reaches the minimum
+ * size; if the response completes before that, it is written uncompressed.
+ * </p>
+ * <p>
+ * Compressed content is produced into a buffer kept for the life of the
+ * connection. The {@link Deflater} is borrowed from the pool for one response only.
+ * </p>
+ */
+class GzipStage
+{
+    private static final int UNDECIDED=0;
+    private static final int DEFERRED=1;
+    private static final int COMPRESSING=2;
+    private static final int OFF=3;
+
+    private static final byte[] GZIP_HEADER =
+    { (byte)0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff };
+    private static final int GZIP_TRAILER_SIZE=8;
+
+    private final HttpOutput _out;
+    private final Compression _compression;
+    private final CRC32 _crc=new CRC32();
+    private int _state=UNDECIDED;
+    private Deflater _deflater;
+    private byte[] _deferred;
+    private int _deferredLength;
+    private ByteArrayBuffer _deflated;
+    private boolean _varyAdded;
+
+    /* ------------------------------------------------------------ */
+    GzipStage(HttpOutput out, Compression compression)
+    {
+        _out=out;
+        _compression=compression;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if the content was consumed by this stage, false if it should be written as is
+     */
+    boolean write(byte[] b, int off, int len) throws IOException
+    {
+        if (_state==UNDECIDED)
+            decide();
+
+        switch (_state)
+        {
+            case DEFERRED:
+                if (_deferredLength+len<=_deferred.length)
+                {
+                    System.arraycopy(b,off,_deferred,_deferredLength,len);
+                    _deferredLength+=len;
+                    return true;
+                }
+                start();
+                deflate(b,off,len);
+                return true;
+
+            case COMPRESSING:
+                deflate(b,off,len);
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Push compressed content through to the generator, starting compression if it was deferred.
+     * Must be called before the response is committed by the flush.
+     */
+    void flush() throws IOException
+    {
+        if (_state==DEFERRED)
+            start();
+        if (_state==COMPRESSING)
+        {
+            while (deflated(Deflater.SYNC_FLUSH))
+                continue;
+            writeDeflated();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Write the last of the content. Must be called before the response is completed.
+     */
+    void finish() throws IOException
+    {
+        switch (_state)
+        {
+            case DEFERRED:
+                _state=OFF;
+                if (_deferredLength>0)
+                {
+                    int length=_deferredLength;
+                    _deferredLength=0;
+                    _out.write(_deferred,0,length);
+                }
+                break;
+
+            case COMPRESSING:
+                _deflater.finish();
+                while (!_deflater.finished())
+                    deflated(Deflater.NO_FLUSH);
+                if (_deflated.space()<GZIP_TRAILER_SIZE)
+                    writeDeflated();
+                putInt((int)_crc.getValue());
+                putInt((int)_deflater.getBytesRead());
+                writeDeflated();
+                reset();
+                _state=OFF;
+                break;
+
+            case UNDECIDED:
+                _state=OFF;
+                break;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if content written is being compressed, so its length is not known
+     */
+    boolean isCompressing()
+    {
+        return _state==COMPRESSING;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Decide, if not yet done, whether to compress the current response.
+     * @return true if its content is written as is, so need not go through {@link #write(byte[], int, int)}
+     */
+    boolean isPassThrough() throws IOException
+    {
+        if (_state==UNDECIDED)
+            decide();
+        return _state==OFF;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Forget the current response, returning the deflater to the pool.
+     */
+    void reset()
+    {
+        if (_deflater!=null)
+        {
+            _compression.returnDeflater(_deflater);
+            _deflater=null;
+        }
+        if (_deflated!=null)
+            _deflated.clear();
+        _deferredLength=0;
+        _varyAdded=false;
+        _state=UNDECIDED;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Forget the content of the current response, as its buffer has been reset before
+     * commit. The headers added by this stage are removed, so that the content written
+     * next, such as an error page, is not labelled as gzip.
+     */
+    void discard()
+    {
+        HttpFields fields=_out._connection.getResponseFields();
+        if (_state==COMPRESSING)
+            fields.remove(HttpHeaders.CONTENT_ENCODING_BUFFER);
+        if (_varyAdded)
+            removeVary(fields);
+        reset();
+    }
+
+    /* ------------------------------------------------------------ */
+    private void decide() throws IOException
+    {
+        _state=OFF;
+
+        AbstractHttpConnection connection=_out._connection;
+        Response response=connection.getResponse();
+        if (response.isCommitted() || connection.isIncluding())
+            return;
+        int status=response.getStatus();
+        if (status<200 || status==204 || status==206 || status==304)
+            return;
+        HttpFields fields=connection.getResponseFields();
+        if (fields.containsKey(HttpHeaders.CONTENT_ENCODING_BUFFER))
+            return;
+        if (!_compression.isCompressible(response.getContentType()))
+            return;
+
+        // The content now depends on the Accept-Encoding, whether or not this client accepts gzip
+        addVary(fields);
+
+        if (HttpMethods.HEAD.equals(connection.getRequest().getMethod()))
+            return;
+        if (!_compression.acceptsGzip(connection.getRequestFields()))
+            return;
+
+        long length=fields.getLongField(HttpHeaders.CONTENT_LENGTH_BUFFER);
+        int min=_compression.getMinSize();
+        if (length>=0 && length<min)
+            return;
+
+        if (length<0 && min>0)
+        {
+            if (_deferred==null || _deferred.length<min)
+                _deferred=new byte[min];
+            _deferredLength=0;
+            _state=DEFERRED;
+        }
+        else
+            start();
+    }
+
+    /* ------------------------------------------------------------ */
+    private void addVary(HttpFields fields)
+    {
+        Enumeration<String> vary=fields.getValues(HttpHeaders.VARY);
+        while (vary.hasMoreElements())
+        {
+            String value=vary.nextElement();
+            if (value.indexOf('*')>=0 || value.toLowerCase().indexOf("accept-encoding")>=0)
+                return;
+        }
+        fields.add(HttpHeaders.VARY_BUFFER,HttpHeaders.ACCEPT_ENCODING_BUFFER);
+        _varyAdded=true;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* Remove the Accept-Encoding value added by addVary, keeping any others */
+    private void removeVary(HttpFields fields)
+    {
+        List<String> values=Collections.list(fields.getValues(HttpHeaders.VARY));
+        int added=values.size();
+        while (added-->0 && !HttpHeaders.ACCEPT_ENCODING.equalsIgnoreCase(values.get(added)))
+            continue;
+        fields.remove(HttpHeaders.VARY_BUFFER);
+        for (int i=0;i<values.size();i++)
+        {
+            if (i!=added)
+                fields.add(HttpHeaders.VARY,values.get(i));
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void start() throws IOException
+    {
+        HttpFields fields=_out._connection.getResponseFields();
+        fields.remove(HttpHeaders.CONTENT_LENGTH_BUFFER);
+        fields.put(HttpHeaders.CONTENT_ENCODING_BUFFER,HttpHeaderValues.GZIP_BUFFER);
+        _out._generator.setContentLength(-1);
+
+        _deflater=_compression.getDeflater();
+        _crc.reset();
+        if (_deflated==null || _deflated.capacity()!=_compression.getBufferSize())
+            _deflated=new ByteArrayBuffer(_compression.getBufferSize());
+        _deflated.clear();
+        _deflated.put(GZIP_HEADER);
+        _state=COMPRESSING;
+
+        if (_deferredLength>0)
+        {
+            int length=_deferredLength;
+            _deferredLength=0;
+            deflate(_deferred,0,length);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void deflate(byte[] b, int off, int len) throws IOException
+    {
+        _crc.update(b,off,len);
+        _deflater.setInput(b,off,len);
+        while (!_deflater.needsInput())
+            deflated(Deflater.NO_FLUSH);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Deflate into the buffer, writing it out when it fills.
+     * @return true if the buffer was filled, so there may be more output pending
+     */
+    private boolean deflated(int flush) throws IOException
+    {
+        int space=_deflated.space();
+        int n=_deflater.deflate(_deflated.array(),_deflated.putIndex(),space,flush);
+        _deflated.setPutIndex(_deflated.putIndex()+n);
+        if (n<space)
+            return false;
+        writeDeflated();
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    private void writeDeflated() throws IOException
+    {
+        if (_deflated.length()>0)
+            _out.write(_deflated);
+        _deflated.clear();
+    }
+
+    /* ------------------------------------------------------------ */
+    private void putInt(int i)
+    {
+        _deflated.put((byte)i);
+        _deflated.put((byte)(i>>8));
+        _deflated.put((byte)(i>>16));
+        _deflated.put((byte)(i>>24));
+    }
+}
@@ -31,6 +31,11 @@ public class HttpInput extends ServletInputStream
     protected final AbstractHttpConnection _connection;
     protected final HttpParser _parser;
 
+    private volatile ReadListener _listener;
+    private volatile boolean _waiting; // isReady() returned false, notify the listener when data arrives
+    private boolean _readable; // the endpoint was found readable, so a read is worth trying
+    private boolean _allDataRead;
+
     /* ------------------------------------------------------------ */
     public HttpInput(AbstractHttpConnection connection)
     {
@@ -53,15 +58,28 @@ public class HttpInput extends ServletInputStream
     /* ------------------------------------------------------------ */
     /* 
      * @see java.io.InputStream#read(byte[], int, int)
+     * In non blocking mode (a {@link ReadListener} is set) this never blocks and
+     * returns 0 if no content is available, which is only expected if {@link #isReady()}
+     * was not called first.
      */
     @Override
     public int read(byte[] b, int off, int len) throws IOException
     {
         int l=-1;
-        Buffer content=_parser.blockForContent(_connection.getMaxIdleTime());
-        if (content!=null)
-            l= content.get(b, off, len);
-        else if (_connection.isEarlyEOF())
+        if (_listener!=null)
+        {
+            l=_parser.readContent(b, off, len);
+            if (l==0)
+                _readable=false;
+        }
+        else
+        {
+            Buffer content=_parser.blockForContent(_connection.getMaxIdleTime());
+            if (content!=null)
+                l= content.get(b, off, len);
+        }
+
+        if (l<0 && _connection.isEarlyEOF())
             throw new EofException("early EOF");
         return l;
     }
@@ -72,4 +90,133 @@ public class HttpInput extends ServletInputStream
     {
         return _parser.available();
     }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Switch this input to non blocking mode. The listener is called back
+     * when content can be read without blocking and when all content has been read.
+     * While the application is not consuming (that is until {@link #isReady()}
+     * returns false) the connection does not read from the network, so a slow
+     * consumer applies back pressure to the client instead of buffering.
+     * @param listener the listener
+     */
+    public void setReadListener(ReadListener listener)
+    {
+        if (listener==null)
+            throw new NullPointerException("listener");
+        if (_listener!=null)
+            throw new IllegalStateException("ReadListener already set");
+        _listener=listener;
+
+        if (_parser.isContentReady())
+            dataAvailable();
+        else
+        {
+            _waiting=true;
+            _connection.contentWanted();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if a read can be done without blocking. If false the
+     * {@link ReadListener} will be called once content is available.
+     */
+    public boolean isReady()
+    {
+        if (_readable || _parser.isContentReady())
+            return true;
+
+        _waiting=true;
+        _connection.contentWanted();
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if all the content has been read
+     */
+    public boolean isFinished()
+    {
+        return _parser.isContentComplete();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if the application is waiting for content, ie read interest is wanted
+     */
+    public boolean isWaiting()
+    {
+        return _waiting;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if a {@link ReadListener} has been set
+     */
+    public boolean isAsync()
+    {
+        return _listener!=null;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Called by the connection when the endpoint is readable (or content is already buffered)
+     * to notify the listener.
+     * @return true if the listener was called
+     */
+    public boolean dataAvailable()
+    {
+        ReadListener listener=_listener;
+        if (listener==null || _allDataRead)
+            return false;
+
+        _waiting=false;
+        _readable=true;
+        try
+        {
+            if (!isFinished())
+                listener.onDataAvailable();
+            if (isFinished() && !_allDataRead)
+            {
+                _allDataRead=true;
+                listener.onAllDataRead();
+            }
+        }
+        catch(Throwable e)
+        {
+            _allDataRead=true;
+            listener.onError(e);
+        }
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Forget the listener of the previous request.
+     */
+    void recycle()
+    {
+        _listener=null;
+        _waiting=false;
+        _readable=false;
+        _allDataRead=false;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /**
+     * Callback for non blocking reads of the request content.
+     */
+    public interface ReadListener
+    {
+        /** Content can be read without blocking. Read while {@link HttpInput#isReady()} is true. */
+        void onDataAvailable() throws IOException;
+
+        /** All the content has been read. */
+        void onAllDataRead() throws IOException;
+
+        /** Reading failed. */
+        void onError(Throwable t);
+    }
 }
@@ -20,11 +20,16 @@ package org.eclipse.jetty.server;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletOutputStream;
 
 import org.eclipse.jetty.http.AbstractGenerator;
 import org.eclipse.jetty.http.Generator;
+import org.eclipse.jetty.http.HttpGenerator;
 import org.eclipse.jetty.io.Buffer;
 import org.eclipse.jetty.io.ByteArrayBuffer;
 import org.eclipse.jetty.io.EofException;
@@ -45,11 +50,27 @@ public class HttpOutput extends ServletOutputStream
     protected final AbstractGenerator _generator;
     private boolean _closed;
     private ByteArrayBuffer _onebyte;
+    private ByteArrayBuffer _wrapper;
+    private GzipStage _gzip;
+    private FlushPolicy _flushPolicy=FlushPolicy.ALWAYS;
+    private long _flushedWritten; // content written at the last flush
+    private long _flushedTime;
+    private ScheduledFuture<?> _deferredFlush; // guarded by this
+    private boolean _direct; // content is being put by prepareDirect, guarded by this
+    private final Runnable _deferredFlushTask=new Runnable()
+    {
+        public void run()
+        {
+            deferredFlush();
+        }
+    };
+
+    private volatile WriteListener _writeListener;
+    private volatile boolean _writeWaiting; // isReady() returned false, notify the listener when writable
     
     // These are held here for reuse by Writer
     String _characterEncoding;
     Writer _converter;
-    char[] _chars;
     ByteArrayOutputStream2 _bytes;
 
     /* ------------------------------------------------------------ */
@@ -57,6 +78,7 @@ public class HttpOutput extends ServletOutputStream
     {
         _connection=connection;
         _generator=(AbstractGenerator)connection.getGenerator();
+        resetFlushPolicy();
     }
 
     /* ------------------------------------------------------------ */
@@ -92,19 +114,244 @@ public class HttpOutput extends ServletOutputStream
     {
         _closed=false;
     }
+
+    /* ------------------------------------------------------------ */
+    public FlushPolicy getFlushPolicy()
+    {
+        return _flushPolicy;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set the flush policy for the current response. It is reset to the server
+     * policy for each request.
+     * @param policy The policy, or null for {@link FlushPolicy#ALWAYS}
+     */
+    public void setFlushPolicy(FlushPolicy policy)
+    {
+        _flushPolicy=policy==null?FlushPolicy.ALWAYS:policy;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if an explicit flush can be skipped under the flush policy. Non blocking
+     * output is never coalesced.
+     */
+    public boolean isFlushCoalesced()
+    {
+        return _writeListener==null && _flushPolicy.isCoalesced(_generator.getContentWritten()-_flushedWritten,_flushedTime);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Skip an explicit flush if the flush policy allows. The response is still committed,
+     * as a flush must, but the content is left buffered and a deferred flush is scheduled
+     * to write it {@link FlushPolicy#getFlushDelay()} ms after the last flush, unless a
+     * write, flush or completion gets there first.
+     * @return true if the flush was skipped, false if the caller must flush now
+     */
+    boolean coalesceFlush() throws IOException
+    {
+        synchronized (this)
+        {
+            if (!isFlushCoalesced() || !scheduleDeferredFlush())
+                return false;
+            if (!_generator.isCommitted())
+            {
+                flushCompressed();
+                _connection.commitResponse(Generator.MORE);
+            }
+            return true;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Cancel any deferred flush. Called before the connection uses the generator without
+     * holding the lock of this output: to flush, send content, complete or reset.
+     */
+    void cancelDeferredFlush()
+    {
+        synchronized (this)
+        {
+            if (_deferredFlush!=null)
+            {
+                _deferredFlush.cancel(false);
+                _deferredFlush=null;
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* @return false if there is no scheduler, as the server is not started or is stopping */
+    private boolean scheduleDeferredFlush()
+    {
+        if (_deferredFlush!=null)
+            return true;
+        Server server=_connection.getServer();
+        ScheduledExecutorService scheduler=server==null?null:server.getScheduler();
+        if (scheduler==null)
+            return false;
+        long delay=_flushPolicy.getFlushDelay();
+        if (_flushedTime>0)
+            delay=Math.max(0,_flushedTime+delay-System.currentTimeMillis());
+        try
+        {
+            _deferredFlush=scheduler.schedule(_deferredFlushTask,delay,TimeUnit.MILLISECONDS);
+        }
+        catch(RejectedExecutionException e)
+        {
+            return false;
+        }
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* Runs on the scheduler. Writes what the endpoint takes without blocking, and is rescheduled for the rest. */
+    private void deferredFlush()
+    {
+        synchronized (this)
+        {
+            if (_deferredFlush==null)
+                return; // cancelled
+            _deferredFlush=null;
+            if (_closed || !_generator.isCommitted() || _generator.isComplete())
+                return;
+            if (_direct)
+            {
+                scheduleDeferredFlush();
+                return;
+            }
+            try
+            {
+                flushCompressed();
+                _generator.flushBuffer();
+                flushed();
+                if (_generator instanceof HttpGenerator && !((HttpGenerator)_generator).isEmpty())
+                    scheduleDeferredFlush();
+            }
+            catch(IOException e)
+            {
+                // seen again by the next write or by the completion of the response
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the compression stage if the server has {@link Compression} configured, else null
+     */
+    private GzipStage gzip()
+    {
+        if (_writeListener!=null)
+            return null;
+        if (_gzip==null)
+        {
+            Server server=_connection.getServer();
+            Compression compression=server==null?null:server.getCompression();
+            if (compression!=null)
+                _gzip=new GzipStage(this,compression);
+        }
+        return _gzip;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if the content is being compressed, so its length is not known
+     */
+    public boolean isCompressing()
+    {
+        return _gzip!=null && _gzip.isCompressing();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Flush any content held by the compression stage. Called before the response is committed by a flush.
+     */
+    protected void flushCompressed() throws IOException
+    {
+        if (_gzip!=null)
+            _gzip.flush();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Write the last of any content held by the compression stage. Called before the response is completed.
+     */
+    protected void completeCompressed() throws IOException
+    {
+        if (_gzip!=null && !_closed)
+            _gzip.finish();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Discard the state of the compression stage and the headers it added, as the
+     * response buffer has been reset before commit.
+     */
+    void resetCompressed()
+    {
+        if (_gzip!=null)
+            _gzip.discard();
+    }
     
     /* ------------------------------------------------------------ */
     @Override
     public void flush() throws IOException
     {
-        _generator.flush(getMaxIdleTime());
+        if (_writeListener!=null)
+        {
+            if (_generator.isCommitted())
+                _generator.flushBuffer();
+        }
+        else
+            _generator.flush(getMaxIdleTime());
+        flushed();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Note a flush, for the flush policy.
+     */
+    void flushed()
+    {
+        cancelDeferredFlush();
+        _flushedWritten=_generator.getContentWritten();
+        if (_flushPolicy.getDelay()>0)
+            _flushedTime=System.currentTimeMillis();
     }
 
     /* ------------------------------------------------------------ */
     @Override
     public void write(byte[] b, int off, int len) throws IOException
     {
-        write(new ByteArrayBuffer(b,off,len));
+        if (_closed)
+            throw new IOException("Closed");
+        GzipStage gzip=gzip();
+        if (gzip!=null && gzip.write(b,off,len))
+            return;
+
+        // A non blocking write may leave the content with the generator, so it cannot share a wrapper
+        if (_writeListener!=null)
+        {
+            write(new ByteArrayBuffer(b,off,len));
+            return;
+        }
+
+        // The generator either copies the content or writes it directly from the array,
+        // and write(Buffer) does not return until it is done with it, so the wrapper is reused.
+        if (_wrapper==null)
+            _wrapper=new ByteArrayBuffer(b,off,len);
+        else
+            _wrapper.wrap(b,off,len);
+        try
+        {
+            write(_wrapper);
+        }
+        finally
+        {
+            _wrapper.clear();
+        }
     }
 
     /* ------------------------------------------------------------ */
@@ -114,7 +361,7 @@ public class HttpOutput extends ServletOutputStream
     @Override
     public void write(byte[] b) throws IOException
     {
-        write(new ByteArrayBuffer(b));
+        write(b,0,b.length);
     }
 
     
@@ -130,16 +377,34 @@ public class HttpOutput extends ServletOutputStream
         else
             _onebyte.clear();
         _onebyte.put((byte)b);
+        GzipStage gzip=gzip();
+        if (gzip!=null && gzip.write(_onebyte.array(),0,1))
+            return;
         write(_onebyte);
     }
 
     /* ------------------------------------------------------------ */
-    private void write(Buffer buffer) throws IOException
+    void write(Buffer buffer) throws IOException
+    {
+        synchronized (this)
+        {
+            writeBuffer(buffer);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void writeBuffer(Buffer buffer) throws IOException
     {
         if (_closed)
             throw new IOException("Closed");
         if (!_generator.isOpen())
             throw new EofException();
+
+        if (_writeListener!=null)
+        {
+            writeAsync(buffer);
+            return;
+        }
         
         // Block until we can add _content.
         while (_generator.isBufferFull())
@@ -171,6 +436,234 @@ public class HttpOutput extends ServletOutputStream
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Prepare for content to be encoded straight into the generator buffer,
+     * {@link AbstractGenerator#getUncheckedBuffer()}, blocking until it has space.
+     * A positive return must be followed by {@link #completeDirect()} once the
+     * content has been put.
+     * @param min The least space worth having
+     * @return The space that may be put, or 0 if the content must be written with
+     * {@link #write(byte[], int, int)}: while compressing, for non blocking writes,
+     * or if the buffer has no array or less than the minimum space.
+     */
+    int prepareDirect(int min) throws IOException
+    {
+        synchronized (this)
+        {
+            int space=prepareDirectSpace(min);
+            _direct=space>0;
+            return space;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private int prepareDirectSpace(int min) throws IOException
+    {
+        if (_closed)
+            throw new IOException("Closed");
+        if (_writeListener!=null)
+            return 0;
+        GzipStage gzip=gzip();
+        if (gzip!=null && !gzip.isPassThrough())
+            return 0;
+        if (!_generator.isOpen())
+            throw new EofException();
+
+        while (_generator.isBufferFull())
+        {
+            _generator.blockForOutput(getMaxIdleTime());
+            if (_closed)
+                throw new IOException("Closed");
+            if (!_generator.isOpen())
+                throw new EofException();
+        }
+
+        int max=_generator.prepareUncheckedAddContent();
+        if (max<0)
+            return 0;
+        Buffer buffer=_generator.getUncheckedBuffer();
+        int space=Math.min(max,buffer.space());
+        if (space<min || buffer.array()==null)
+        {
+            _generator.completeUncheckedAddContent();
+            return 0;
+        }
+        return space;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Complete content put by {@link #prepareDirect(int)}, as {@link #write(Buffer)} would.
+     */
+    void completeDirect() throws IOException
+    {
+        synchronized (this)
+        {
+            _direct=false;
+            completeDirectContent();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void completeDirectContent() throws IOException
+    {
+        _generator.completeUncheckedAddContent();
+
+        if (_generator.isAllContentWritten())
+        {
+            flush();
+            close();
+        }
+        else if (_generator.isBufferFull())
+            _connection.commitResponse(Generator.MORE);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Add content without blocking. Whatever the endpoint does not take now is
+     * written when it becomes writable, and the {@link WriteListener} is then called.
+     */
+    private void writeAsync(Buffer buffer) throws IOException
+    {
+        if (_generator.isBufferFull())
+            throw new IllegalStateException("!ready");
+
+        _generator.addContent(buffer, Generator.MORE);
+
+        if (_generator.isAllContentWritten())
+            close();
+        else if (_generator.isBufferFull())
+        {
+            _connection.commitResponse(Generator.MORE);
+            _generator.flushBuffer();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Switch this output to non blocking mode. Writes then never block, and the
+     * listener is called back once content can be written again.
+     * After a write, the written array must not be modified until {@link #isReady()}
+     * returns true or the listener is called, as the endpoint may still be writing it.
+     * Compression is not applied to non blocking writes.
+     * @param listener the listener
+     */
+    public void setWriteListener(WriteListener listener) throws IOException
+    {
+        if (listener==null)
+            throw new NullPointerException("listener");
+        if (_writeListener!=null)
+            throw new IllegalStateException("WriteListener already set");
+        if (isCompressing())
+            throw new IllegalStateException("Compressing");
+        if (_gzip!=null)
+            _gzip.finish();
+        _writeListener=listener;
+
+        if (isReady())
+            writePossible();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if content can be written without blocking. If false the
+     * {@link WriteListener} will be called once the endpoint is writable and the
+     * pending content has been written.
+     */
+    public boolean isReady()
+    {
+        if (_writeListener==null)
+            return true;
+        try
+        {
+            if (_generator.isCommitted())
+                _generator.flushBuffer();
+        }
+        catch(IOException e)
+        {
+            // the next write will fail
+            return true;
+        }
+        if (!_generator.isBufferFull())
+            return true;
+
+        _writeWaiting=true;
+        _connection.writeWanted();
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if the application is waiting to write, ie write interest is wanted
+     */
+    public boolean isWriteWaiting()
+    {
+        return _writeWaiting;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if a {@link WriteListener} has been set
+     */
+    public boolean isAsync()
+    {
+        return _writeListener!=null;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Called by the connection when the endpoint is writable to write pending
+     * content and, once it is all written, notify the listener.
+     * @return true if the listener was called
+     */
+    public boolean writePossible()
+    {
+        WriteListener listener=_writeListener;
+        if (listener==null)
+            return false;
+
+        try
+        {
+            if (_generator.isCommitted())
+                _generator.flushBuffer();
+            if (_generator.isBufferFull())
+                return false;
+            _writeWaiting=false;
+            listener.onWritePossible();
+        }
+        catch(Throwable e)
+        {
+            _writeWaiting=false;
+            listener.onError(e);
+        }
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Forget the listener, the compression state and the flush policy of the previous response.
+     */
+    void recycle()
+    {
+        _writeListener=null;
+        _writeWaiting=false;
+        // Only between requests, an include or redispatch may continue a compressed response
+        if (_gzip!=null)
+            _gzip.reset();
+        resetFlushPolicy();
+    }
+
+    /* ------------------------------------------------------------ */
+    /* Once per request, as a policy set for the context or the response holds across includes and redispatches */
+    private void resetFlushPolicy()
+    {
+        Server server=_connection.getServer();
+        _flushPolicy=server==null?FlushPolicy.ALWAYS:server.getFlushPolicy();
+        _flushedWritten=0;
+        _flushedTime=0;
+    }
+
     /* ------------------------------------------------------------ */
     /* 
      * @see javax.servlet.ServletOutputStream#print(java.lang.String)
@@ -180,4 +673,18 @@ public class HttpOutput extends ServletOutputStream
     {
         write(s.getBytes());
     }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /**
+     * Callback for non blocking writes of the response content.
+     */
+    public interface WriteListener
+    {
+        /** Content can be written. Write while {@link HttpOutput#isReady()} is true. */
+        void onWritePossible() throws IOException;
+
+        /** Writing failed. */
+        void onError(Throwable t);
+    }
 }
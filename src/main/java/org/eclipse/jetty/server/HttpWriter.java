@@ -23,6 +23,7 @@ import java.io.OutputStreamWriter;
 import java.io.Writer;
 
 import org.eclipse.jetty.http.AbstractGenerator;
+import org.eclipse.jetty.io.Buffer;
 import org.eclipse.jetty.util.ByteArrayOutputStream2;
 import org.eclipse.jetty.util.StringUtil;
 
@@ -30,14 +31,18 @@ import org.eclipse.jetty.util.StringUtil;
  * A writer that can wrap a {@link HttpOutput} stream and provide
  * character encodings.
  *
- * The UTF-8 encoding is done by this class and no additional 
- * buffers or Writers are used.
+ * The ISO-8859-1 and UTF-8 encodings are done by this class and no additional 
+ * Writers are used. Where the {@link HttpOutput} allows it, chars are encoded
+ * straight into the generator buffer, else through a reused byte array.
  * The UTF-8 code was inspired by http://javolution.org
  */
 public class HttpWriter extends Writer
 {
     public static final int MAX_OUTPUT_CHARS = 512; 
     
+    // Room for the longest UTF-8 sequence, so a direct write always makes progress
+    private static final int MIN_DIRECT_SPACE = 4;
+    
     private static final int WRITE_CONV = 0;
     private static final int WRITE_ISO1 = 1;
     private static final int WRITE_UTF8 = 2;
@@ -46,6 +51,7 @@ public class HttpWriter extends Writer
     final AbstractGenerator _generator;
     int _writeMode;
     int _surrogate;
+    private int _end; // the index after the last byte put by an encode
 
     /* ------------------------------------------------------------ */
     public HttpWriter(HttpOutput out)
@@ -74,6 +80,7 @@ public class HttpWriter extends Writer
         }
         
         _out._characterEncoding = encoding;
+        _surrogate=0;
         if (_out._bytes==null)
             _out._bytes = new ByteArrayOutputStream2(MAX_OUTPUT_CHARS);
     }
@@ -95,203 +102,301 @@ public class HttpWriter extends Writer
     /* ------------------------------------------------------------ */
     @Override
     public void write (String s,int offset, int length) throws IOException
-    {   
-        while (length > MAX_OUTPUT_CHARS)
+    {
+        if (_writeMode==WRITE_CONV)
         {
-            write(s, offset, MAX_OUTPUT_CHARS);
-            offset += MAX_OUTPUT_CHARS;
-            length -= MAX_OUTPUT_CHARS;
+            // The converter takes the String as it is, it is not copied to a char array
+            while (length > 0)
+            {
+                int chars = length>MAX_OUTPUT_CHARS?MAX_OUTPUT_CHARS:length;
+                _out._bytes.reset();
+                Writer converter=getConverter();
+                converter.write(s, offset, chars);
+                converter.flush();
+                _out._bytes.writeTo(_out);
+                length-=chars;
+                offset+=chars;
+            }
         }
+        else
+            write(s,null,offset,length);
+    }
 
-        if (_out._chars==null)
+    /* ------------------------------------------------------------ */
+    @Override
+    public void write (char[] s,int offset, int length) throws IOException
+    {
+        if (_writeMode==WRITE_CONV)
         {
-            _out._chars = new char[MAX_OUTPUT_CHARS]; 
+            while (length > 0)
+            {
+                int chars = length>MAX_OUTPUT_CHARS?MAX_OUTPUT_CHARS:length;
+                _out._bytes.reset();
+                Writer converter=getConverter();
+                converter.write(s, offset, chars);
+                converter.flush();
+                _out._bytes.writeTo(_out);
+                length-=chars;
+                offset+=chars;
+            }
         }
-        char[] chars = _out._chars;
-        s.getChars(offset, offset + length, chars, 0);
-        write(chars, 0, length);
+        else
+            write(null,s,offset,length);
     }
 
     /* ------------------------------------------------------------ */
-    @Override
-    public void write (char[] s,int offset, int length) throws IOException
-    {              
-        HttpOutput out = _out; 
-        
+    /**
+     * Encode ISO-8859-1 or UTF-8 from either a String or a char array.
+     * The chars are encoded straight into the generator buffer when {@link HttpOutput}
+     * allows it, otherwise into <code>_out._bytes</code>, which is then written.
+     */
+    private void write (String str, char[] chars, int offset, int length) throws IOException
+    {
+        HttpOutput out = _out;
+        boolean utf8 = _writeMode==WRITE_UTF8;
+
         while (length > 0)
-        {  
-            out._bytes.reset();
-            int chars = length>MAX_OUTPUT_CHARS?MAX_OUTPUT_CHARS:length;
-            
-            switch (_writeMode)
+        {
+            int encoded;
+            int space=out.prepareDirect(MIN_DIRECT_SPACE);
+            if (space>0)
             {
-                case WRITE_CONV:
+                Buffer buffer=_generator.getUncheckedBuffer();
+                int put=buffer.putIndex();
+                encoded=encode(utf8,str,chars,offset,length,buffer.array(),put,put+space);
+                buffer.setPutIndex(_end);
+                out.completeDirect();
+            }
+            else
+            {
+                out._bytes.reset();
+                byte[] bytes=out._bytes.getBuf();
+                encoded=encode(utf8,str,chars,offset,length,bytes,0,bytes.length);
+                if (_end>0)
                 {
-                    Writer converter=getConverter();
-                    converter.write(s, offset, chars);
-                    converter.flush();
+                    out._bytes.setCount(_end);
+                    out._bytes.writeTo(out);
                 }
-                break;
+            }
+            length-=encoded;
+            offset+=encoded;
+        }
+    }
 
-                case WRITE_ISO1:
-                {
-                    byte[] buffer=out._bytes.getBuf();
-                    int bytes=out._bytes.getCount();
-                    
-                    if (chars>buffer.length-bytes)
-                        chars=buffer.length-bytes;
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of chars encoded. The index after the last byte put is left in <code>_end</code>.
+     */
+    private int encode(boolean utf8, String str, char[] chars, int offset, int length, byte[] buffer, int bytes, int limit)
+    {
+        if (utf8)
+            return str==null?encodeUTF8(chars,offset,length,buffer,bytes,limit):encodeUTF8(str,offset,length,buffer,bytes,limit);
+        return str==null?encodeISO1(chars,offset,length,buffer,bytes,limit):encodeISO1(str,offset,length,buffer,bytes,limit);
+    }
 
-                    for (int i = 0; i < chars; i++)
-                    {
-                        int c = s[offset+i];
-                        buffer[bytes++]=(byte)(c<256?c:'?'); // ISO-1 and UTF-8 match for 0 - 255
-                    }
-                    if (bytes>=0)
-                        out._bytes.setCount(bytes);
+    /* ------------------------------------------------------------ */
+    private int encodeISO1(char[] s, int offset, int length, byte[] buffer, int bytes, int limit)
+    {
+        int end=offset+Math.min(length,limit-bytes);
+        for (int i=offset;i<end;i++)
+        {
+            int c = s[i];
+            buffer[bytes++]=(byte)(c<256?c:'?'); // ISO-1 and UTF-8 match for 0 - 255
+        }
+        _end=bytes;
+        return end-offset;
+    }
 
-                    break;
-                }
+    /* ------------------------------------------------------------ */
+    private int encodeISO1(String s, int offset, int length, byte[] buffer, int bytes, int limit)
+    {
+        int end=offset+Math.min(length,limit-bytes);
+        for (int i=offset;i<end;i++)
+        {
+            int c = s.charAt(i);
+            buffer[bytes++]=(byte)(c<256?c:'?');
+        }
+        _end=bytes;
+        return end-offset;
+    }
 
-                case WRITE_UTF8:
-                {
-                    byte[] buffer=out._bytes.getBuf();
-                    int bytes=out._bytes.getCount();
+    /* ------------------------------------------------------------ */
+    /**
+     * Encode as many chars as fit between bytes and limit.
+     * <p>
+     * Runs of ASCII are copied by a loop bounded by both the chars and the space left, so
+     * it checks neither per char. A surrogate pair is encoded as one 4 byte sequence; a
+     * high surrogate that ends the chars is held in <code>_surrogate</code> until the next
+     * write. An unpaired surrogate is encoded as '?', never as a 3 byte sequence.
+     * </p>
+     */
+    private int encodeUTF8(char[] s, int offset, int length, byte[] buffer, int bytes, int limit)
+    {
+        int i=offset;
+        int end=offset+length;
 
-                    if (bytes+chars>buffer.length)
-                        chars=buffer.length-bytes;
+        if (_surrogate!=0)
+        {
+            char c=s[i];
+            if (Character.isLowSurrogate(c))
+            {
+                if (limit-bytes<4)
+                    return encoded(bytes,0);
+                bytes=putUTF8(buffer,bytes,Character.toCodePoint((char)_surrogate,c));
+                i++;
+            }
+            else
+                buffer[bytes++]=(byte)'?';
+            _surrogate=0;
+        }
 
-                    for (int i = 0; i < chars; i++)
-                    {
-                        int code = s[offset+i];
+        while (i<end)
+        {
+            int run=i+Math.min(end-i,limit-bytes);
+            while (i<run)
+            {
+                char c=s[i];
+                if (c>=0x80)
+                    break;
+                buffer[bytes++]=(byte)c;
+                i++;
+            }
+            if (i==end || bytes==limit)
+                break;
 
-                        // Do we already have a surrogate?
-                        if(_surrogate==0)
-                        {
-                            // No - is this char code a surrogate?
-                            if(Character.isHighSurrogate((char)code))
-                            {
-                                _surrogate=code; // UCS-?
-                                continue;
-                            }                            
-                        }
-                        // else handle a low surrogate
-                        else if(Character.isLowSurrogate((char)code))
-                        {
-                            code = Character.toCodePoint((char)_surrogate, (char)code); // UCS-4
-                        }
-                        // else UCS-2
-                        else
-                        {
-                            code=_surrogate; // UCS-2
-                            _surrogate=0; // USED
-                            i--;
-                        }
+            char c=s[i];
+            if (c<0x800)
+            {
+                if (limit-bytes<2)
+                    break;
+                buffer[bytes++]=(byte)(0xc0|(c>>6));
+                buffer[bytes++]=(byte)(0x80|(c&0x3f));
+                i++;
+            }
+            else if (!Character.isSurrogate(c))
+            {
+                if (limit-bytes<3)
+                    break;
+                buffer[bytes++]=(byte)(0xe0|(c>>12));
+                buffer[bytes++]=(byte)(0x80|((c>>6)&0x3f));
+                buffer[bytes++]=(byte)(0x80|(c&0x3f));
+                i++;
+            }
+            else if (Character.isHighSurrogate(c) && i+1==end)
+            {
+                _surrogate=c;
+                i++;
+            }
+            else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(s[i+1]))
+            {
+                if (limit-bytes<4)
+                    break;
+                bytes=putUTF8(buffer,bytes,Character.toCodePoint(c,s[i+1]));
+                i+=2;
+            }
+            else
+            {
+                buffer[bytes++]=(byte)'?';
+                i++;
+            }
+        }
+        return encoded(bytes,i-offset);
+    }
 
-                        if ((code & 0xffffff80) == 0) 
-                        {
-                            // 1b
-                            if (bytes>=buffer.length)
-                            {
-                                chars=i;
-                                break;
-                            }
-                            buffer[bytes++]=(byte)(code);
-                        }
-                        else
-                        {
-                            if((code&0xfffff800)==0)
-                            {
-                                // 2b
-                                if (bytes+2>buffer.length)
-                                {
-                                    chars=i;
-                                    break;
-                                }
-                                buffer[bytes++]=(byte)(0xc0|(code>>6));
-                                buffer[bytes++]=(byte)(0x80|(code&0x3f));
-                            }
-                            else if((code&0xffff0000)==0)
-                            {
-                                // 3b
-                                if (bytes+3>buffer.length)
-                                {
-                                    chars=i;
-                                    break;
-                                }
-                                buffer[bytes++]=(byte)(0xe0|(code>>12));
-                                buffer[bytes++]=(byte)(0x80|((code>>6)&0x3f));
-                                buffer[bytes++]=(byte)(0x80|(code&0x3f));
-                            }
-                            else if((code&0xff200000)==0)
-                            {
-                                // 4b
-                                if (bytes+4>buffer.length)
-                                {
-                                    chars=i;
-                                    break;
-                                }
-                                buffer[bytes++]=(byte)(0xf0|(code>>18));
-                                buffer[bytes++]=(byte)(0x80|((code>>12)&0x3f));
-                                buffer[bytes++]=(byte)(0x80|((code>>6)&0x3f));
-                                buffer[bytes++]=(byte)(0x80|(code&0x3f));
-                            }
-                            else if((code&0xf4000000)==0)
-                            {
-                                // 5b
-                                if (bytes+5>buffer.length)
-                                {
-                                    chars=i;
-                                    break;
-                                }
-                                buffer[bytes++]=(byte)(0xf8|(code>>24));
-                                buffer[bytes++]=(byte)(0x80|((code>>18)&0x3f));
-                                buffer[bytes++]=(byte)(0x80|((code>>12)&0x3f));
-                                buffer[bytes++]=(byte)(0x80|((code>>6)&0x3f));
-                                buffer[bytes++]=(byte)(0x80|(code&0x3f));
-                            }
-                            else if((code&0x80000000)==0)
-                            {
-                                // 6b
-                                if (bytes+6>buffer.length)
-                                {
-                                    chars=i;
-                                    break;
-                                }
-                                buffer[bytes++]=(byte)(0xfc|(code>>30));
-                                buffer[bytes++]=(byte)(0x80|((code>>24)&0x3f));
-                                buffer[bytes++]=(byte)(0x80|((code>>18)&0x3f));
-                                buffer[bytes++]=(byte)(0x80|((code>>12)&0x3f));
-                                buffer[bytes++]=(byte)(0x80|((code>>6)&0x3f));
-                                buffer[bytes++]=(byte)(0x80|(code&0x3f));
-                            }
-                            else
-                            {
-                                buffer[bytes++]=(byte)('?');
-                            } 
+    /* ------------------------------------------------------------ */
+    /**
+     * As {@link #encodeUTF8(char[], int, int, byte[], int, int)}, without copying the String.
+     */
+    private int encodeUTF8(String s, int offset, int length, byte[] buffer, int bytes, int limit)
+    {
+        int i=offset;
+        int end=offset+length;
 
-                            _surrogate=0; // USED
+        if (_surrogate!=0)
+        {
+            char c=s.charAt(i);
+            if (Character.isLowSurrogate(c))
+            {
+                if (limit-bytes<4)
+                    return encoded(bytes,0);
+                bytes=putUTF8(buffer,bytes,Character.toCodePoint((char)_surrogate,c));
+                i++;
+            }
+            else
+                buffer[bytes++]=(byte)'?';
+            _surrogate=0;
+        }
 
-                            if (bytes==buffer.length)
-                            {
-                                chars=i+1;
-                                break;
-                            }
-                        }
-                    }
-                    out._bytes.setCount(bytes);
+        while (i<end)
+        {
+            int run=i+Math.min(end-i,limit-bytes);
+            while (i<run)
+            {
+                char c=s.charAt(i);
+                if (c>=0x80)
                     break;
-                }
-                default:
-                    throw new IllegalStateException();
+                buffer[bytes++]=(byte)c;
+                i++;
+            }
+            if (i==end || bytes==limit)
+                break;
+
+            char c=s.charAt(i);
+            if (c<0x800)
+            {
+                if (limit-bytes<2)
+                    break;
+                buffer[bytes++]=(byte)(0xc0|(c>>6));
+                buffer[bytes++]=(byte)(0x80|(c&0x3f));
+                i++;
+            }
+            else if (!Character.isSurrogate(c))
+            {
+                if (limit-bytes<3)
+                    break;
+                buffer[bytes++]=(byte)(0xe0|(c>>12));
+                buffer[bytes++]=(byte)(0x80|((c>>6)&0x3f));
+                buffer[bytes++]=(byte)(0x80|(c&0x3f));
+                i++;
+            }
+            else if (Character.isHighSurrogate(c) && i+1==end)
+            {
+                _surrogate=c;
+                i++;
+            }
+            else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(s.charAt(i+1)))
+            {
+                if (limit-bytes<4)
+                    break;
+                bytes=putUTF8(buffer,bytes,Character.toCodePoint(c,s.charAt(i+1)));
+                i+=2;
+            }
+            else
+            {
+                buffer[bytes++]=(byte)'?';
+                i++;
             }
-            
-            out._bytes.writeTo(out);
-            length-=chars;
-            offset+=chars;
         }
+        return encoded(bytes,i-offset);
     }
-    
-    
+
+    /* ------------------------------------------------------------ */
+    private int encoded(int end, int chars)
+    {
+        _end=end;
+        return chars;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static int putUTF8(byte[] buffer, int bytes, int code)
+    {
+        buffer[bytes++]=(byte)(0xf0|(code>>18));
+        buffer[bytes++]=(byte)(0x80|((code>>12)&0x3f));
+        buffer[bytes++]=(byte)(0x80|((code>>6)&0x3f));
+        buffer[bytes++]=(byte)(0x80|(code&0x3f));
+        return bytes;
+    }
+
     /* ------------------------------------------------------------ */
     private Writer getConverter() throws IOException
     {
@@ -556,9 +556,33 @@ public class Request implements HttpServletRequest
      * @see javax.servlet.http.HttpServletRequest#getCookies()
      */
     public Cookie[] getCookies()
+    {
+        CookieCutter cookies=extractCookies();
+        if (cookies == null)
+            return null;
+        Cookie[] array=cookies.getCookies();
+        return array.length==0?null:array;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Get a cookie by name, without creating the other cookies of the request
+     * unless {@link #getCookies()} has already been called.
+     * @param name The cookie name
+     * @return The first cookie of the name, or null
+     */
+    public Cookie getCookie(String name)
+    {
+        CookieCutter cookies=extractCookies();
+        return cookies == null?null:cookies.getCookie(name);
+    }
+
+    /* ------------------------------------------------------------ */
+    /* Add the Cookie fields to the cutter, which scans them when a cookie is first asked for */
+    private CookieCutter extractCookies()
     {
         if (_cookiesExtracted)
-            return _cookies == null?null:_cookies.getCookies();
+            return _cookies;
 
         _cookiesExtracted = true;
 
@@ -577,7 +601,7 @@ public class Request implements HttpServletRequest
             }
         }
 
-        return _cookies == null?null:_cookies.getCookies();
+        return _cookies;
     }
 
     /* ------------------------------------------------------------ */
@@ -670,14 +694,8 @@ public class Request implements HttpServletRequest
      */
     public Locale getLocale()
     {
-        Enumeration enm = _connection.getRequestFields().getValues(HttpHeaders.ACCEPT_LANGUAGE,HttpFields.__separators);
-
-        // handle no locale
-        if (enm == null || !enm.hasMoreElements())
-            return Locale.getDefault();
-
-        // sort the list in quality order
-        List acceptLanguage = HttpFields.qualityList(enm);
+        // the values in quality order, cached by the raw header value
+        List<String> acceptLanguage = _connection.getRequestFields().getQualityValues(HttpHeaders.ACCEPT_LANGUAGE_BUFFER);
         if (acceptLanguage.size() == 0)
             return Locale.getDefault();
 
@@ -685,8 +703,7 @@ public class Request implements HttpServletRequest
 
         if (size > 0)
         {
-            String language = (String)acceptLanguage.get(0);
-            language = HttpFields.valueParameters(language,null);
+            String language = acceptLanguage.get(0);
             String country = "";
             int dash = language.indexOf('-');
             if (dash > -1)
@@ -707,14 +724,8 @@ public class Request implements HttpServletRequest
     public Enumeration getLocales()
     {
 
-        Enumeration enm = _connection.getRequestFields().getValues(HttpHeaders.ACCEPT_LANGUAGE,HttpFields.__separators);
-
-        // handle no locale
-        if (enm == null || !enm.hasMoreElements())
-            return Collections.enumeration(__defaultLocale);
-
-        // sort the list in quality order
-        List acceptLanguage = HttpFields.qualityList(enm);
+        // the values in quality order, cached by the raw header value
+        List<String> acceptLanguage = _connection.getRequestFields().getQualityValues(HttpHeaders.ACCEPT_LANGUAGE_BUFFER);
 
         if (acceptLanguage.size() == 0)
             return Collections.enumeration(__defaultLocale);
@@ -725,8 +736,7 @@ public class Request implements HttpServletRequest
         // convert to locals
         for (int i = 0; i < size; i++)
         {
-            String language = (String)acceptLanguage.get(i);
-            language = HttpFields.valueParameters(language,null);
+            String language = acceptLanguage.get(i);
             String country = "";
             int dash = language.indexOf('-');
             if (dash > -1)
@@ -822,6 +822,9 @@ public class Response implements HttpServletResponse
         // if the getHandling committed the response!
         if (isCommitted() || _connection.isIncluding())
             return;
+        // The length of compressed content is not known
+        if (_connection._out!=null && _connection._out.isCompressing())
+            return;
         _connection._generator.setContentLength(len);
         if (len>0)
         {
@@ -1054,6 +1057,8 @@ public class Response implements HttpServletResponse
      */
     public void flushBuffer() throws IOException
     {
+        if (_connection._out!=null && _connection._out.coalesceFlush())
+            return;
         _connection.flushResponse();
     }
 
@@ -1144,6 +1149,8 @@ public class Response implements HttpServletResponse
         if (isCommitted())
             throw new IllegalStateException("Committed");
         _connection.getGenerator().resetBuffer();
+        if (_connection._out!=null)
+            _connection._out.resetCompressed();
     }
 
     /* ------------------------------------------------------------ */
@@ -21,6 +21,9 @@ package org.eclipse.jetty.server;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Enumeration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 
 import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
@@ -82,6 +85,9 @@ public class Server extends HandlerWrapper implements Attributes
     private boolean _dumpAfterStart=false;
     private boolean _dumpBeforeStop=false;
     private boolean _uncheckedPrintWriter=false;
+    private Compression _compression; //gzip responses if set
+    private FlushPolicy _flushPolicy=FlushPolicy.ALWAYS;
+    private volatile ScheduledThreadPoolExecutor _scheduler; //deferred flushes
 
 
     /* ------------------------------------------------------------ */
@@ -277,6 +283,17 @@ public class Server extends HandlerWrapper implements Attributes
         if (_threadPool==null)
             setThreadPool(new QueuedThreadPool());
 
+        _scheduler=new ScheduledThreadPoolExecutor(1,new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread=new Thread(runnable,"Scheduler-"+hashCode());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        _scheduler.setRemoveOnCancelPolicy(true);
+
         try
         {
             super.doStart();
@@ -342,6 +359,11 @@ public class Server extends HandlerWrapper implements Attributes
 
         try {super.doStop(); } catch(Throwable e) { mex.add(e);}
 
+        ScheduledThreadPoolExecutor scheduler=_scheduler;
+        _scheduler=null;
+        if (scheduler!=null)
+            scheduler.shutdownNow();
+
         mex.ifExceptionThrow();
 
         if (getStopAtShutdown())
@@ -470,6 +492,51 @@ public class Server extends HandlerWrapper implements Attributes
         return _sendDateHeader;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The response compression settings, or null if responses are not compressed
+     */
+    public Compression getCompression()
+    {
+        return _compression;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param compression The response compression settings, or null to not compress responses
+     */
+    public void setCompression(Compression compression)
+    {
+        _compression = compression;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The default policy for explicit flushes of response content
+     */
+    public FlushPolicy getFlushPolicy()
+    {
+        return _flushPolicy;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The scheduler for short timed tasks such as deferred flushes, or null if the server is not started
+     */
+    public ScheduledExecutorService getScheduler()
+    {
+        return _scheduler;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param flushPolicy The default policy for explicit flushes of response content, or null for {@link FlushPolicy#ALWAYS}
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy)
+    {
+        _flushPolicy = flushPolicy==null?FlushPolicy.ALWAYS:flushPolicy;
+    }
+
     /* ------------------------------------------------------------ */
     /** 
      */
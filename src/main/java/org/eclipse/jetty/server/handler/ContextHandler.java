@@ -66,8 +66,10 @@ import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.io.Buffer;
 import org.eclipse.jetty.server.AbstractHttpConnection;
 import org.eclipse.jetty.server.Dispatcher;
+import org.eclipse.jetty.server.FlushPolicy;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.HandlerContainer;
+import org.eclipse.jetty.server.HttpOutput;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.util.Attributes;
@@ -143,6 +145,7 @@ public class ContextHandler extends ScopedHandler implements Attributes, Server.
     private int _maxFormKeys = Integer.getInteger("org.eclipse.jetty.server.Request.maxFormKeys",-1).intValue();
     private int _maxFormContentSize = Integer.getInteger("org.eclipse.jetty.server.Request.maxFormContentSize",-1).intValue();
     private boolean _compactPath = false;
+    private FlushPolicy _flushPolicy;
     private boolean _aliasesAllowed = false;
 
     private Object _contextListeners;
@@ -980,6 +983,10 @@ public class ContextHandler extends ScopedHandler implements Attributes, Server.
                     target = URIUtil.SLASH;
                     pathInfo = null;
                 }
+
+                // Set the flush policy of the response
+                if (_flushPolicy != null)
+                    ((HttpOutput)baseRequest.getConnection().getOutputStream()).setFlushPolicy(_flushPolicy);
             }
 
             // Set the classloader
@@ -1487,6 +1494,25 @@ public class ContextHandler extends ScopedHandler implements Attributes, Server.
         _compactPath = compactPath;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The policy for explicit flushes of responses in this context, or null to use the server policy
+     */
+    public FlushPolicy getFlushPolicy()
+    {
+        return _flushPolicy;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param flushPolicy
+     *            The policy for explicit flushes of responses in this context, or null to use the server policy
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy)
+    {
+        _flushPolicy = flushPolicy;
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     public String toString()
@@ -19,9 +19,16 @@
 package org.eclipse.jetty.server.handler;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -35,6 +42,7 @@ import org.eclipse.jetty.server.AbstractHttpConnection;
 import org.eclipse.jetty.server.Dispatcher;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.util.ByteArrayISO8859Writer;
+import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -43,7 +51,11 @@ import org.eclipse.jetty.util.log.Logger;
  * An ErrorHandler is registered with {@link ContextHandler#setErrorHandler(ErrorHandler)} or 
  * {@link org.eclipse.jetty.server.Server#addBean(Object)}.   
  * It is called by the HttpResponse.sendError method to write a error page.
- * 
+ * <p>
+ * Unless a subclass overrides how pages are written, pages without a stack trace
+ * are written from templates, pre-encoded once per status code, with only the
+ * escaped URI and any message other than the status reason filled in.
+ * </p>
  */
 public class ErrorHandler extends AbstractHandler
 {    
@@ -53,6 +65,21 @@ public class ErrorHandler extends AbstractHandler
     boolean _showStacks=true;
     boolean _showMessageInTitle=true;
     String _cacheControl="must-revalidate,no-cache,no-store";
+
+    private static final String PAGE_START="<html>\n<head>\n";
+    private static final String PAGE_BODY="</head>\n<body>";
+    private static final String PAGE_END="\n</body>\n</html>\n";
+
+    // Marks the variable parts of a page when rendering a template
+    private static final char MESSAGE_MARK='\uE000';
+    private static final char URI_MARK='\uE001';
+
+    private static final Set<String> __pageMethods=new HashSet<String>(Arrays.asList(
+        "handleErrorPage","writeErrorPage","writeErrorPageHead","writeErrorPageBody","writeErrorPageMessage",
+        "writeErrorPageStacks","write"));
+
+    private final boolean _templated=!overridesPage(getClass());
+    private volatile Template[] _templates=new Template[HttpStatus.MAX_CODE+1];
     
     /* ------------------------------------------------------------ */
     /* 
@@ -101,6 +128,15 @@ public class ErrorHandler extends AbstractHandler
         response.setContentType(MimeTypes.TEXT_HTML_8859_1);    
         if (_cacheControl!=null)
             response.setHeader(HttpHeaders.CACHE_CONTROL, _cacheControl);
+
+        int code=connection.getResponse().getStatus();
+        if (_templated && code>=0 && code<=HttpStatus.MAX_CODE &&
+            !(_showStacks && request.getAttribute("javax.servlet.error.exception")!=null))
+        {
+            writeTemplate(request,response,code,connection.getResponse().getReason());
+            return;
+        }
+
         ByteArrayISO8859Writer writer= new ByteArrayISO8859Writer(4096);
         handleErrorPage(request, writer, connection.getResponse().getStatus(), connection.getResponse().getReason());
         writer.flush();
@@ -123,11 +159,11 @@ public class ErrorHandler extends AbstractHandler
         if (message == null)
             message=HttpStatus.getMessage(code);
 
-        writer.write("<html>\n<head>\n");
+        writer.write(PAGE_START);
         writeErrorPageHead(request,writer,code,message);
-        writer.write("</head>\n<body>");
+        writer.write(PAGE_BODY);
         writeErrorPageBody(request,writer,code,message,showStacks);
-        writer.write("\n</body>\n</html>\n");
+        writer.write(PAGE_END);
     }
 
     /* ------------------------------------------------------------ */
@@ -155,6 +191,13 @@ public class ErrorHandler extends AbstractHandler
         writeErrorPageMessage(request,writer,code,message,uri);
         if (showStacks)
             writeErrorPageStacks(request,writer);
+        writePoweredBy(writer);
+    }
+
+    /* ------------------------------------------------------------ */
+    private void writePoweredBy(Writer writer)
+        throws IOException
+    {
         writer.write("<hr /><i><small>Powered by Jetty://</small></i>");
         for (int i= 0; i < 20; i++)
             writer.write("<br/>                                                \n");
@@ -236,6 +279,7 @@ public class ErrorHandler extends AbstractHandler
     public void setShowMessageInTitle(boolean showMessageInTitle)
     {
         _showMessageInTitle = showMessageInTitle;
+        _templates=new Template[HttpStatus.MAX_CODE+1];
     }
     
     
@@ -277,6 +321,165 @@ public class ErrorHandler extends AbstractHandler
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Write the page from the template for the code. The URI and a message other than
+     * the one the template was made with are escaped straight into bytes.
+     */
+    private void writeTemplate(HttpServletRequest request, HttpServletResponse response, int code, String message)
+        throws IOException
+    {
+        Template template=getTemplate(code);
+        if (message==null)
+            message=template._message;
+        byte[] uri=escape(request.getRequestURI());
+        byte[] reason=message==template._message || message.equals(template._message)?template._reason:escape(message);
+
+        int length=0;
+        for (int i=0;i<template._parts.length;i++)
+            length+=template._parts[i].length;
+        for (int i=0;i<template._marks.length;i++)
+            length+=template._marks[i]==URI_MARK?uri.length:reason.length;
+        response.setContentLength(length);
+
+        OutputStream out=response.getOutputStream();
+        for (int i=0;i<template._parts.length;i++)
+        {
+            out.write(template._parts[i]);
+            if (i<template._marks.length)
+                out.write(template._marks[i]==URI_MARK?uri:reason);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private Template getTemplate(int code)
+        throws IOException
+    {
+        Template[] templates=_templates;
+        Template template=templates[code];
+        if (template==null)
+        {
+            // Render the page as writeErrorPage would, with marks for the variable parts.
+            // A race just renders the same template twice.
+            StringWriter page=new StringWriter();
+            page.write(PAGE_START);
+            writeErrorPageHead(null,page,code,String.valueOf(MESSAGE_MARK));
+            page.write(PAGE_BODY);
+            writeErrorPageMessage(null,page,code,String.valueOf(MESSAGE_MARK),String.valueOf(URI_MARK));
+            writePoweredBy(page);
+            page.write(PAGE_END);
+
+            String message=HttpStatus.getMessage(code);
+            template=new Template(page.toString(),message,escape(message));
+            templates[code]=template;
+        }
+        return template;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Escape as {@link #write(Writer, String)} does, encoding as ISO-8859-1.
+     */
+    private static byte[] escape(String string)
+    {
+        if (string==null)
+            return new byte[0];
+
+        int length=0;
+        for (int i=0;i<string.length();i++)
+        {
+            char c=string.charAt(i);
+            if (c=='&')
+                length+=5;
+            else if (c=='<' || c=='>')
+                length+=4;
+            else if (Character.isHighSurrogate(c) && i+1<string.length() && Character.isLowSurrogate(string.charAt(i+1)))
+            {
+                length++;
+                i++;
+            }
+            else
+                length++;
+        }
+
+        byte[] bytes=new byte[length];
+        int b=0;
+        for (int i=0;i<string.length();i++)
+        {
+            char c=string.charAt(i);
+            switch(c)
+            {
+                case '&' :
+                    bytes[b++]='&'; bytes[b++]='a'; bytes[b++]='m'; bytes[b++]='p'; bytes[b++]=';';
+                    break;
+                case '<' :
+                    bytes[b++]='&'; bytes[b++]='l'; bytes[b++]='t'; bytes[b++]=';';
+                    break;
+                case '>' :
+                    bytes[b++]='&'; bytes[b++]='g'; bytes[b++]='t'; bytes[b++]=';';
+                    break;
+
+                default:
+                    if (Character.isISOControl(c) && !Character.isWhitespace(c) || c>0xff)
+                        bytes[b++]='?';
+                    else
+                        bytes[b++]=(byte)c;
+                    // a pair is one unmappable char
+                    if (Character.isHighSurrogate(c) && i+1<string.length() && Character.isLowSurrogate(string.charAt(i+1)))
+                        i++;
+            }
+        }
+        return bytes;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if the class changes how pages are written, so templates cannot be used
+     */
+    private static boolean overridesPage(Class<?> type)
+    {
+        for (Class<?> c=type;c!=ErrorHandler.class;c=c.getSuperclass())
+            for (Method method : c.getDeclaredMethods())
+                if (__pageMethods.contains(method.getName()))
+                    return true;
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /**
+     * A page split at its variable parts, each part encoded as ISO-8859-1.
+     */
+    private static class Template
+    {
+        final byte[][] _parts;
+        final char[] _marks; // the variable part after each part but the last
+        final String _message;
+        final byte[] _reason; // the message, escaped
+
+        Template(String page, String message, byte[] reason)
+        {
+            List<byte[]> parts=new ArrayList<byte[]>();
+            StringBuilder marks=new StringBuilder();
+            int start=0;
+            for (int i=0;i<page.length();i++)
+            {
+                char c=page.charAt(i);
+                if (c==MESSAGE_MARK || c==URI_MARK)
+                {
+                    parts.add(StringUtil.getBytes(page.substring(start,i),StringUtil.__ISO_8859_1));
+                    marks.append(c);
+                    start=i+1;
+                }
+            }
+            parts.add(StringUtil.getBytes(page.substring(start),StringUtil.__ISO_8859_1));
+            _parts=parts.toArray(new byte[parts.size()][]);
+            _marks=marks.toString().toCharArray();
+            _message=message;
+            _reason=reason;
+        }
+    }
+
     /* ------------------------------------------------------------ */
     public interface ErrorPageMapper
     {
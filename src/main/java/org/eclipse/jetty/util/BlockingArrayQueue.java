@@ -87,7 +87,7 @@ public class BlockingArrayQueue<E> extends AbstractList<E> implements BlockingQu
 
                 //4.更新信息
                 _elements[_tail] = e;
-                _tail %= (_tail+1)%_capacity;
+                _tail = (_tail+1)%_capacity;
                 not_empty = 0 == _size.getAndIncrement();
             } finally {
                 //5.解锁
@@ -137,7 +137,7 @@ public class BlockingArrayQueue<E> extends AbstractList<E> implements BlockingQu
                         System.arraycopy(_elements, head, elements, 0, cut);
                         //转移前面部分到队尾
                         new_tail = cut + _tail;
-                        System.arraycopy(_elements, 0, elements, cut, new_tail);
+                        System.arraycopy(_elements, 0, elements, cut, _tail);
                     }
 
                     //update
@@ -249,11 +249,43 @@ public class BlockingArrayQueue<E> extends AbstractList<E> implements BlockingQu
     }
 
     public int drainTo(Collection<? super E> c) {
-        throw new UnsupportedOperationException();
+        return drainTo(c, Integer.MAX_VALUE);
     }
 
+    /**
+     * 一次加锁从队头批量取出最多maxElements个元素，给线程池批量领取任务用
+     */
     public int drainTo(Collection<? super E> c, int maxElements) {
-        throw new UnsupportedOperationException();
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        if (maxElements <= 0 || _size.get() == 0) {
+            return 0;
+        }
+
+        int n = 0;
+        _headLock.lock();
+        try {
+            int size = _size.get();
+            n = size < maxElements ? size : maxElements;
+            int head = _head;
+            for (int i = 0; i < n; i++) {
+                c.add((E)_elements[head]);
+                _elements[head] = null;
+                head = (head + 1) % _capacity;
+            }
+            _head = head;
+            //只减一次计数，剩下还有就唤醒下一个等待者
+            if (_size.addAndGet(-n) > 0) {
+                _notEmpty.signal();
+            }
+        } finally {
+            _headLock.unlock();
+        }
+        return n;
     }
 
     @Override
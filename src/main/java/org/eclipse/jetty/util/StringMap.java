@@ -149,19 +149,25 @@ public class StringMap extends AbstractMap {
                     parent._children = new Node[_width];
                 }
                 parent._children[c%_width] = node;
+            }else {
+                _root = node;
+            }
+
+            //大小写不敏感时，另一种大小写的首字符所在的桶也要能找到这个节点，
+            //挂在拉链后面的节点也一样，不然用另一种大小写查就找不到
+            if (parent!=null && _ignoreCase) {
                 int oi=node._ochar[0]%_width;
-                if (node._ochar!=null && node._char[0]%_width!=oi) {
+                if (node._char[0]%_width!=oi) {
                     if (parent._children[oi]==null) {
                         parent._children[oi] = node;
                     } else {
                         Node n=parent._children[oi];
-                        while(n._next!=null)
+                        while(n!=node && n._next!=null)
                             n=n._next;
-                        n._next=node;
+                        if (n!=node)
+                            n._next=node;
                     }
                 }
-            }else {
-                _root = node;
             }
             break;
         }
@@ -264,6 +264,13 @@ public class URIUtil
     {
         if (path==null)
             return null;
+
+        // Fast path: without a % before any ; there is nothing to decode
+        int semi=path.indexOf(';');
+        int percent=path.indexOf('%');
+        if (percent<0 || semi>=0 && percent>semi)
+            return semi<0?path:path.substring(0,semi);
+
         // Array to hold all converted characters
         char[] chars=null;
         int n=0;
@@ -475,6 +482,10 @@ public class URIUtil
         if (path==null || path.length()==0)
             return path;
 
+        // Fast path: most paths have no "." or ".." segment, so are returned as they are
+        if (!hasDotSegment(path))
+            return path;
+
         int end=path.length();
         int start = path.lastIndexOf('/', end);
 
@@ -598,6 +609,27 @@ public class URIUtil
         return buf.toString();
     }
 
+    /* ------------------------------------------------------------ */
+    /* @return true if a segment of the path is "." or ".." */
+    private static boolean hasDotSegment(String path)
+    {
+        int end=path.length();
+        int i=path.indexOf('.');
+        while (i>=0)
+        {
+            if (i==0 || path.charAt(i-1)=='/')
+            {
+                int j=i+1;
+                if (j<end && path.charAt(j)=='.')
+                    j++;
+                if (j==end || path.charAt(j)=='/')
+                    return true;
+            }
+            i=path.indexOf('.',i+1);
+        }
+        return false;
+    }
+
     /* ------------------------------------------------------------ */
     /** Convert a path to a compact form.
      * All instances of "//" and "///" etc. are factored out to single "/" 
@@ -609,44 +641,30 @@ public class URIUtil
         if (path==null || path.length()==0)
             return path;
 
-        int state=0;
+        // Fast path: nothing to compact without a "//" before any query
+        int i=path.indexOf("//");
+        if (i<0)
+            return path;
+        int query=path.indexOf('?');
+        if (query>=0 && query<i)
+            return path;
+
+        // keep the first '/' and skip the second
+        int state=1;
         int end=path.length();
-        int i=0;
+        StringBuilder buf = new StringBuilder(path.length());
+        buf.append(path,0,i+1);
+        i+=2;
         
         loop:
         while (i<end)
-        {
-            char c=path.charAt(i);
-            switch(c)
-            {
-                case '?':
-                    return path;
-                case '/':
-                    state++;
-                    if (state==2)
-                        break loop;
-                    break;
-                default:
-                    state=0;
-            }
-            i++;
-        }
-        
-        if (state<2)
-            return path;
-        
-        StringBuffer buf = new StringBuffer(path.length());
-        buf.append(path,0,i);
-        
-        loop2:
-        while (i<end)
         {
             char c=path.charAt(i);
             switch(c)
             {
                 case '?':
                     buf.append(path,i,end);
-                    break loop2;
+                    break loop;
                 case '/':
                     if (state++==0)
                         buf.append(c);
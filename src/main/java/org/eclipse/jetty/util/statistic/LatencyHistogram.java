@@ -0,0 +1,102 @@
+package org.eclipse.jetty.util.statistic;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 低开销的延迟直方图
+ * 1. 按微秒取以2为底的对数分桶，第i个桶记录[2^(i-1), 2^i)微秒的样本，第0个桶记录不足1微秒的样本
+ * 2. 记录只需要几次原子自增，不加锁，适合放在线程池这种热路径上
+ * 3. 百分位只能精确到桶的上界，用来判断量级(排队几十微秒还是几百毫秒)足够了
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 40; //2^39微秒，约6天，再大的都算到最后一个桶
+
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _totalNanos = new AtomicLong();
+    private final AtomicLong _maxNanos = new AtomicLong();
+
+    /**
+     * 记录一个样本，单位纳秒
+     */
+    public void record(long nanos) {
+        if (nanos < 0) { //nanoTime理论上单调，防御一下
+            nanos = 0;
+        }
+        _buckets.incrementAndGet(bucketOf(nanos));
+        _count.incrementAndGet();
+        _totalNanos.addAndGet(nanos);
+
+        //只有变大的时候才需要CAS
+        long max = _maxNanos.get();
+        while (nanos > max && !_maxNanos.compareAndSet(max, nanos)) {
+            max = _maxNanos.get();
+        }
+    }
+
+    private static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return bucket < BUCKETS ? bucket : BUCKETS - 1;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            _buckets.set(i, 0);
+        }
+        _count.set(0);
+        _totalNanos.set(0);
+        _maxNanos.set(0);
+    }
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    public long getMax(TimeUnit unit) {
+        return unit.convert(_maxNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public double getMeanMicros() {
+        long count = _count.get();
+        return count == 0 ? 0.0 : _totalNanos.get() / 1000.0 / count;
+    }
+
+    /**
+     * 百分位(0~100)，返回所在桶的上界，单位微秒
+     */
+    public long getPercentileMicros(double percentile) {
+        long count = _count.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long)Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += _buckets.get(i);
+            if (seen >= target) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    /**
+     * 各个桶的快照，下标i的桶上界为2^i微秒
+     */
+    public long[] getBuckets() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = _buckets.get(i);
+        }
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d,mean=%.1fus,p50<=%dus,p99<=%dus,max=%dus",
+                getCount(), getMeanMicros(), getPercentileMicros(50), getPercentileMicros(99), getMax(TimeUnit.MICROSECONDS));
+    }
+}
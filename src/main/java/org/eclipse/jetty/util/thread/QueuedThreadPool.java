@@ -4,11 +4,15 @@ import org.eclipse.jetty.util.BlockingArrayQueue;
 import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.eclipse.jetty.util.component.AggregateLifeCycle;
 import org.eclipse.jetty.util.component.Dumpable;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.statistic.LatencyHistogram;
 
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 组成
@@ -39,8 +43,16 @@ import java.util.concurrent.atomic.AtomicInteger;
  * 1. min：只要超过最小，就要开始判断存活时间
  * 2. max：超过最大则不创建线程
  *
+ * 批量领取(jobBatchSize>1时开启)：
+ * 1. 一次drainTo领取一小批任务在本线程执行，减少队列加锁次数
+ * 2. 公平：每次最多领取 队列长度/(空闲线程数+1)，不让一个线程把任务都抢走
+ * 3. 偷取：领取的任务放在本线程的双端队列里，其他线程空闲下来(或者被叫醒)时可以从队头偷走，
+ * 本线程阻塞在某个任务里的时候，领取的其他任务不会被它一直占着；
+ * 4. 线程退出时剩下的任务插回队头，停止时剩下的任务丢弃并计数
+ *
  * 导出：
  * 1. 线程栈的导出(是否详细打印)
+ * 2. 统计信息：拒绝数，累计启动/退出线程数；开启statsOn后还有排队耗时和执行耗时的直方图
  *
  * 需要学习的点
  * 1. 如何停止线程池
@@ -48,6 +60,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  * 3. 一个线程池，如何创建，判断存活时间，领取任务，正常退出，并将计数部分去除
  */
 public class QueuedThreadPool extends AbstractLifeCycle implements ThreadPool,Executor, Dumpable {
+    private static final Logger LOG = Log.getLogger(QueuedThreadPool.class);
+
     //工作线程池
     private final ConcurrentLinkedQueue<Thread> _threads;
     //阻塞队列，因为可能要自定义长度所以不用final
@@ -59,6 +73,7 @@ public class QueuedThreadPool extends AbstractLifeCycle implements ThreadPool,Ex
     private int _maxThreads; //工作线程上限
     private int _minThreads; //线程池中需要保持的线程数量
     private int _maxQueued; //阻塞队列长度
+    private int _jobBatchSize; //每次最多领取的任务数，<=1就是一次poll一个
 
     private String _name; //线程名
     private int _priority;
@@ -70,6 +85,24 @@ public class QueuedThreadPool extends AbstractLifeCycle implements ThreadPool,Ex
     //启动计数
     private AtomicInteger _threadsStarted = new AtomicInteger(0);
 
+    //统计：计数器开销很小一直开着；直方图需要给每个任务打时间戳，由_statsOn控制
+    private volatile boolean _statsOn;
+    private final LatencyHistogram _queueLatency = new LatencyHistogram(); //dispatch入队到开始执行
+    private final LatencyHistogram _runLatency = new LatencyHistogram(); //开始执行到执行结束
+    private final AtomicLong _jobsRejected = new AtomicLong();
+    private final AtomicLong _jobsDropped = new AtomicLong(); //停止时领取了但没有执行的任务
+    private final AtomicLong _threadsStartedTotal = new AtomicLong();
+    private final AtomicLong _threadsExited = new AtomicLong();
+    private volatile long _lastQueueNanos; //最近一个任务的排队耗时，给过载保护判断用
+
+    //各工作线程领取了还没执行的任务，其他线程可以从这里偷
+    private final ConcurrentLinkedQueue<Deque<Runnable>> _claimed = new ConcurrentLinkedQueue<Deque<Runnable>>();
+    //领取了一批任务又有空闲线程的时候放进队列，叫醒一个空闲线程来偷，本身什么都不做
+    private static final Runnable STEAL = new Runnable() {
+        public void run() {
+        }
+    };
+
     public QueuedThreadPool(){
         _threads = new ConcurrentLinkedQueue<Thread>();
         _maxIdleTimeMs = 60000;
@@ -77,6 +110,7 @@ public class QueuedThreadPool extends AbstractLifeCycle implements ThreadPool,Ex
         _maxThreads = 254; //不知道为什么254和8
         _minThreads = 8;
         _maxQueued = -1; //若<0则使用_minThreads
+        _jobBatchSize = 1;
 
         _name = "qtq-"+hashCode();
         _priority = 5;
@@ -87,19 +121,32 @@ public class QueuedThreadPool extends AbstractLifeCycle implements ThreadPool,Ex
             private long lastTime = -1;
             public void run() {
                 boolean shrink = false;
+                Deque<Runnable> claimed = null; //每个线程自己领取的任务，其他线程可以偷走
                 try {
                     //1.若线程池启动就一直循环
                     while(isRunning()){
                         //2.若队列中有任务就一去领取
                         Runnable job = null;
-                        while (isRunning() && (job=_jobs.poll())!=null){
-                            runJob(job);
+                        if(_jobBatchSize > 1){
+                            if(claimed == null){
+                                claimed = new ConcurrentLinkedDeque<Runnable>();
+                                _claimed.add(claimed);
+                            }
+                            runBatches(claimed);
+                        }else {
+                            while (isRunning() && (job=_jobs.poll())!=null){
+                                runJob(job);
+                            }
                         }
 
                         try {
                             //3.暂时没有任务了，处于空闲状态+1
                             _threadsIdle.incrementAndGet();
                             lastTime = System.currentTimeMillis(); //进入空闲状态记录时间
+                            //先记空闲再看一眼：别的线程刚领走一批的话，要么这里偷得到，要么它看得到空闲线程会叫醒我们
+                            if(_jobBatchSize > 1){
+                                job = steal();
+                            }
 
                             while (isRunning()){
                                 if(job!=null){
@@ -137,7 +184,12 @@ public class QueuedThreadPool extends AbstractLifeCycle implements ThreadPool,Ex
                     if(shrink){
                         _threadsStarted.decrementAndGet();
                     }
+                    if(claimed != null){
+                        _claimed.remove(claimed);
+                        handBack(claimed);
+                    }
                     _threads.remove(Thread.currentThread());
+                    _threadsExited.incrementAndGet();
                 }
             }
         };
@@ -244,6 +296,7 @@ public class QueuedThreadPool extends AbstractLifeCycle implements ThreadPool,Ex
             _threads.add(thread);
             thread.start();
             started = true;
+            _threadsStartedTotal.incrementAndGet();
         } finally {
             if(!started){ //启动失败要还原
                 _threadsStarted.decrementAndGet();
@@ -253,14 +306,127 @@ public class QueuedThreadPool extends AbstractLifeCycle implements ThreadPool,Ex
         return started;
     }
 
+    /**
+     * 批量领取并执行，直到队列空了，再去偷其他线程领取了还没执行的任务
+     * 领取的任务放进本线程的双端队列，一个个从队头取出来执行；本线程阻塞在某个任务里的时候，
+     * 其他线程照样能从队头把剩下的偷走，所以不需要再判断执行了多久
+     */
+    private void runBatches(Deque<Runnable> claimed){
+        while (isRunning()){
+            Runnable job = null;
+            int claim = claimSize();
+            if(claim <= 1){
+                job = _jobs.poll();
+            }else if(_jobs.drainTo(claimed, claim) > 0){
+                //有空闲线程就叫醒一个来分担，本线程阻塞的话剩下的任务也有人接手
+                if(claimed.size() > 1 && _threadsIdle.get() > 0){
+                    _jobs.offer(STEAL);
+                }
+                job = claimed.pollFirst();
+            }
+            if(job == null){
+                job = steal();
+                if(job == null){
+                    return;
+                }
+            }
+
+            runJob(job);
+            while (isRunning() && (job = claimed.pollFirst()) != null){
+                runJob(job);
+            }
+        }
+    }
+
+    //这次可以领取多少：不超过批量大小，也不超过公平份额
+    private int claimSize(){
+        int queued = _jobs.size();
+        int share = queued / (_threadsIdle.get() + 1);
+        return share < _jobBatchSize ? share : _jobBatchSize;
+    }
+
+    //从其他线程领取了还没执行的任务里偷一个，取队头，先领取的先执行
+    private Runnable steal(){
+        for(Deque<Runnable> claimed : _claimed){
+            Runnable job = claimed.pollFirst();
+            if(job != null){
+                return job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 线程退出(任务抛了异常)时把没有执行的任务还给队列。
+     * 从后往前插到队头，这样还回去的任务仍然排在领取之后才入队的任务前面，保持先进先出
+     */
+    private void handBack(Deque<Runnable> claimed){
+        if(!isRunning()){
+            //停止时队列也会清空，剩下的一样丢弃，但要记下来
+            int dropped = claimed.size();
+            claimed.clear();
+            if(dropped > 0){
+                _jobsDropped.addAndGet(dropped);
+                LOG.warn("{} dropped {} claimed jobs", this, dropped);
+            }
+            return;
+        }
+        Runnable job;
+        boolean handed = false;
+        while ((job = claimed.pollLast()) != null){
+            if(!offerFirst(job)){
+                runJob(job); //放不回去就只能自己执行，不能丢任务
+            }
+            handed = true;
+        }
+        //还回去的任务没有空闲线程接手，就和dispatch一样补一个线程
+        if(handed && _threadsIdle.get() == 0){
+            int threads = _threadsStarted.get();
+            if(threads < _maxThreads){
+                startThread(threads);
+            }
+        }
+    }
+
+    //插到队头；队列不支持的话(比如ArrayBlockingQueue)只能放到队尾
+    @SuppressWarnings("unchecked")
+    private boolean offerFirst(Runnable job){
+        if(_jobs instanceof BlockingDeque){
+            return ((BlockingDeque<Runnable>)_jobs).offerFirst(job);
+        }
+        if(_jobs instanceof BlockingArrayQueue){
+            try {
+                ((BlockingArrayQueue<Runnable>)_jobs).add(0, job);
+                return true;
+            } catch (IllegalStateException e) { //满了
+                return false;
+            }
+        }
+        return _jobs.offer(job);
+    }
+
     //开始解决领取的任务
     protected void runJob(Runnable job){
-        job.run();
+        if(job instanceof TimedJob){
+            TimedJob timed = (TimedJob)job;
+            long start = System.nanoTime();
+            _lastQueueNanos = start - timed._queued;
+            _queueLatency.record(_lastQueueNanos);
+            try {
+                timed._job.run();
+            } finally {
+                _runLatency.record(System.nanoTime() - start);
+            }
+        }else {
+            job.run();
+        }
     }
 
     //提供两个调用入口，一个是自定义dispatch，一个是适配jdk的execute
     public boolean dispatch(Runnable job){
-        if(isRunning() && _jobs.offer(job)){
+        //开启统计的时候包一层，记下入队时间
+        Runnable queued = _statsOn ? new TimedJob(job, System.nanoTime()) : job;
+        if(isRunning() && _jobs.offer(queued)){
             int idle = _threadsIdle.get();
             int jobQ = _jobs.size();
             if(idle==0 || jobQ>idle){
@@ -273,6 +439,7 @@ public class QueuedThreadPool extends AbstractLifeCycle implements ThreadPool,Ex
         }
 
         //可以打印一个debug
+        _jobsRejected.incrementAndGet();
 
         return false;
     }
@@ -325,6 +492,17 @@ public class QueuedThreadPool extends AbstractLifeCycle implements ThreadPool,Ex
         }
 
     }
+    /**
+     * 每次最多领取多少个任务，<=1关闭批量领取
+     */
+    public void setJobBatchSize(int jobBatchSize) {
+        this._jobBatchSize = jobBatchSize;
+    }
+
+    public int getJobBatchSize() {
+        return this._jobBatchSize;
+    }
+
     public void setDetailedDump(boolean detailedDump) {
         this._detailedDump = detailedDump;
     }
@@ -372,6 +550,66 @@ public class QueuedThreadPool extends AbstractLifeCycle implements ThreadPool,Ex
     public String toString() {
         return this._name + "{" + this.getMinThreads() + "<=" + this.getIdleThreads() + "<=" + this.getThreads() + "/" + this.getMaxThreads() + "," + (this._jobs == null ? -1 : this._jobs.size()) + "}";
     }
+    //统计相关
+    public boolean isStatsOn() {
+        return this._statsOn;
+    }
+
+    /**
+     * 开启后每个任务在dispatch时打时间戳，运行时记录排队耗时和执行耗时；
+     * 切换前已经入队的任务不受影响
+     */
+    public void setStatsOn(boolean statsOn) {
+        this._statsOn = statsOn;
+    }
+
+    public LatencyHistogram getQueueLatency() {
+        return this._queueLatency;
+    }
+
+    public LatencyHistogram getRunLatency() {
+        return this._runLatency;
+    }
+
+    /**
+     * 当前排队耗时的估计(ms)，需要开启statsOn
+     * 队列空了就是0，否则取最近一个开始执行的任务排了多久的队；
+     * 不判断队列是否为空的话，过载结束后没有新任务执行，这个值会一直停留在高位
+     */
+    public long getLastQueueDelayMs() {
+        BlockingQueue<Runnable> jobs = this._jobs;
+        if (jobs == null || jobs.isEmpty()) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(this._lastQueueNanos);
+    }
+
+    public long getJobsRejected() {
+        return this._jobsRejected.get();
+    }
+
+    public long getJobsDropped() {
+        return this._jobsDropped.get();
+    }
+
+    public long getThreadsStartedTotal() {
+        return this._threadsStartedTotal.get();
+    }
+
+    public long getThreadsExited() {
+        return this._threadsExited.get();
+    }
+
+    public void statsReset() {
+        _queueLatency.reset();
+        _runLatency.reset();
+        _jobsRejected.set(0);
+        _jobsDropped.set(0);
+        _threadsStartedTotal.set(0);
+        _threadsExited.set(0);
+        _lastQueueNanos = 0;
+    }
+
     private Runnable idleJobPoll() throws InterruptedException {
         return this._jobs.poll(this._maxIdleTimeMs, TimeUnit.MILLISECONDS);
     }
@@ -383,6 +621,12 @@ public class QueuedThreadPool extends AbstractLifeCycle implements ThreadPool,Ex
     }
     public void dump(Appendable out, String indent) throws IOException {
         List<Object> dump = new ArrayList<Object>(getMaxThreads());
+        //先导出统计信息，再导出线程
+        dump.add("rejected=" + getJobsRejected() + ",dropped=" + getJobsDropped() + ",threadsStarted=" + getThreadsStartedTotal() + ",threadsExited=" + getThreadsExited());
+        if(_statsOn){
+            dump.add("queueLatency{" + _queueLatency + "}");
+            dump.add("runLatency{" + _runLatency + "}");
+        }
         //遍历线程池
         Iterator i$ = _threads.iterator();
         while (i$.hasNext()){
@@ -420,4 +664,26 @@ public class QueuedThreadPool extends AbstractLifeCycle implements ThreadPool,Ex
         AggregateLifeCycle.dumpObject(out, this);
         AggregateLifeCycle.dump(out, indent, dump);
     }
+
+    /**
+     * 带入队时间戳的任务，只有开启统计才会包装
+     */
+    private static class TimedJob implements Runnable {
+        final Runnable _job;
+        final long _queued;
+
+        TimedJob(Runnable job, long queued) {
+            _job = job;
+            _queued = queued;
+        }
+
+        public void run() {
+            _job.run();
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(_job);
+        }
+    }
 }
\ No newline at end of file
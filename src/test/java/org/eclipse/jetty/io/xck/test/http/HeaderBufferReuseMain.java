@@ -0,0 +1,98 @@
+package org.eclipse.jetty.io.xck.test.http;
+
+import java.io.IOException;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpParser;
+import org.eclipse.jetty.io.Buffer;
+
+/**
+ * 请求头和请求体分两次读到
+ * 1. 第一次只读到头部，解析完头部之后和AsyncHttpConnection.handle一样调用returnBuffers，
+ * header buffer没有内容了就会还回池子，被别的连接借走写上别的请求；
+ * 2. 第二次读到请求体，请求结束之后再去取头部，取到的必须还是这个请求自己的值；
+ * 3. 解析器的回调和AbstractHttpConnection一样：parsedHeader里addParsed，headerComplete里retainParsed；
+ * 4. 头部还没解析完就取过的字段(已经创建了Field)也一样要保留下来
+ */
+public class HeaderBufferReuseMain {
+    private static final String HEADERS =
+            "Host: localhost\r\n" +
+            "Cookie: session=secret\r\n" +
+            "Authorization: Basic dXNlcjpwYXNz\r\n" +
+            "X-Custom: hello world\r\n";
+
+    public static void main(String[] args) throws Exception {
+        int failures = 0;
+        String length = "POST /upload HTTP/1.1\r\n" + HEADERS + "Content-Length: 5\r\n\r\n";
+        String chunked = "POST /upload HTTP/1.1\r\n" + HEADERS + "Transfer-Encoding: chunked\r\n\r\n";
+        failures += run("Content-Length", length, "hello", false);
+        failures += run("chunked", chunked, "5\r\nhello\r\n0\r\n\r\n", false);
+        failures += run("Content-Length, looked up early", length, "hello", true);
+        System.out.println(failures == 0 ? "OK" : "FAIL " + failures);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static int run(String name, String head, String body, final boolean lookupEarly) throws IOException {
+        final HttpFields fields = new HttpFields();
+        final StringBuilder content = new StringBuilder();
+        ScribblingBuffers buffers = new ScribblingBuffers(1024);
+        ScriptedEndPoint endp = new ScriptedEndPoint(head, body);
+        HttpParser parser = new HttpParser(buffers, endp, new HttpParser.EventHandler() {
+            @Override
+            public void parsedHeader(Buffer name, Buffer value) throws IOException {
+                fields.addParsed(name, value);
+                if (lookupEarly) {
+                    fields.getStringField("Host");
+                    fields.getStringField("X-Custom");
+                }
+            }
+
+            @Override
+            public void headerComplete() throws IOException {
+                fields.retainParsed();
+            }
+
+            @Override
+            public void content(Buffer ref) throws IOException {
+                content.append(ref.toString());
+                ref.skip(ref.length());
+            }
+
+            @Override
+            public void startRequest(Buffer method, Buffer url, Buffer version) throws IOException {
+            }
+
+            @Override
+            public void startResponse(Buffer version, int status, Buffer reason) throws IOException {
+            }
+        });
+
+        //第一次读：只有头部
+        endp.arrive();
+        while (parser.parseNext() > 0) {
+        }
+        parser.returnBuffers();
+
+        //第二次读：请求体，用的是借走头部buffer的那个连接写脏了的池子
+        endp.arrive();
+        while (!parser.isComplete() && parser.parseNext() > 0) {
+        }
+
+        int failures = 0;
+        failures += check(name, "body", "hello", content.toString());
+        failures += check(name, "Host", "localhost", fields.getStringField("Host"));
+        failures += check(name, "Cookie", "session=secret", fields.getStringField("Cookie"));
+        failures += check(name, "Authorization", "Basic dXNlcjpwYXNz", fields.getStringField("Authorization"));
+        failures += check(name, "X-Custom", "hello world", fields.getStringField("X-Custom"));
+        System.out.println(name + ": header buffer returned " + buffers.getReturned() + " times");
+        return failures;
+    }
+
+    private static int check(String name, String what, String expected, String actual) {
+        if (expected.equals(actual)) {
+            return 0;
+        }
+        System.out.println("FAIL " + name + " " + what + ": expected [" + expected + "] but was [" + actual + "]");
+        return 1;
+    }
+}
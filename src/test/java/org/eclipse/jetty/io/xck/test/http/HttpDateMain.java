@@ -0,0 +1,121 @@
+package org.eclipse.jetty.io.xck.test.http;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.eclipse.jetty.http.HttpDate;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+
+/**
+ * HttpDate不用SimpleDateFormat解析和格式化日期，拿SimpleDateFormat来对照
+ * 1. 1970到2100年之间随机取日期(精确到秒)，用SimpleDateFormat按IMF-fixdate、RFC 850、asctime三种格式写出来，
+ * HttpDate解析(String和Buffer两种入口)的结果必须等于原来的日期；
+ * 2. HttpDate.formatDate和formatCookieDate(两种重载)写出来的必须和SimpleDateFormat一模一样；
+ * 3. 两位年份按RFC 7231的50年规则，"; length="参数忽略，格式不对的返回-1。
+ * 参数：日期数量和种子，默认300000和1
+ */
+public class HttpDateMain {
+    private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 300000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        Random random = new Random(seed);
+
+        SimpleDateFormat imf = format("EEE, dd MMM yyyy HH:mm:ss 'GMT'");
+        SimpleDateFormat rfc850 = format("EEEE, dd-MMM-yy HH:mm:ss 'GMT'");
+        SimpleDateFormat asctime = format("EEE MMM dd HH:mm:ss yyyy");
+        SimpleDateFormat cookie = format("EEE, dd-MMM-yyyy HH:mm:ss 'GMT'");
+
+        int thisYear = new GregorianCalendar(GMT).get(Calendar.YEAR);
+        long end = utc(2100, 1, 1);
+        //两位年份只在今年往前49年到往后50年之内才能还原
+        long rfc850Start = utc(Math.max(1970, thisYear - 49), 1, 1);
+        long rfc850End = utc(thisYear + 51, 1, 1);
+
+        byte[] bytes = new byte[64];
+        for (int n = 0; n < count && failures < 10; n++) {
+            long date = (long)(random.nextDouble() * end) / 1000 * 1000;
+            Date d = new Date(date);
+
+            String s = imf.format(d);
+            expect(s, date, HttpDate.parseDate(s));
+            expect(s + " (buffer)", date, HttpDate.parseDate(new ByteArrayBuffer(s)));
+            expect(s + "; length=1234", date, HttpDate.parseDate(s + "; length=1234"));
+
+            //asctime的日是用空格补齐的
+            s = asctime.format(d);
+            if (s.charAt(8) == '0') {
+                s = s.substring(0, 8) + ' ' + s.substring(9);
+            }
+            expect(s, date, HttpDate.parseDate(s));
+
+            long recent = rfc850Start + (long)(random.nextDouble() * (rfc850End - rfc850Start)) / 1000 * 1000;
+            s = rfc850.format(new Date(recent));
+            expect(s, recent, HttpDate.parseDate(s));
+
+            same(imf.format(d), HttpDate.formatDate(date));
+            StringBuilder buf = new StringBuilder();
+            HttpDate.formatCookieDate(buf, date);
+            same(cookie.format(d), buf.toString());
+            int length = HttpDate.formatCookieDate(bytes, 0, date);
+            same(cookie.format(d), new String(bytes, 0, length, "ISO-8859-1"));
+        }
+        System.out.println(count + " dates in three formats");
+
+        //两位年份的边界
+        int yy = (thisYear + 50) % 100;
+        expect("Monday, 01-Jan-" + two(yy) + " 00:00:00 GMT", utc(thisYear + 50, 1, 1),
+                HttpDate.parseDate("Monday, 01-Jan-" + two(yy) + " 00:00:00 GMT"));
+        yy = (thisYear + 51) % 100;
+        expect("Monday, 01-Jan-" + two(yy) + " 00:00:00 GMT", utc(thisYear - 49, 1, 1),
+                HttpDate.parseDate("Monday, 01-Jan-" + two(yy) + " 00:00:00 GMT"));
+
+        String[] bad = {"", "garbage", "Sun, 06 Xxx 1994 08:49:37 GMT", "Sun, 06 Nov 1994 08:49:37",
+                "Sun, 06 Nov 1994 25:49:37 GMT", "Sun, 32 Nov 1994 08:49:37 GMT", "Sun Nov  6 08:49:37 94",
+                "Sun, 6 Nov 1994 08:49:37 GMT", "Sun, 06 Nov 19940 08:49:37 GMT"};
+        for (String s : bad) {
+            expect(s, -1, HttpDate.parseDate(s));
+        }
+
+        System.out.println(failures == 0 ? "OK" : "FAIL");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static SimpleDateFormat format(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+        format.setTimeZone(GMT);
+        return format;
+    }
+
+    private static long utc(int year, int month, int day) {
+        GregorianCalendar calendar = new GregorianCalendar(GMT);
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+        return calendar.getTimeInMillis();
+    }
+
+    private static String two(int n) {
+        return n < 10 ? "0" + n : String.valueOf(n);
+    }
+
+    private static void expect(String text, long expected, long actual) {
+        if (expected != actual) {
+            failures++;
+            System.out.println("FAIL parse \"" + text + "\" = " + actual + " expected " + expected);
+        }
+    }
+
+    private static void same(String expected, String actual) {
+        if (!expected.equals(actual)) {
+            failures++;
+            System.out.println("FAIL format \"" + actual + "\" expected \"" + expected + "\"");
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.eclipse.jetty.io.xck.test.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeaders;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.eclipse.jetty.io.View;
+
+/**
+ * HttpFields按序号和探测表索引之后，行为要和最简单的列表实现一致
+ * 1. 用一个(小写名字,值)的列表做参照，随机做put、add、remove、addParsed，名字有已知的也有大量未知的，大小写随机，
+ * 每一步之后比较getStringField、getValuesCollection、size、getFieldNames；
+ * 2. 未知名字足够多，探测表会扩容、冲突，remove会做回移删除；
+ * 3. clear之后Field要被重复使用：同样的请求跑很多轮，第一轮之后不能再出现新的Field对象。
+ * 参数：轮数和种子，默认2000和1
+ */
+public class HttpFieldsIndexMain {
+    private static final String[] KNOWN = {"Host", "Accept", "Accept-Encoding", "Content-Type", "Content-Length",
+            "Cookie", "Connection", "User-Agent", "Cache-Control", "Date", "Referer", "Authorization"};
+    private static final String[] UNKNOWN = new String[60];
+
+    static {
+        for (int i = 0; i < UNKNOWN.length; i++) {
+            UNKNOWN[i] = "X-Unknown-" + i;
+        }
+    }
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        Random random = new Random(seed);
+
+        HttpFields fields = new HttpFields();
+        long steps = 0;
+        for (int round = 0; round < rounds && failures < 10; round++) {
+            List<String[]> model = new ArrayList<String[]>();
+
+            //先像解析器那样加一批，名字和值都是同一个缓冲区的视图
+            addParsed(random, fields, model);
+            check(fields, model, "round " + round + " parsed");
+
+            int ops = random.nextInt(40);
+            for (int op = 0; op < ops && failures < 10; op++, steps++) {
+                String name = name(random);
+                String key = name.toLowerCase();
+                String value = "v" + random.nextInt(20);
+                String what;
+                switch (random.nextInt(4)) {
+                    case 0:
+                        what = "put " + name;
+                        fields.put(name, value);
+                        removeAll(model, key);
+                        model.add(new String[]{key, value});
+                        break;
+                    case 1:
+                        what = "remove " + name;
+                        fields.remove(name);
+                        removeAll(model, key);
+                        break;
+                    default:
+                        what = "add " + name;
+                        fields.add(name, value);
+                        model.add(new String[]{key, value});
+                }
+                check(fields, model, "round " + round + " " + what);
+            }
+            fields.clear();
+            check(fields, Collections.<String[]>emptyList(), "round " + round + " clear");
+        }
+        System.out.println(rounds + " rounds, " + steps + " operations");
+
+        checkRecycled();
+
+        System.out.println(failures == 0 ? "OK" : "FAIL");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void addParsed(Random random, HttpFields fields, List<String[]> model) {
+        int count = random.nextInt(12);
+        String[] names = new String[count];
+        String[] values = new String[count];
+        StringBuilder header = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            names[i] = name(random);
+            values[i] = "p" + random.nextInt(20);
+            header.append(names[i]).append(": ").append(values[i]).append("\r\n");
+        }
+        Buffer buffer = new ByteArrayBuffer(header.toString());
+        int at = 0;
+        for (int i = 0; i < count; i++) {
+            Buffer name = HttpHeaders.CACHE.get(names[i]);
+            if (name == null) {
+                name = new View.CaseInsensitive(buffer, -1, at, at + names[i].length(), Buffer.READONLY);
+            }
+            at += names[i].length() + 2;
+            Buffer value = new View(buffer, -1, at, at + values[i].length(), Buffer.READONLY);
+            at += values[i].length() + 2;
+            fields.addParsed(name, value);
+            model.add(new String[]{names[i].toLowerCase(), values[i]});
+        }
+    }
+
+    private static void check(HttpFields fields, List<String[]> model, String what) {
+        List<String> names = new ArrayList<String>();
+        for (String[] entry : model) {
+            if (!names.contains(entry[0])) {
+                names.add(entry[0]);
+            }
+        }
+
+        List<String> actualNames = new ArrayList<String>();
+        for (String name : Collections.list(fields.getFieldNames())) {
+            actualNames.add(name.toLowerCase());
+        }
+        if (!names.equals(actualNames)) {
+            fail(what + ": names " + actualNames + " expected " + names);
+        }
+        if (fields.size() != model.size()) {
+            fail(what + ": size " + fields.size() + " expected " + model.size());
+        }
+
+        for (String name : allNames()) {
+            String key = name.toLowerCase();
+            List<String> values = new ArrayList<String>();
+            for (String[] entry : model) {
+                if (entry[0].equals(key)) {
+                    values.add(entry[1]);
+                }
+            }
+            //换个大小写来查
+            String lookup = (name.hashCode() & 1) == 0 ? name.toUpperCase() : key;
+            String first = fields.getStringField(lookup);
+            String expected = values.isEmpty() ? null : values.get(0);
+            if (expected == null ? first != null : !expected.equals(first)) {
+                fail(what + ": " + name + "=" + first + " expected " + expected);
+            }
+            //没有这个头时返回null
+            List<String> actual = new ArrayList<String>();
+            if (fields.getValuesCollection(lookup) != null) {
+                actual.addAll(fields.getValuesCollection(lookup));
+            }
+            if (!values.equals(actual)) {
+                fail(what + ": " + name + " values " + actual + " expected " + values);
+            }
+        }
+    }
+
+    //同样的头部跑多轮，第一轮之后Field都应该来自clear回收的
+    private static void checkRecycled() {
+        HttpFields fields = new HttpFields();
+        Map<Object, Boolean> seen = new IdentityHashMap<Object, Boolean>();
+        int firstRound = 0;
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < KNOWN.length; i++) {
+                fields.add(KNOWN[i], "value" + i);
+            }
+            for (int i = 0; i < 20; i++) {
+                fields.add(UNKNOWN[i], "value" + i);
+            }
+            for (int i = 0; i < fields.size(); i++) {
+                seen.put(fields.getField(i), Boolean.TRUE);
+            }
+            if (round == 0) {
+                firstRound = seen.size();
+            }
+            fields.clear();
+        }
+        if (seen.size() == firstRound) {
+            System.out.println("100 rounds of " + firstRound + " fields used " + seen.size() + " Field objects");
+        } else {
+            fail("100 rounds of " + firstRound + " fields used " + seen.size() + " Field objects");
+        }
+    }
+
+    private static String name(Random random) {
+        String name = random.nextInt(3) == 0 ? KNOWN[random.nextInt(KNOWN.length)] : UNKNOWN[random.nextInt(UNKNOWN.length)];
+        char[] chars = name.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (random.nextInt(4) == 0) {
+                chars[i] = Character.isUpperCase(chars[i]) ? Character.toLowerCase(chars[i]) : Character.toUpperCase(chars[i]);
+            }
+        }
+        return new String(chars);
+    }
+
+    private static List<String> allNames() {
+        List<String> names = new ArrayList<String>();
+        Collections.addAll(names, KNOWN);
+        Collections.addAll(names, UNKNOWN);
+        return names;
+    }
+
+    private static void removeAll(List<String[]> model, String key) {
+        for (int i = model.size(); i-- > 0; ) {
+            if (model.get(i)[0].equals(key)) {
+                model.remove(i);
+            }
+        }
+    }
+
+    private static void fail(String message) {
+        failures++;
+        System.out.println("FAIL " + message);
+    }
+}
@@ -0,0 +1,128 @@
+package org.eclipse.jetty.io.xck.test.http;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.http.HttpValueCache;
+import org.eclipse.jetty.io.Buffer;
+
+/**
+ * 检查HttpValueCache的准入、CLOCK淘汰和命中/未命中/淘汰的计数
+ * 1. 只出现一次的值(比如请求ID)不会进缓存；
+ * 2. 第二次未命中才准入，之后命中返回同一个缓冲区；
+ * 3. 缓存满了之后，一直被命中的热值不会被只用过一两次的值挤掉，淘汰数=准入数-容量；
+ * 4. 多个线程一起查，命中+未命中=查询总数，大小不超过容量。
+ */
+public class HttpValueCacheMain {
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        seenOnce();
+        secondMiss();
+        clock();
+        concurrent();
+        System.out.println(failures == 0 ? "OK" : "FAIL");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void seenOnce() {
+        HttpValueCache cache = new HttpValueCache(64);
+        for (int i = 0; i < 10000; i++) {
+            Buffer buffer = cache.lookup("request-" + i);
+            check(buffer.toString().equals("request-" + i), "value " + buffer);
+        }
+        check(cache.getSize() == 0, "unique values cached: " + cache);
+        check(cache.getMisses() == 10000 && cache.getHits() == 0 && cache.getEvictions() == 0, "unique counts: " + cache);
+        System.out.println("seen once: " + cache);
+    }
+
+    private static void secondMiss() {
+        HttpValueCache cache = new HttpValueCache(64);
+        Buffer first = cache.lookup("text/html");
+        check(cache.getSize() == 0, "admitted on first miss: " + cache);
+        Buffer second = cache.lookup("text/html");
+        check(cache.getSize() == 1, "not admitted on second miss: " + cache);
+        Buffer third = cache.lookup("text/html");
+        check(third == second && first != second, "hit did not return the cached buffer");
+        check(third.isImmutable(), "cached buffer is mutable");
+        check(cache.getHits() == 1 && cache.getMisses() == 2, "second miss counts: " + cache);
+        System.out.println("second miss: " + cache);
+    }
+
+    private static void clock() {
+        int capacity = 8;
+        HttpValueCache cache = new HttpValueCache(capacity);
+        String[] hot = {"gzip", "keep-alive", "text/html; charset=utf-8", "no-cache"};
+        Buffer[] cached = new Buffer[hot.length];
+        for (int i = 0; i < hot.length; i++) {
+            cache.lookup(hot[i]);
+            cached[i] = cache.lookup(hot[i]);
+        }
+
+        //冷值各查两次，都会被准入，然后挤掉别的冷值；热值在两次冷值之间都被命中过
+        int admitted = hot.length;
+        long lookups = hot.length * 2;
+        for (int i = 0; i < 1000; i++) {
+            for (int h = 0; h < hot.length; h++) {
+                check(cache.lookup(hot[h]) == cached[h], "hot value evicted: " + hot[h] + " at " + i);
+                lookups++;
+            }
+            cache.lookup("cold-" + i);
+            cache.lookup("cold-" + i);
+            lookups += 2;
+            admitted++;
+        }
+
+        check(cache.getSize() == capacity, "size " + cache);
+        check(cache.getEvictions() == admitted - capacity, "evictions " + cache.getEvictions() + " expected " + (admitted - capacity));
+        check(cache.getHits() == 1000 * hot.length, "hits " + cache.getHits() + " expected " + 1000 * hot.length);
+        check(cache.getHits() + cache.getMisses() == lookups, "hits+misses " + (cache.getHits() + cache.getMisses()) + " expected " + lookups);
+        System.out.println("clock: " + cache);
+    }
+
+    private static void concurrent() throws Exception {
+        final int capacity = 64;
+        final int threads = 8;
+        final int lookups = 200000;
+        final HttpValueCache cache = new HttpValueCache(capacity);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger wrong = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < lookups; i++) {
+                            //大部分是32个常用值，夹着一些只出现一次的
+                            String value = (i % 5 == 0) ? "id-" + seed + "-" + i : "value-" + (i * 7 + seed) % 32;
+                            if (!cache.lookup(value).toString().equals(value)) {
+                                wrong.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "lookup-" + t).start();
+        }
+        start.countDown();
+        done.await();
+
+        check(wrong.get() == 0, wrong.get() + " lookups returned the wrong value");
+        check(cache.getHits() + cache.getMisses() == (long)threads * lookups, "concurrent hits+misses " + cache);
+        check(cache.getSize() <= capacity, "concurrent size " + cache);
+        check(cache.getHits() > (long)threads * lookups / 2, "concurrent hit rate too low " + cache);
+        System.out.println("concurrent: " + cache);
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            failures++;
+            System.out.println("FAIL " + message);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package org.eclipse.jetty.io.xck.test.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.jetty.http.HttpException;
+import org.eclipse.jetty.http.HttpParser;
+import org.eclipse.jetty.io.Buffer;
+
+/**
+ * 查表的HttpParser和改之前的{@link ReferenceHttpParser}做对照
+ * 1. 语料：手写的请求(各种换行、续行、空值、chunked、流水线、错误请求)，随机生成的请求，以及随机改坏几个字节的请求；
+ * 2. 每个请求按整段、每次1个字节、每次3个字节三种方式喂给两个解析器；
+ * 3. 记录所有回调(startRequest、parsedHeader、headerComplete、content、messageComplete)和抛出的异常，
+ * 两个解析器的记录必须一模一样。
+ * 参数：随机语料的数量和种子，默认5000和1
+ */
+public class ParserCorpusMain {
+    private static final int[] STEPS = {Integer.MAX_VALUE, 1, 3};
+    private static final int MAX_REPORTED = 10;
+
+    private static final String[] HAND_WRITTEN = {
+            "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n",
+            "GET / HTTP/1.0\r\n\r\n",
+            "GET /\r\n\r\n",
+            "GET / HTTP/1.1\nHost: localhost\n\n",
+            "GET / HTTP/1.1\r\nHost: localhost\n\r\n",
+            "GET /a/b?x=1&y=%20 HTTP/1.1\r\nHost: a\r\nAccept: */*\r\n\r\n",
+            "GET / HTTP/1.1\r\nHost:localhost\r\nAccept:text/html\r\n\r\n",
+            "GET / HTTP/1.1\r\nHost:   localhost   \r\nX-Empty:\r\nX-Space: \r\n\r\n",
+            "GET / HTTP/1.1\r\nX-Tab:\tvalue\t\r\nX-Multi: a,b, c ,d\r\n\r\n",
+            "GET / HTTP/1.1\r\nX-Folded: first\r\n second\r\n\tthird\r\n\r\n",
+            "GET / HTTP/1.1\r\nhost: lower\r\nHOST: upper\r\nConTent-TYPE: text/plain\r\n\r\n",
+            "GET / HTTP/1.1\r\nX-Colon: a:b:c\r\nX-Quoted: \"a, b\", c\r\n\r\n",
+            "GET / HTTP/1.1\r\nX-High: café ÿ\r\n\r\n",
+            "GET / HTTP/1.1\r\nConnection: keep-alive\r\nAccept-Encoding: gzip, deflate\r\n\r\n",
+            "GET / HTTP/1.1\r\nConnection: close\r\n\r\n",
+            "POST /form HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello",
+            "POST /form HTTP/1.1\r\nContent-Length: 0\r\n\r\n",
+            "POST /form HTTP/1.1\r\nContent-Length:  11 \r\n\r\nhello world",
+            "POST /c HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n6\r\n world\r\n0\r\n\r\n",
+            "POST /c HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n5;ext=1\r\nhello\r\n0\r\nTrailer: x\r\n\r\n",
+            "POST /c HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nA\r\n0123456789\r\n0\r\n\r\n",
+            "POST /c HTTP/1.1\r\nTransfer-Encoding: CHUNKED\r\n\r\n3\r\nabc\r\n0\r\n\r\n",
+            "GET /1 HTTP/1.1\r\nHost: a\r\n\r\nGET /2 HTTP/1.1\r\nHost: b\r\n\r\n",
+            "POST /1 HTTP/1.1\r\nContent-Length: 3\r\n\r\nabcGET /2 HTTP/1.1\r\n\r\n",
+            "\r\n\r\nGET / HTTP/1.1\r\n\r\n",
+            "GET / HTTP/1.1\r\nBad Name: x\r\n\r\n",
+            "GET / HTTP/1.1\r\n: no name\r\n\r\n",
+            "GET / HTTP/1.1\r\nX-Ctl: a\u0001b\r\n\r\n",
+            "GET / HTTP/1.1\r\nX-Del: a\u007fb\r\n\r\n",
+            "GET / HTTP/1.1\r\nNoColon\r\n\r\n",
+            "POST / HTTP/1.1\r\nContent-Length: abc\r\n\r\n",
+            "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n",
+            "GET  /double-space HTTP/1.1\r\n\r\n",
+            "GET / HTTP/1.1 \r\n\r\n",
+            " GET / HTTP/1.1\r\n\r\n",
+            "G\u0000T / HTTP/1.1\r\n\r\n",
+            "GET / HTTP/1.1\r\r\n\r\n",
+            "GET / HTTP/1.1\r\nHost: a\r\r\n\r\n",
+            "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok",
+    };
+
+    private static final String[] METHODS = {"GET", "POST", "PUT", "HEAD", "OPTIONS", "DELETE", "PATCH", "get"};
+    private static final String[] URIS = {"/", "/index.html", "/a/b/c?x=1&y=2", "/%7Euser/%20x", "*",
+            "http://host:8080/path?q", "/very/long/" + repeat("segment/", 40), "/q?" + repeat("k=v&", 30)};
+    private static final String[] VERSIONS = {"HTTP/1.1", "HTTP/1.0", "HTTP/1.1", "HTTP/1.1", ""};
+    private static final String[] NAMES = {"Host", "Accept", "Accept-Encoding", "Accept-Language", "User-Agent",
+            "Cookie", "Connection", "Cache-Control", "Referer", "X-Forwarded-For", "X-Custom-Header",
+            "x-lower", "ACCEPT", "If-Modified-Since", "Authorization", "Expect"};
+    private static final String[] VALUES = {"", " ", "localhost", "text/html, application/xhtml+xml;q=0.9, */*;q=0.8",
+            "gzip, deflate, br", "en-US,en;q=0.5", "Mozilla/5.0 (X11; Linux x86_64) Gecko/20100101 Firefox/115.0",
+            "a=1; b=2; session=\"quoted, value\"", "keep-alive", "close", "no-cache", "Thu, 01 Jan 1970 00:00:00 GMT",
+            "\tleading tab", "trailing spaces   ", "café", "100-continue", repeat("long-value-", 50)};
+    private static final char[] MUTATIONS = {'\r', '\n', ':', ' ', '\t', '\u0000', '\u007f', 'ÿ', 'a', '0'};
+
+    public static void main(String[] args) throws Exception {
+        int generated = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        Random random = new Random(seed);
+
+        List<String> corpus = new ArrayList<String>();
+        for (String request : HAND_WRITTEN) {
+            corpus.add(request);
+        }
+        for (int i = 0; i < generated; i++) {
+            corpus.add(generate(random));
+        }
+        for (int i = 0; i < generated; i++) {
+            corpus.add(mutate(random, corpus.get(random.nextInt(corpus.size()))));
+        }
+
+        int mismatches = 0;
+        long events = 0;
+        for (String request : corpus) {
+            for (int step : STEPS) {
+                List<String> expected = parse(true, request, step);
+                List<String> actual = parse(false, request, step);
+                events += expected.size();
+                if (!expected.equals(actual)) {
+                    if (++mismatches <= MAX_REPORTED) {
+                        System.out.println("MISMATCH step=" + (step == Integer.MAX_VALUE ? "whole" : step)
+                                + " request=" + escape(request));
+                        System.out.println("  reference: " + expected);
+                        System.out.println("  table:     " + actual);
+                    }
+                }
+            }
+        }
+        System.out.println(corpus.size() + " requests, " + STEPS.length + " ways each, " + events
+                + " reference events, " + mismatches + " mismatches");
+        System.out.println(mismatches == 0 ? "OK" : "FAIL");
+        System.exit(mismatches == 0 ? 0 : 1);
+    }
+
+    //两个解析器用同一套驱动：有数据就一直parseNext，一个请求结束就reset接着解析流水线里的下一个
+    private interface Driver {
+        int parseNext() throws IOException;
+
+        boolean isComplete();
+
+        void reset();
+    }
+
+    private static List<String> parse(boolean reference, String request, int step) {
+        final List<String> events = new ArrayList<String>();
+        HttpParser.EventHandler handler = new HttpParser.EventHandler() {
+            @Override
+            public void startRequest(Buffer method, Buffer url, Buffer version) throws IOException {
+                events.add("request " + method + " " + url + " " + version);
+            }
+
+            @Override
+            public void startResponse(Buffer version, int status, Buffer reason) throws IOException {
+                events.add("response " + version + " " + status + " " + reason);
+            }
+
+            @Override
+            public void parsedHeader(Buffer name, Buffer value) throws IOException {
+                events.add("header [" + name + "]: [" + value + "]");
+            }
+
+            @Override
+            public void headerComplete() throws IOException {
+                events.add("headerComplete");
+            }
+
+            @Override
+            public void content(Buffer ref) throws IOException {
+                events.add("content [" + ref + "]");
+                ref.skip(ref.length());
+            }
+
+            @Override
+            public void messageComplete(long contentLength) throws IOException {
+                events.add("messageComplete " + contentLength);
+            }
+
+            @Override
+            public void earlyEOF() {
+                events.add("earlyEOF");
+            }
+        };
+
+        ScriptedEndPoint endp = new ScriptedEndPoint(split(request, step));
+        ScribblingBuffers buffers = new ScribblingBuffers(8192);
+        Driver driver;
+        if (reference) {
+            final ReferenceHttpParser parser = new ReferenceHttpParser(buffers, endp, handler);
+            driver = new Driver() {
+                public int parseNext() throws IOException {
+                    return parser.parseNext();
+                }
+
+                public boolean isComplete() {
+                    return parser.isComplete();
+                }
+
+                public void reset() {
+                    parser.reset();
+                }
+            };
+        } else {
+            final HttpParser parser = new HttpParser(buffers, endp, handler);
+            driver = new Driver() {
+                public int parseNext() throws IOException {
+                    return parser.parseNext();
+                }
+
+                public boolean isComplete() {
+                    return parser.isComplete();
+                }
+
+                public void reset() {
+                    parser.reset();
+                }
+            };
+        }
+
+        try {
+            int rounds = 0;
+            while (endp.arrive()) {
+                while (true) {
+                    if (++rounds > 100000) {
+                        events.add("no end");
+                        return events;
+                    }
+                    int progress = driver.parseNext();
+                    if (driver.isComplete()) {
+                        events.add("--");
+                        driver.reset();
+                        continue;
+                    }
+                    if (progress <= 0) {
+                        break;
+                    }
+                }
+            }
+        } catch (HttpException e) {
+            events.add("error " + e.getStatus());
+        } catch (Exception e) {
+            events.add("error " + e.getClass().getSimpleName());
+        }
+        return events;
+    }
+
+    private static String[] split(String request, int step) {
+        if (step >= request.length()) {
+            return new String[]{request};
+        }
+        String[] chunks = new String[(request.length() + step - 1) / step];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = request.substring(i * step, Math.min(request.length(), (i + 1) * step));
+        }
+        return chunks;
+    }
+
+    private static String generate(Random random) {
+        StringBuilder request = new StringBuilder();
+        int pipelined = 1 + (random.nextInt(4) == 0 ? random.nextInt(3) : 0);
+        for (int p = 0; p < pipelined; p++) {
+            String eol = random.nextInt(5) == 0 ? "\n" : "\r\n";
+            String version = pick(random, VERSIONS);
+            request.append(pick(random, METHODS)).append(' ').append(pick(random, URIS));
+            if (version.length() > 0) {
+                request.append(' ').append(version);
+            }
+            request.append(eol);
+
+            int headers = random.nextInt(10);
+            for (int h = 0; h < headers; h++) {
+                request.append(pick(random, NAMES)).append(':');
+                if (random.nextInt(4) != 0) {
+                    request.append(random.nextBoolean() ? " " : "\t");
+                }
+                request.append(pick(random, VALUES));
+                if (random.nextInt(20) == 0) { //续行
+                    request.append(eol).append(random.nextBoolean() ? " " : "\t").append(pick(random, VALUES));
+                }
+                request.append(random.nextInt(8) == 0 ? "\n" : eol);
+            }
+
+            switch (random.nextInt(4)) {
+                case 0: {
+                    String body = repeat("b", random.nextInt(100));
+                    request.append("Content-Length: ").append(body.length()).append(eol).append(eol).append(body);
+                    break;
+                }
+                case 1: {
+                    request.append("Transfer-Encoding: chunked").append(eol).append(eol);
+                    int chunks = random.nextInt(4);
+                    for (int c = 0; c < chunks; c++) {
+                        String chunk = repeat("c", 1 + random.nextInt(40));
+                        request.append(Integer.toHexString(chunk.length()));
+                        if (random.nextInt(5) == 0) {
+                            request.append(";ext=").append(c);
+                        }
+                        request.append("\r\n").append(chunk).append("\r\n");
+                    }
+                    request.append("0\r\n");
+                    if (random.nextInt(5) == 0) {
+                        request.append("X-Trailer: t\r\n");
+                    }
+                    request.append("\r\n");
+                    break;
+                }
+                default:
+                    request.append(eol);
+            }
+        }
+        return request.toString();
+    }
+
+    //随机改、插、删几个字节，主要是为了覆盖出错的路径
+    private static String mutate(Random random, String request) {
+        StringBuilder mutated = new StringBuilder(request);
+        int count = 1 + random.nextInt(3);
+        for (int i = 0; i < count && mutated.length() > 0; i++) {
+            int at = random.nextInt(mutated.length());
+            char c = MUTATIONS[random.nextInt(MUTATIONS.length)];
+            switch (random.nextInt(3)) {
+                case 0:
+                    mutated.setCharAt(at, c);
+                    break;
+                case 1:
+                    mutated.insert(at, c);
+                    break;
+                default:
+                    mutated.deleteCharAt(at);
+            }
+        }
+        return mutated.toString();
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuilder b = new StringBuilder(s.length() * n);
+        for (int i = 0; i < n; i++) {
+            b.append(s);
+        }
+        return b.toString();
+    }
+
+    private static String escape(String s) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\r') {
+                b.append("\\r");
+            } else if (c == '\n') {
+                b.append("\\n");
+            } else if (c < 0x20 || c >= 0x7f) {
+                b.append(String.format("\\x%02x", (int)c));
+            } else {
+                b.append(c);
+            }
+        }
+        return b.toString();
+    }
+}
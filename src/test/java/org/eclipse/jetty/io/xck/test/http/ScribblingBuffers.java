@@ -0,0 +1,50 @@
+package org.eclipse.jetty.io.xck.test.http;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.Buffers;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+
+/**
+ * 缓冲池，还回来的buffer马上被"另一个连接"借走并写满自己的字节，
+ * 用来发现归还之后还在引用buffer的代码
+ */
+public class ScribblingBuffers implements Buffers {
+    private final int size;
+    private final Deque<Buffer> pool = new ArrayDeque<Buffer>();
+    private int returned;
+
+    public ScribblingBuffers(int size) {
+        this.size = size;
+    }
+
+    public Buffer getHeader() {
+        return getBuffer();
+    }
+
+    public Buffer getBuffer() {
+        Buffer buffer = pool.poll();
+        return buffer != null ? buffer : new ByteArrayBuffer(size);
+    }
+
+    public Buffer getBuffer(int size) {
+        return getBuffer();
+    }
+
+    public void returnBuffer(Buffer buffer) {
+        returned++;
+        Arrays.fill(buffer.array(), (byte)'#');
+        buffer.clear();
+        pool.add(buffer);
+    }
+
+    /**
+     * @return 还回来过多少次
+     */
+    public int getReturned() {
+        return returned;
+    }
+}
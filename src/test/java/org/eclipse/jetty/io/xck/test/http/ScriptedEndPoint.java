@@ -0,0 +1,143 @@
+package org.eclipse.jetty.io.xck.test.http;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.EndPoint;
+
+/**
+ * 按脚本读数据的EndPoint，给解析器的测试用
+ * 1. 每次{@link #arrive()}到达一段数据，fill把到达的数据放进buffer，放不下的留到下一次；
+ * 2. 没有到达的数据时fill返回0，就像非阻塞的socket暂时没有数据；
+ * 3. 写出去的数据直接丢掉
+ */
+public class ScriptedEndPoint implements EndPoint {
+    private final Deque<byte[]> script = new ArrayDeque<byte[]>();
+    private byte[] arrived;
+    private int arrivedIndex;
+    private boolean open = true;
+
+    public ScriptedEndPoint(String... reads) {
+        for (String read : reads) {
+            try {
+                script.add(read.getBytes("ISO-8859-1"));
+            } catch (java.io.UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * 下一段数据到达
+     * @return 还有没有数据
+     */
+    public boolean arrive() {
+        arrived = script.poll();
+        arrivedIndex = 0;
+        return arrived != null;
+    }
+
+    public int fill(Buffer buffer) throws IOException {
+        if (arrived == null || arrivedIndex == arrived.length) {
+            return 0;
+        }
+        int len = Math.min(buffer.space(), arrived.length - arrivedIndex);
+        buffer.put(arrived, arrivedIndex, len);
+        arrivedIndex += len;
+        return len;
+    }
+
+    public int flush(Buffer buffer) throws IOException {
+        int len = buffer.length();
+        buffer.skip(len);
+        return len;
+    }
+
+    public int flush(Buffer header, Buffer buffer, Buffer trailer) throws IOException {
+        int len = 0;
+        if (header != null) {
+            len += flush(header);
+        }
+        if (buffer != null) {
+            len += flush(buffer);
+        }
+        if (trailer != null) {
+            len += flush(trailer);
+        }
+        return len;
+    }
+
+    public void flush() throws IOException {
+    }
+
+    public void shutdownOutput() throws IOException {
+    }
+
+    public boolean isOutPutShutdown() {
+        return false;
+    }
+
+    public void shutdownInput() throws IOException {
+    }
+
+    public boolean isInputShutdown() {
+        return false;
+    }
+
+    public void close() throws IOException {
+        open = false;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public String getLocalAddr() {
+        return "127.0.0.1";
+    }
+
+    public String getLocalHost() {
+        return "localhost";
+    }
+
+    public int getLocalPort() {
+        return 8080;
+    }
+
+    public String getRemoteAddr() {
+        return "127.0.0.1";
+    }
+
+    public String getRemoteHost() {
+        return "localhost";
+    }
+
+    public int getRemotePort() {
+        return 50000;
+    }
+
+    public boolean isBlocking() {
+        return false;
+    }
+
+    public boolean blockReadable(long millisecs) throws IOException {
+        return false;
+    }
+
+    public boolean blockWritable(long millisecs) throws IOException {
+        return true;
+    }
+
+    public Object getTransport() {
+        return null;
+    }
+
+    public int getMaxIdleTime() {
+        return 0;
+    }
+
+    public void setMaxIdleTime(int timeMs) throws IOException {
+    }
+}
@@ -0,0 +1,78 @@
+package org.eclipse.jetty.io.xck.test.threadpool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * 批量领取时，一批里的第一个任务阻塞住，剩下的任务要能被其他线程执行
+ * 1. 两个线程都先被门闩任务占住，这样后面的任务全部排在队列里；
+ * 2. 队列里放一个会阻塞的任务和若干个普通任务，打开门闩，两个线程各领一批；
+ * 3. 领到阻塞任务的线程卡住，另一个线程跑完自己那批之后要把它剩下的偷过来跑完
+ */
+public class BatchStealMain {
+    private static final int QUICK_JOBS = 6;
+
+    public static void main(String[] args) throws Exception {
+        QueuedThreadPool pool = new QueuedThreadPool();
+        pool.setMinThreads(2);
+        pool.setMaxThreads(2);
+        pool.setJobBatchSize(4);
+        pool.start();
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch busy = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(QUICK_JOBS);
+
+        int failures = 0;
+        try {
+            for (int i = 0; i < 2; i++) {
+                pool.dispatch(new Runnable() {
+                    public void run() {
+                        busy.countDown();
+                        await(gate);
+                    }
+                });
+            }
+            busy.await(5, TimeUnit.SECONDS);
+
+            pool.dispatch(new Runnable() {
+                public void run() {
+                    System.out.println(Thread.currentThread().getName() + "-阻塞住了");
+                    await(release);
+                }
+            });
+            for (int i = 0; i < QUICK_JOBS; i++) {
+                final int n = i;
+                pool.dispatch(new Runnable() {
+                    public void run() {
+                        System.out.println(Thread.currentThread().getName() + "-执行任务" + n);
+                        done.countDown();
+                    }
+                });
+            }
+
+            gate.countDown();
+            if (done.await(5, TimeUnit.SECONDS)) {
+                System.out.println("OK 阻塞任务之后的任务都被其他线程执行了");
+            } else {
+                System.out.println("FAIL 还有" + done.getCount() + "个任务被阻塞的线程占着");
+                failures++;
+            }
+        } finally {
+            release.countDown();
+            pool.stop();
+        }
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.eclipse.jetty.io.xck.test.uri;
+
+import org.eclipse.jetty.util.URIUtil;
+
+/**
+ * URIUtil.decodePath、canonicalPath、compactPath加了快速路径，和之前的实现({@link ReferenceURIUtil})对照
+ * 1. 先检查结果：常见路径、刁钻路径，再加上"/.a%2;?"组成的所有不超过6个字符的路径，两边的结果(包括抛出的异常)必须一样；
+ * 2. 再计时：常见路径(没有%，没有.段，没有//)走快速路径，刁钻路径(大量%，/./，/../，//)走原来的循环，
+ * 每组先预热几轮，再取几轮里最快的一轮，打印每次调用的纳秒数。
+ * 参数：每轮的遍数，默认50000
+ */
+public class URIUtilBenchMain {
+    private static final String[] TYPICAL = {
+            "/",
+            "/index.html",
+            "/favicon.ico",
+            "/static/css/site.min.css",
+            "/images/logo-2x.png",
+            "/api/v1/users/12345/orders",
+            "/context/servlet/path/info",
+            "/a/b/c/d/e/f/g/h.html",
+            "/download/report.2016.pdf",
+            "/search?q=a//b/../c",
+    };
+
+    private static final String[] ADVERSARIAL = {
+            "/%E4%B8%AD%E6%96%87/%E8%B7%AF%E5%BE%84",
+            "/a%20b/c%2Fd/%41%42%43;jsessionid=abc",
+            "/%2e%2e/%2e/%25%25%25",
+            "/a/./b/./c/./d/./e",
+            "/a/b/../c/../../d/e/..",
+            "/../etc/passwd",
+            "/./././././",
+            "//a///b////c/////d",
+            "/a//b//c?x=//y",
+            "/a/b/c/..",
+    };
+
+    private static final int WARMUP = 5;
+    private static final int ROUNDS = 5;
+
+    private static int failures;
+    private static int sink;
+
+    private interface Op {
+        String apply(String path);
+    }
+
+    private static final Op[] CURRENT = {
+            new Op() {
+                public String apply(String path) {
+                    return URIUtil.decodePath(path);
+                }
+            },
+            new Op() {
+                public String apply(String path) {
+                    return URIUtil.canonicalPath(path);
+                }
+            },
+            new Op() {
+                public String apply(String path) {
+                    return URIUtil.compactPath(path);
+                }
+            }
+    };
+
+    private static final Op[] REFERENCE = {
+            new Op() {
+                public String apply(String path) {
+                    return ReferenceURIUtil.decodePath(path);
+                }
+            },
+            new Op() {
+                public String apply(String path) {
+                    return ReferenceURIUtil.canonicalPath(path);
+                }
+            },
+            new Op() {
+                public String apply(String path) {
+                    return ReferenceURIUtil.compactPath(path);
+                }
+            }
+    };
+
+    private static final String[] NAMES = {"decodePath", "canonicalPath", "compactPath"};
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+
+        //1. 结果要和原来的实现一样
+        long checked = 0;
+        for (int m = 0; m < NAMES.length; m++) {
+            for (String path : TYPICAL) {
+                compare(m, path);
+                checked++;
+            }
+            for (String path : ADVERSARIAL) {
+                compare(m, path);
+                checked++;
+            }
+        }
+        checked += exhaustive("/.a%2;?", 6);
+        System.out.println(checked + " paths checked against the previous implementation");
+
+        //2. 计时
+        System.out.println(String.format("%-14s %-12s %12s %12s %8s", "method", "paths", "before ns", "after ns", "speedup"));
+        for (int m = 0; m < NAMES.length; m++) {
+            bench(m, "typical", TYPICAL, iterations);
+            bench(m, "adversarial", ADVERSARIAL, iterations);
+        }
+        System.out.println("(sink " + sink + ")");
+
+        System.out.println(failures == 0 ? "OK" : "FAIL");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    //所有由chars组成、长度从1到max的路径
+    private static long exhaustive(String chars, int max) {
+        long count = 0;
+        char[] path = new char[max];
+        for (int length = 1; length <= max; length++) {
+            int[] digits = new int[length];
+            while (true) {
+                for (int i = 0; i < length; i++) {
+                    path[i] = chars.charAt(digits[i]);
+                }
+                String s = new String(path, 0, length);
+                for (int m = 0; m < NAMES.length && failures < 10; m++) {
+                    compare(m, s);
+                }
+                count++;
+
+                int i = length - 1;
+                while (i >= 0 && ++digits[i] == chars.length()) {
+                    digits[i--] = 0;
+                }
+                if (i < 0) {
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static void compare(int m, String path) {
+        String expected = apply(REFERENCE[m], path);
+        String actual = apply(CURRENT[m], path);
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            failures++;
+            System.out.println("FAIL " + NAMES[m] + "(\"" + path + "\") = " + actual + " expected " + expected);
+        }
+    }
+
+    //异常也算结果
+    private static String apply(Op op, String path) {
+        try {
+            return op.apply(path);
+        } catch (RuntimeException e) {
+            return "throws " + e.getClass().getName();
+        }
+    }
+
+    private static void bench(int m, String name, String[] paths, int iterations) {
+        long before = Long.MAX_VALUE;
+        long after = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP + ROUNDS; round++) {
+            long reference = time(REFERENCE[m], paths, iterations);
+            long current = time(CURRENT[m], paths, iterations);
+            if (round >= WARMUP) {
+                before = Math.min(before, reference);
+                after = Math.min(after, current);
+            }
+        }
+        double calls = (double)iterations * paths.length;
+        System.out.println(String.format("%-14s %-12s %12.1f %12.1f %7.2fx", NAMES[m], name,
+                before / calls, after / calls, (double)before / after));
+    }
+
+    private static long time(Op op, String[] paths, int iterations) {
+        long start = System.nanoTime();
+        int h = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (String path : paths) {
+                String result = op.apply(path);
+                h += result == null ? 0 : result.length();
+            }
+        }
+        long time = System.nanoTime() - start;
+        sink += h;
+        return time;
+    }
+}